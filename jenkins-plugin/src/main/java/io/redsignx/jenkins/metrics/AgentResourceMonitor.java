@@ -0,0 +1,110 @@
+package io.redsignx.jenkins.metrics;
+
+import hudson.model.Computer;
+import hudson.remoting.VirtualChannel;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Controller side of agent resource sampling. Remoting calls never run on the caller's thread,
+ * so the flow graph listener is not held up by slow or disconnected agents.
+ */
+public class AgentResourceMonitor {
+
+    private static final Logger LOGGER = Logger.getLogger(AgentResourceMonitor.class.getName());
+
+    static final long STOP_TIMEOUT_SECONDS = 10;
+
+    private static AgentResourceMonitor instance;
+
+    private final Function<String, VirtualChannel> channels;
+    private final Executor executor;
+
+    AgentResourceMonitor(Function<String, VirtualChannel> channels, Executor executor) {
+        this.channels = channels;
+        this.executor = executor;
+    }
+
+    public static synchronized AgentResourceMonitor getInstance() {
+        if (instance == null) {
+            instance = new AgentResourceMonitor(AgentResourceMonitor::getChannel, Computer.threadPoolForRemoting);
+        }
+        return instance;
+    }
+
+    @CheckForNull
+    private static VirtualChannel getChannel(String agentName) {
+        Jenkins jenkins = Jenkins.get();
+        Computer computer = agentName.isEmpty() ? jenkins.toComputer() : jenkins.getComputer(agentName);
+        return computer != null ? computer.getChannel() : null;
+    }
+
+    /**
+     * Start sampling an agent.
+     * @param agentName Agent name, empty for the built-in node
+     * @param sampleIntervalSeconds Interval of the intermediate samples taken on the agent
+     * @return A session to pass to {@link #stop(Session)}
+     */
+    public Session start(String agentName, int sampleIntervalSeconds) {
+        String sessionId = UUID.randomUUID().toString();
+        CompletableFuture<VirtualChannel> started = CompletableFuture.supplyAsync(() -> {
+            VirtualChannel channel = channels.apply(agentName);
+            if (channel == null) {
+                return null;
+            }
+            try {
+                return channel.call(new AgentResourceSampler.Start(sessionId, sampleIntervalSeconds)) ? channel : null;
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to start resource sampling on " + agentName, e);
+                return null;
+            }
+        }, executor);
+        return new Session(sessionId, agentName, started);
+    }
+
+    /**
+     * Stop sampling and collect the aggregate.
+     * @return Completes with the usage, or with null if the agent could not be sampled or did not answer in time
+     */
+    public CompletableFuture<ResourceUsage> stop(Session session) {
+        return session.started.thenApplyAsync(channel -> {
+            if (channel == null) {
+                return null;
+            }
+            try {
+                ResourceUsage usage = channel.call(new AgentResourceSampler.Stop(session.id));
+                return usage != null ? usage.withAgentName(session.agentName) : null;
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to stop resource sampling on " + session.agentName, e);
+                return null;
+            }
+        }, executor).completeOnTimeout(null, STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A sampling session started on one agent.
+     */
+    public static final class Session {
+        private final String id;
+        private final String agentName;
+        private final CompletableFuture<VirtualChannel> started;
+
+        Session(String id, String agentName, CompletableFuture<VirtualChannel> started) {
+            this.id = id;
+            this.agentName = agentName;
+            this.started = started;
+        }
+
+        public String getAgentName() {
+            return agentName;
+        }
+    }
+}
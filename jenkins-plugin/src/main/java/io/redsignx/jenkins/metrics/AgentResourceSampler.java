@@ -0,0 +1,230 @@
+package io.redsignx.jenkins.metrics;
+
+import hudson.remoting.Channel;
+import jenkins.security.MasterToSlaveCallable;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Agent-side resource sampling. Sessions are started and stopped through the {@link Start} and
+ * {@link Stop} callables; in between, {@code /proc} is sampled locally and only the aggregate
+ * {@link ResourceUsage} travels back over the remoting channel. A session whose stop can no longer
+ * arrive, because the channel that started it closed, ends at its next sample. At most
+ * {@link #MAX_SESSIONS} run at once and none runs longer than {@link #MAX_SESSION_MILLIS}.
+ */
+public final class AgentResourceSampler {
+
+    private static final Logger LOGGER = Logger.getLogger(AgentResourceSampler.class.getName());
+
+    // Beyond this many sessions the oldest is dropped to make room
+    static final int MAX_SESSIONS = 1000;
+    // Sessions whose stop never arrived on a channel that stayed open, e.g. a stage end the controller missed
+    static final long MAX_SESSION_MILLIS = TimeUnit.HOURS.toMillis(6);
+
+    private static final Map<String, Session> SESSIONS = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService scheduler;
+
+    private AgentResourceSampler() {
+    }
+
+    /**
+     * Start sampling in this JVM.
+     * @param sessionId Unique session ID chosen by the controller
+     * @param sampleIntervalSeconds Interval of the intermediate samples
+     * @return false if resource counters are not available on this machine
+     */
+    static boolean start(String sessionId, int sampleIntervalSeconds) throws IOException {
+        Channel channel = Channel.current();
+        return start(sessionId, sampleIntervalSeconds, () -> channel != null && channel.isClosingOrClosed());
+    }
+
+    /**
+     * @param orphaned Whether the controller can no longer stop the session
+     */
+    static boolean start(String sessionId, int sampleIntervalSeconds, BooleanSupplier orphaned) throws IOException {
+        if (!ProcStats.isSupported()) {
+            return false;
+        }
+        evictSessions(System.currentTimeMillis());
+        Session session = new Session(sessionId, ProcStats.read(), orphaned);
+        int interval = Math.max(1, sampleIntervalSeconds);
+        SESSIONS.put(sessionId, session);
+        session.task = getScheduler().scheduleWithFixedDelay(session::sampleQuietly, interval, interval, TimeUnit.SECONDS);
+        return true;
+    }
+
+    /**
+     * Stop sampling and aggregate the session.
+     * @return Aggregated usage, or null if the session is unknown
+     */
+    @CheckForNull
+    static ResourceUsage stop(String sessionId) throws IOException {
+        Session session = SESSIONS.remove(sessionId);
+        if (session == null) {
+            return null;
+        }
+        session.cancel();
+        return session.finish(ProcStats.read());
+    }
+
+    static int getSessionCount() {
+        return SESSIONS.size();
+    }
+
+    /**
+     * Make room for a new session: drop orphaned and expired sessions, then the oldest while still full.
+     */
+    static void evictSessions(long now) {
+        if (SESSIONS.size() < MAX_SESSIONS) {
+            return;
+        }
+        SESSIONS.values().removeIf(session -> {
+            boolean stale = session.orphaned.getAsBoolean() || now - session.startedAt > MAX_SESSION_MILLIS;
+            if (stale) {
+                session.cancel();
+            }
+            return stale;
+        });
+        while (SESSIONS.size() >= MAX_SESSIONS) {
+            SESSIONS.values().stream().min(Comparator.comparingLong(session -> session.startedAt))
+                .ifPresent(oldest -> {
+                    if (SESSIONS.remove(oldest.id, oldest)) {
+                        oldest.cancel();
+                    }
+                });
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            // Plain JDK thread factory, core classes would have to be loaded over the channel
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "PipelineMetrics.AgentResourceSampler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Running aggregate of one sampling session.
+     */
+    private static final class Session {
+        private final String id;
+        private final long startedAt = System.currentTimeMillis();
+        private final BooleanSupplier orphaned;
+        private final ProcStats first;
+        private ProcStats last;
+        private double peakBusyPercent;
+        private long peakMemoryUsedBytes;
+        private int sampleCount = 1;
+        private volatile ScheduledFuture<?> task;
+
+        Session(String id, ProcStats first, BooleanSupplier orphaned) {
+            this.id = id;
+            this.first = first;
+            this.last = first;
+            this.orphaned = orphaned;
+            this.peakMemoryUsedBytes = first.memoryUsedBytes();
+        }
+
+        void cancel() {
+            ScheduledFuture<?> scheduled = task;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+
+        void sampleQuietly() {
+            if (orphaned.getAsBoolean() || System.currentTimeMillis() - startedAt > MAX_SESSION_MILLIS) {
+                SESSIONS.remove(id, this);
+                cancel();
+                return;
+            }
+            try {
+                sample(ProcStats.read());
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Failed to sample resource usage", e);
+            }
+        }
+
+        synchronized void sample(ProcStats current) {
+            peakBusyPercent = Math.max(peakBusyPercent, busyPercent(last, current));
+            peakMemoryUsedBytes = Math.max(peakMemoryUsedBytes, current.memoryUsedBytes());
+            last = current;
+            sampleCount++;
+        }
+
+        synchronized ResourceUsage finish(ProcStats current) {
+            sample(current);
+            long totalTicks = current.cpuTotalTicks - first.cpuTotalTicks;
+            return new ResourceUsage(
+                null,
+                current.cpuCount,
+                busyPercent(first, current),
+                totalTicks > 0 ? 100.0 * (current.cpuIowaitTicks - first.cpuIowaitTicks) / totalTicks : 0,
+                peakBusyPercent,
+                current.memoryTotalBytes,
+                peakMemoryUsedBytes,
+                Math.max(0, current.diskReadBytes - first.diskReadBytes),
+                Math.max(0, current.diskWriteBytes - first.diskWriteBytes),
+                sampleCount
+            );
+        }
+
+        private static double busyPercent(ProcStats from, ProcStats to) {
+            long totalTicks = to.cpuTotalTicks - from.cpuTotalTicks;
+            return totalTicks > 0 ? 100.0 * (to.cpuBusyTicks - from.cpuBusyTicks) / totalTicks : 0;
+        }
+    }
+
+    /**
+     * Starts a sampling session on the agent.
+     */
+    static final class Start extends MasterToSlaveCallable<Boolean, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String sessionId;
+        private final int sampleIntervalSeconds;
+
+        Start(String sessionId, int sampleIntervalSeconds) {
+            this.sessionId = sessionId;
+            this.sampleIntervalSeconds = sampleIntervalSeconds;
+        }
+
+        @Override
+        public Boolean call() throws IOException {
+            return start(sessionId, sampleIntervalSeconds);
+        }
+    }
+
+    /**
+     * Stops a sampling session on the agent and returns its aggregate.
+     */
+    static final class Stop extends MasterToSlaveCallable<ResourceUsage, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String sessionId;
+
+        Stop(String sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        @Override
+        public ResourceUsage call() throws IOException {
+            return stop(sessionId);
+        }
+    }
+}
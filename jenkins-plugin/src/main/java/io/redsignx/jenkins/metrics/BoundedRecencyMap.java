@@ -0,0 +1,90 @@
+package io.redsignx.jenkins.metrics;
+
+import javax.annotation.CheckForNull;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Concurrent map of per-key state that is forgotten once too many keys are tracked.
+ * When an insert takes the map past its limit, expired entries are dropped, then the least
+ * recently used down to {@link #evictTo(int)} entries. Evicting a tenth at once keeps the sort
+ * off most inserts. Lookups take no lock; one thread evicts at a time, the others carry on.
+ */
+final class BoundedRecencyMap<K, V> {
+
+    private final Map<K, V> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock evicting = new ReentrantLock();
+    private final int maxSize;
+    private final ToLongFunction<V> lastUsed;
+    private final Predicate<V> expired;
+
+    /**
+     * @param maxSize Number of entries above which eviction starts
+     * @param lastUsed Time the entry was last used, in any unit as long as it only grows
+     * @param expired Entries dropped before any other, whatever their last use
+     */
+    BoundedRecencyMap(int maxSize, ToLongFunction<V> lastUsed, Predicate<V> expired) {
+        this.maxSize = maxSize;
+        this.lastUsed = lastUsed;
+        this.expired = expired;
+    }
+
+    /**
+     * @return Number of entries left after evicting from a map of {@code maxSize} entries
+     */
+    static int evictTo(int maxSize) {
+        return maxSize - maxSize / 10;
+    }
+
+    @CheckForNull
+    V get(K key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Get the entry for a key, creating it if needed. The factory has to set the entry's last use,
+     * otherwise the new entry is the first one evicted.
+     */
+    V computeIfAbsent(K key, Function<? super K, ? extends V> factory) {
+        V value = entries.get(key);
+        if (value == null) {
+            value = entries.computeIfAbsent(key, factory);
+            evictIfFull();
+        }
+        return value;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void evictIfFull() {
+        if (entries.size() <= maxSize || !evicting.tryLock()) {
+            return;
+        }
+        try {
+            entries.values().removeIf(expired);
+            if (entries.size() <= maxSize) {
+                return;
+            }
+            // Last use times are copied first, they keep changing while the keys are sorted
+            List<Map.Entry<K, Long>> used = new ArrayList<>(entries.size());
+            for (Map.Entry<K, V> entry : entries.entrySet()) {
+                used.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), lastUsed.applyAsLong(entry.getValue())));
+            }
+            used.sort(Map.Entry.comparingByValue());
+            for (int i = 0; i < used.size() - evictTo(maxSize); i++) {
+                entries.remove(used.get(i).getKey());
+            }
+        } finally {
+            evicting.unlock();
+        }
+    }
+}
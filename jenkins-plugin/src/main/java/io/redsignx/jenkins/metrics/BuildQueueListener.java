@@ -0,0 +1,38 @@
+package io.redsignx.jenkins.metrics;
+
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records how long Pipeline builds waited in the Jenkins queue.
+ * The wait is reported as a {@code queue_wait} event once the build's flow execution starts.
+ */
+@Extension
+public class BuildQueueListener extends QueueListener {
+
+    private static final Logger LOGGER = Logger.getLogger(BuildQueueListener.class.getName());
+
+    @Override
+    public void onLeft(Queue.LeftItem li) {
+        try {
+            // node blocks go through the queue too, they are timed from the flow graph instead
+            if (li.isCancelled() || !(li.task instanceof WorkflowJob)) {
+                return;
+            }
+            if (!PipelineMetricsConfiguration.listenerSnapshot().isQueueLatencyEventsEnabled()) {
+                return;
+            }
+            Label label = li.getAssignedLabel();
+            QueueWaitTracker.get().recordLeft(li.getId(), li.getInQueueSince(), System.currentTimeMillis(),
+                label != null ? label.getExpression() : null);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Error recording queue wait", e);
+        }
+    }
+}
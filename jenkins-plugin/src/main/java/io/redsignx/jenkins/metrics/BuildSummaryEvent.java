@@ -0,0 +1,224 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Event emitted once per run with the critical path and parallelism of its stages.
+ */
+public class BuildSummaryEvent extends MetricEvent {
+
+    /**
+     * Maximum number of stages listed in {@code critical_path} and {@code branch_slack}.
+     */
+    static final int MAX_LISTED_STAGES = 100;
+
+    @SerializedName("result")
+    private final String result;
+
+    @SerializedName("start_timestamp")
+    private final long startTimestamp;
+
+    @SerializedName("total_duration_ms")
+    private final long totalDurationMs;
+
+    @SerializedName("stage_count")
+    private final int stageCount;
+
+    @SerializedName("critical_path_duration_ms")
+    private final long criticalPathDurationMs;
+
+    @SerializedName("critical_path_stage_count")
+    private final int criticalPathStageCount;
+
+    @SerializedName("critical_path")
+    private final List<PathStage> criticalPath;
+
+    @SerializedName("branch_slack")
+    private final List<BranchSlack> branchSlack;
+
+    @SerializedName("stage_time_ms")
+    private final long stageTimeMs;
+
+    @SerializedName("max_parallelism")
+    private final int maxParallelism;
+
+    @SerializedName("average_parallelism")
+    private final double averageParallelism;
+
+    @SerializedName("parallelism_efficiency")
+    private final double parallelismEfficiency;
+
+    public BuildSummaryEvent(String jobFullName, int buildNumber, String buildUrl,
+                             String branchName, String changeId, String changeTarget,
+                             long timestamp, String result, long startTimestamp,
+                             int stageCount, StageDag.Analysis analysis) {
+        super("build_summary", jobFullName, buildNumber, buildUrl,
+              branchName, changeId, changeTarget, timestamp);
+        this.result = result;
+        this.startTimestamp = startTimestamp;
+        this.totalDurationMs = analysis.getTotalDurationMs();
+        this.stageCount = stageCount;
+        this.criticalPathDurationMs = analysis.getCriticalPathDurationMs();
+        this.criticalPathStageCount = analysis.getCriticalPath().size();
+        this.criticalPath = toPathStages(analysis.getCriticalPath());
+        this.branchSlack = toBranchSlack(analysis.getBranchSlack());
+        this.stageTimeMs = analysis.getStageTimeMs();
+        this.maxParallelism = analysis.getMaxParallelism();
+        this.averageParallelism = analysis.getAverageParallelism();
+        this.parallelismEfficiency = analysis.getParallelismEfficiency();
+    }
+
+    /**
+     * Keep the longest critical stages when the path is too long to list, in execution order.
+     */
+    private static List<PathStage> toPathStages(List<StageDag.StageNode> path) {
+        List<StageDag.StageNode> listed = path;
+        if (path.size() > MAX_LISTED_STAGES) {
+            List<StageDag.StageNode> longest = new ArrayList<>(path);
+            longest.sort(Comparator.comparingLong(StageDag.StageNode::duration).reversed());
+            longest = longest.subList(0, MAX_LISTED_STAGES);
+            longest.sort(Comparator.comparingLong(StageDag.StageNode::getStart));
+            listed = longest;
+        }
+        List<PathStage> stages = new ArrayList<>(listed.size());
+        for (StageDag.StageNode node : listed) {
+            stages.add(new PathStage(node.getNodeId(), node.getName(), node.getStart(), node.duration()));
+        }
+        return Collections.unmodifiableList(stages);
+    }
+
+    private static List<BranchSlack> toBranchSlack(List<StageDag.StageNode> nodes) {
+        List<BranchSlack> slack = new ArrayList<>(Math.min(nodes.size(), MAX_LISTED_STAGES));
+        for (StageDag.StageNode node : nodes.subList(0, Math.min(nodes.size(), MAX_LISTED_STAGES))) {
+            slack.add(new BranchSlack(node.getNodeId(), node.getName(), node.getSlackMs()));
+        }
+        return Collections.unmodifiableList(slack);
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    public long getTotalDurationMs() {
+        return totalDurationMs;
+    }
+
+    public int getStageCount() {
+        return stageCount;
+    }
+
+    public long getCriticalPathDurationMs() {
+        return criticalPathDurationMs;
+    }
+
+    public int getCriticalPathStageCount() {
+        return criticalPathStageCount;
+    }
+
+    public List<PathStage> getCriticalPath() {
+        return criticalPath;
+    }
+
+    public List<BranchSlack> getBranchSlack() {
+        return branchSlack;
+    }
+
+    public long getStageTimeMs() {
+        return stageTimeMs;
+    }
+
+    public int getMaxParallelism() {
+        return maxParallelism;
+    }
+
+    public double getAverageParallelism() {
+        return averageParallelism;
+    }
+
+    public double getParallelismEfficiency() {
+        return parallelismEfficiency;
+    }
+
+    /**
+     * A stage on the critical path.
+     */
+    public static final class PathStage {
+
+        @SerializedName("node_id")
+        private final String nodeId;
+
+        @SerializedName("stage_name")
+        private final String stageName;
+
+        @SerializedName("start_timestamp")
+        private final long startTimestamp;
+
+        @SerializedName("duration_ms")
+        private final long durationMs;
+
+        PathStage(String nodeId, String stageName, long startTimestamp, long durationMs) {
+            this.nodeId = nodeId;
+            this.stageName = stageName;
+            this.startTimestamp = startTimestamp;
+            this.durationMs = durationMs;
+        }
+
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        public String getStageName() {
+            return stageName;
+        }
+
+        public long getStartTimestamp() {
+            return startTimestamp;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+    }
+
+    /**
+     * A parallel branch off the critical path and how much longer it could have run.
+     */
+    public static final class BranchSlack {
+
+        @SerializedName("node_id")
+        private final String nodeId;
+
+        @SerializedName("stage_name")
+        private final String stageName;
+
+        @SerializedName("slack_ms")
+        private final long slackMs;
+
+        BranchSlack(String nodeId, String stageName, long slackMs) {
+            this.nodeId = nodeId;
+            this.stageName = stageName;
+            this.slackMs = slackMs;
+        }
+
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        public String getStageName() {
+            return stageName;
+        }
+
+        public long getSlackMs() {
+            return slackMs;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link JsonWriter} that writes CBOR (RFC 8949) instead of JSON text.
+ * Gson streams events straight into this writer, so the CBOR payload uses exactly
+ * the same field names and null handling as the JSON payload without an intermediate
+ * text or tree representation. Objects and arrays use indefinite-length encoding.
+ */
+public class CborJsonWriter extends JsonWriter {
+
+    private static final Writer UNWRITABLE_WRITER = new Writer() {
+        @Override
+        public void write(char[] buffer, int offset, int counter) {
+            throw new AssertionError();
+        }
+
+        @Override
+        public void flush() {
+            throw new AssertionError();
+        }
+
+        @Override
+        public void close() {
+            throw new AssertionError();
+        }
+    };
+
+    private static final TypeAdapter<JsonElement> JSON_ELEMENT = new Gson().getAdapter(JsonElement.class);
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_TEXT = 3;
+
+    private static final int INDEFINITE_ARRAY = 0x9F;
+    private static final int INDEFINITE_MAP = 0xBF;
+    private static final int BREAK = 0xFF;
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int NULL = 0xF6;
+    private static final int FLOAT64 = 0xFB;
+
+    private final ByteArrayOutputStream out;
+    private String deferredName;
+
+    public CborJsonWriter() {
+        this(256);
+    }
+
+    public CborJsonWriter(int initialCapacity) {
+        super(UNWRITABLE_WRITER);
+        this.out = new ByteArrayOutputStream(initialCapacity);
+    }
+
+    /**
+     * @return The CBOR bytes written so far
+     */
+    public byte[] toByteArray() {
+        return out.toByteArray();
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        writeDeferredName();
+        out.write(INDEFINITE_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+        out.write(BREAK);
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        writeDeferredName();
+        out.write(INDEFINITE_MAP);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+        if (deferredName != null) {
+            throw new IllegalStateException("Dangling name: " + deferredName);
+        }
+        out.write(BREAK);
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        if (deferredName != null) {
+            throw new IllegalStateException("Name already set: " + deferredName);
+        }
+        deferredName = name;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        writeDeferredName();
+        writeText(value);
+        return this;
+    }
+
+    /**
+     * Write a raw JSON value, e.g. from a {@code JsonElement} or a custom type adapter,
+     * by parsing it and writing the equivalent CBOR.
+     */
+    @Override
+    public JsonWriter jsonValue(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        JsonElement element;
+        try {
+            element = JsonParser.parseString(value);
+        } catch (JsonParseException e) {
+            throw new IOException("Raw value is not valid JSON", e);
+        }
+        JSON_ELEMENT.write(this, element);
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() throws IOException {
+        if (deferredName != null && !getSerializeNulls()) {
+            // Skip the name and the value, matching JsonWriter
+            deferredName = null;
+            return this;
+        }
+        writeDeferredName();
+        out.write(NULL);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) throws IOException {
+        writeDeferredName();
+        out.write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Boolean value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        return value(value.booleanValue());
+    }
+
+    // Not annotated with @Override: JsonWriter.value(float) is missing from older Gson releases
+    public JsonWriter value(float value) throws IOException {
+        return value((double) value);
+    }
+
+    @Override
+    public JsonWriter value(double value) throws IOException {
+        writeDeferredName();
+        long bits = Double.doubleToLongBits(value);
+        out.write(FLOAT64);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (bits >>> shift));
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) throws IOException {
+        writeDeferredName();
+        if (value >= 0) {
+            writeHeader(MAJOR_UNSIGNED, value);
+        } else {
+            writeHeader(MAJOR_NEGATIVE, -1 - value);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte || value instanceof AtomicInteger || value instanceof AtomicLong) {
+            return value(value.longValue());
+        }
+        if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+            return value(value.longValue());
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return value(value.doubleValue());
+        }
+        // BigDecimal, Gson's lazily parsed numbers and other Number types
+        try {
+            return value(new BigDecimal(value.toString()).longValueExact());
+        } catch (ArithmeticException | NumberFormatException e) {
+            return value(value.doubleValue());
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Nothing buffered outside the byte array
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+
+    private void writeDeferredName() {
+        if (deferredName != null) {
+            writeText(deferredName);
+            deferredName = null;
+        }
+    }
+
+    private void writeText(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeHeader(MAJOR_TEXT, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Write a major type with its argument. The argument is treated as unsigned.
+     */
+    private void writeHeader(int majorType, long argument) {
+        int major = majorType << 5;
+        if (argument >= 0 && argument < 24) {
+            out.write(major | (int) argument);
+        } else if (argument >= 0 && argument <= 0xFFL) {
+            out.write(major | 24);
+            out.write((int) argument);
+        } else if (argument >= 0 && argument <= 0xFFFFL) {
+            out.write(major | 25);
+            writeBigEndian(argument, 2);
+        } else if (argument >= 0 && argument <= 0xFFFFFFFFL) {
+            out.write(major | 26);
+            writeBigEndian(argument, 4);
+        } else {
+            out.write(major | 27);
+            writeBigEndian(argument, 8);
+        }
+    }
+
+    private void writeBigEndian(long value, int bytes) {
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Events an endpoint permanently rejected, appended one JSON object per line to a file under
+ * {@code JENKINS_HOME} so they can be inspected and replayed. The file is rotated to a single
+ * {@code .1} backup once it exceeds {@link #MAX_FILE_BYTES}.
+ */
+public class DeadLetterFile {
+
+    private static final Logger LOGGER = Logger.getLogger(DeadLetterFile.class.getName());
+
+    static final String FILE_NAME = "io.redsignx.jenkins.metrics.DeadLetters.jsonl";
+    static final long MAX_FILE_BYTES = 10 * 1024 * 1024;
+
+    private final File file;
+    private final long maxFileBytes;
+    private final Gson gson = new Gson();
+
+    DeadLetterFile(@CheckForNull File file, long maxFileBytes) {
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    static DeadLetterFile inJenkinsHome() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return new DeadLetterFile(jenkins != null ? new File(jenkins.getRootDir(), FILE_NAME) : null, MAX_FILE_BYTES);
+    }
+
+    /**
+     * Append a rejected event. Failures to write are logged, never thrown.
+     */
+    public synchronized void write(MetricEvent event, @CheckForNull String error, long now) {
+        if (file == null) {
+            LOGGER.warning("Event rejected by the endpoint, no dead-letter file available: " + event.getEventType()
+                + (error != null ? " (" + error + ")" : ""));
+            return;
+        }
+        JsonObject line = new JsonObject();
+        line.addProperty("dead_lettered_at", now);
+        if (error != null) {
+            line.addProperty("error", error);
+        }
+        line.add("event", gson.toJsonTree(event));
+        try {
+            if (file.length() >= maxFileBytes) {
+                Files.move(file.toPath(), file.toPath().resolveSibling(file.getName() + ".1"),
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+            try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write(gson.toJson(line));
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write rejected event to " + file, e);
+        }
+    }
+
+    @CheckForNull
+    File getFile() {
+        return file;
+    }
+}
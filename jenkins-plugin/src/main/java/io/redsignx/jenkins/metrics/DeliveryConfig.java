@@ -0,0 +1,240 @@
+package io.redsignx.jenkins.metrics;
+
+import hudson.util.Secret;
+
+import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the settings the delivery engine reads for every event.
+ * A new snapshot with a higher version is published each time the configuration is saved.
+ */
+public final class DeliveryConfig {
+
+    static final DeliveryConfig DEFAULTS = new DeliveryConfig(0, Collections.emptyList(), null, WireFormat.JSON,
+        PipelineMetricsConfiguration.DEFAULT_CONNECTION_TIMEOUT_SECONDS,
+        PipelineMetricsConfiguration.DEFAULT_READ_TIMEOUT_SECONDS,
+        PipelineMetricsConfiguration.DEFAULT_MAX_QUEUE_SIZE,
+        PipelineMetricsConfiguration.DEFAULT_MAX_RETRIES,
+        PipelineMetricsConfiguration.DEFAULT_INITIAL_RETRY_DELAY_SECONDS,
+        PipelineMetricsConfiguration.DEFAULT_DELIVERY_THREADS,
+        PipelineMetricsConfiguration.DEFAULT_DELIVERY_BATCH_SIZE,
+        PipelineMetricsConfiguration.DEFAULT_VIRTUAL_THREADS_ENABLED,
+        PipelineMetricsConfiguration.DEFAULT_MAX_CONCURRENT_DELIVERIES,
+        PipelineMetricsConfiguration.DEFAULT_RECENT_EVENTS_CAPACITY);
+
+    private final long version;
+    private final List<String> endpointUrls;
+    private final Secret bearerToken;
+    private final WireFormat wireFormat;
+    private final int connectionTimeoutSeconds;
+    private final int readTimeoutSeconds;
+    private final int maxQueueSize;
+    private final int maxRetries;
+    private final int initialRetryDelaySeconds;
+    private final int deliveryThreads;
+    private final int deliveryBatchSize;
+    private final boolean virtualThreadsEnabled;
+    private final int maxConcurrentDeliveries;
+    private final int recentEventsCapacity;
+    private final String otlpEndpointUrl;
+    private final int otlpMaxQueueSize;
+    private final int otlpMaxExportBatchSize;
+
+    /**
+     * Snapshot with span export off.
+     */
+    DeliveryConfig(long version, List<String> endpointUrls, @CheckForNull Secret bearerToken,
+                   WireFormat wireFormat, int connectionTimeoutSeconds, int readTimeoutSeconds,
+                   int maxQueueSize, int maxRetries, int initialRetryDelaySeconds,
+                   int deliveryThreads, int deliveryBatchSize, boolean virtualThreadsEnabled,
+                   int maxConcurrentDeliveries, int recentEventsCapacity) {
+        this(version, endpointUrls, bearerToken, wireFormat, connectionTimeoutSeconds, readTimeoutSeconds,
+            maxQueueSize, maxRetries, initialRetryDelaySeconds, deliveryThreads, deliveryBatchSize,
+            virtualThreadsEnabled, maxConcurrentDeliveries, recentEventsCapacity, null,
+            PipelineMetricsConfiguration.DEFAULT_OTLP_MAX_QUEUE_SIZE,
+            PipelineMetricsConfiguration.DEFAULT_OTLP_MAX_EXPORT_BATCH_SIZE);
+    }
+
+    DeliveryConfig(long version, List<String> endpointUrls, @CheckForNull Secret bearerToken,
+                   WireFormat wireFormat, int connectionTimeoutSeconds, int readTimeoutSeconds,
+                   int maxQueueSize, int maxRetries, int initialRetryDelaySeconds,
+                   int deliveryThreads, int deliveryBatchSize, boolean virtualThreadsEnabled,
+                   int maxConcurrentDeliveries, int recentEventsCapacity,
+                   @CheckForNull String otlpEndpointUrl, int otlpMaxQueueSize, int otlpMaxExportBatchSize) {
+        this.version = version;
+        this.endpointUrls = Collections.unmodifiableList(new ArrayList<>(endpointUrls));
+        this.bearerToken = bearerToken;
+        this.wireFormat = wireFormat;
+        this.connectionTimeoutSeconds = connectionTimeoutSeconds;
+        this.readTimeoutSeconds = readTimeoutSeconds;
+        this.maxQueueSize = Math.max(1, maxQueueSize);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.initialRetryDelaySeconds = Math.max(0, initialRetryDelaySeconds);
+        this.deliveryThreads = Math.max(1, deliveryThreads);
+        this.deliveryBatchSize = Math.max(1, deliveryBatchSize);
+        this.virtualThreadsEnabled = virtualThreadsEnabled;
+        this.maxConcurrentDeliveries = Math.max(1, maxConcurrentDeliveries);
+        this.recentEventsCapacity = recentEventsCapacity;
+        this.otlpEndpointUrl = otlpEndpointUrl != null && !otlpEndpointUrl.trim().isEmpty()
+            ? otlpEndpointUrl.trim() : null;
+        this.otlpMaxQueueSize = Math.max(1, otlpMaxQueueSize);
+        this.otlpMaxExportBatchSize = Math.max(1, otlpMaxExportBatchSize);
+    }
+
+    static DeliveryConfig of(PipelineMetricsConfiguration config, long version) {
+        return new DeliveryConfig(version, endpointUrls(config.getEndpointUrl(), config.getAdditionalEndpointUrls()),
+            config.getBearerToken(),
+            config.getWireFormat(), config.getConnectionTimeoutSeconds(), config.getReadTimeoutSeconds(),
+            config.getMaxQueueSize(), config.getMaxRetries(), config.getInitialRetryDelaySeconds(),
+            config.getDeliveryThreads(), config.getDeliveryBatchSize(), config.isVirtualThreadsEnabled(),
+            config.getMaxConcurrentDeliveries(), config.getRecentEventsCapacity(),
+            config.getOtlpEndpointUrl(), config.getOtlpMaxQueueSize(), config.getOtlpMaxExportBatchSize());
+    }
+
+    /**
+     * @return The primary endpoint followed by the additional ones, trimmed and without duplicates
+     */
+    static List<String> endpointUrls(@CheckForNull String endpointUrl, @CheckForNull String additionalEndpointUrls) {
+        Set<String> urls = new LinkedHashSet<>();
+        if (endpointUrl != null && !endpointUrl.trim().isEmpty()) {
+            urls.add(endpointUrl.trim());
+        }
+        if (additionalEndpointUrls != null) {
+            for (String line : additionalEndpointUrls.split("[\\r\\n]+")) {
+                if (!line.trim().isEmpty()) {
+                    urls.add(line.trim());
+                }
+            }
+        }
+        return new ArrayList<>(urls);
+    }
+
+    /**
+     * @return true if both snapshots need the same HTTP clients; the token and wire format are applied per request
+     */
+    boolean hasSameTransport(DeliveryConfig other) {
+        return endpointUrls.equals(other.endpointUrls)
+            && connectionTimeoutSeconds == other.connectionTimeoutSeconds
+            && readTimeoutSeconds == other.readTimeoutSeconds
+            && getConnectionPoolSize() == other.getConnectionPoolSize();
+    }
+
+    /**
+     * @return true if span export can keep its HTTP client under the other snapshot
+     */
+    boolean hasSameOtlpTransport(DeliveryConfig other) {
+        return Objects.equals(otlpEndpointUrl, other.otlpEndpointUrl)
+            && connectionTimeoutSeconds == other.connectionTimeoutSeconds
+            && readTimeoutSeconds == other.readTimeoutSeconds;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The first endpoint URL, or null if none is configured
+     */
+    @CheckForNull
+    public String getEndpointUrl() {
+        return endpointUrls.isEmpty() ? null : endpointUrls.get(0);
+    }
+
+    /**
+     * @return All endpoint URLs, events are spread over them by job
+     */
+    public List<String> getEndpointUrls() {
+        return endpointUrls;
+    }
+
+    @CheckForNull
+    public String getBearerTokenPlainText() {
+        if (bearerToken == null) {
+            return null;
+        }
+        String token = bearerToken.getPlainText();
+        return token != null && !token.trim().isEmpty() ? token : null;
+    }
+
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    public int getConnectionTimeoutSeconds() {
+        return connectionTimeoutSeconds;
+    }
+
+    public int getReadTimeoutSeconds() {
+        return readTimeoutSeconds;
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public int getInitialRetryDelaySeconds() {
+        return initialRetryDelaySeconds;
+    }
+
+    public int getDeliveryThreads() {
+        return deliveryThreads;
+    }
+
+    /**
+     * @return Maximum number of events sent in one request
+     */
+    public int getDeliveryBatchSize() {
+        return deliveryBatchSize;
+    }
+
+    /**
+     * @return true if deliveries should run on virtual threads, when the JVM has them
+     */
+    public boolean isVirtualThreadsEnabled() {
+        return virtualThreadsEnabled;
+    }
+
+    /**
+     * @return Maximum requests in flight when deliveries run on virtual threads
+     */
+    public int getMaxConcurrentDeliveries() {
+        return maxConcurrentDeliveries;
+    }
+
+    /**
+     * @return Connections per endpoint, enough for every delivery that can be in flight at once
+     */
+    public int getConnectionPoolSize() {
+        return virtualThreadsEnabled ? Math.max(deliveryThreads, maxConcurrentDeliveries) : deliveryThreads;
+    }
+
+    public int getRecentEventsCapacity() {
+        return recentEventsCapacity;
+    }
+
+    /**
+     * @return The OTLP traces endpoint, or null if span export is off
+     */
+    @CheckForNull
+    public String getOtlpEndpointUrl() {
+        return otlpEndpointUrl;
+    }
+
+    public int getOtlpMaxQueueSize() {
+        return otlpMaxQueueSize;
+    }
+
+    public int getOtlpMaxExportBatchSize() {
+        return otlpMaxExportBatchSize;
+    }
+}
@@ -0,0 +1,157 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonParseException;
+
+import javax.annotation.CheckForNull;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Outcome of each event in a request, in request order. Parsed from the collector's
+ * per-event acknowledgements, see {@code deliveryResponse} in event-schema.json:
+ * <pre>{"results": [{"index": 1, "status": "rejected", "error": "..."}]}</pre>
+ * Events not listed were accepted, so a collector may list only the failed ones.
+ */
+public final class DeliveryResult {
+
+    public enum Outcome {
+        /** Stored by the collector */
+        ACCEPTED,
+        /** Not stored, may succeed if sent again */
+        RETRY,
+        /** Never going to be accepted, sent to the dead-letter file */
+        REJECTED
+    }
+
+    private final Outcome[] outcomes;
+    private final String[] errors;
+
+    private DeliveryResult(Outcome[] outcomes, String[] errors) {
+        this.outcomes = outcomes;
+        this.errors = errors;
+    }
+
+    /**
+     * @return A result with the same outcome for every event
+     */
+    static DeliveryResult of(int size, Outcome outcome, @CheckForNull String error) {
+        Outcome[] outcomes = new Outcome[size];
+        String[] errors = new String[size];
+        Arrays.fill(outcomes, outcome);
+        Arrays.fill(errors, error);
+        return new DeliveryResult(outcomes, errors);
+    }
+
+    /**
+     * Parse a response body. Without a {@code results} array every event gets the default outcome.
+     * @param size Number of events in the request
+     * @param defaultOutcome Outcome of events the body does not mention
+     */
+    static DeliveryResult parse(@CheckForNull String body, int size, Outcome defaultOutcome,
+                                @CheckForNull String defaultError) {
+        DeliveryResult result = of(size, defaultOutcome, defaultError);
+        JsonArray results = results(body);
+        if (results == null) {
+            return result;
+        }
+        if (defaultOutcome != Outcome.ACCEPTED) {
+            // The collector answered per event, so events it does not list were accepted
+            Arrays.fill(result.outcomes, Outcome.ACCEPTED);
+            Arrays.fill(result.errors, null);
+        }
+        for (JsonElement element : results) {
+            if (!element.isJsonObject()) {
+                continue;
+            }
+            JsonObject item = element.getAsJsonObject();
+            int index = intOrDefault(item.get("index"), -1);
+            if (index < 0 || index >= size) {
+                continue;
+            }
+            result.outcomes[index] = outcome(stringOrNull(item.get("status")));
+            result.errors[index] = result.outcomes[index] == Outcome.ACCEPTED ? null : stringOrNull(item.get("error"));
+        }
+        return result;
+    }
+
+    /**
+     * Parse a response body that has to name the events it refers to.
+     * @return The outcome of each event, with unlisted events accepted, or null if the body lists none
+     */
+    @CheckForNull
+    static DeliveryResult parseListed(@CheckForNull String body, int size) {
+        return results(body) != null ? parse(body, size, Outcome.ACCEPTED, null) : null;
+    }
+
+    /**
+     * @return This result followed by another, for a request that was split in two
+     */
+    DeliveryResult concat(DeliveryResult other) {
+        Outcome[] outcomes = Arrays.copyOf(this.outcomes, size() + other.size());
+        String[] errors = Arrays.copyOf(this.errors, size() + other.size());
+        System.arraycopy(other.outcomes, 0, outcomes, size(), other.size());
+        System.arraycopy(other.errors, 0, errors, size(), other.size());
+        return new DeliveryResult(outcomes, errors);
+    }
+
+    public int size() {
+        return outcomes.length;
+    }
+
+    public Outcome getOutcome(int index) {
+        return outcomes[index];
+    }
+
+    @CheckForNull
+    public String getError(int index) {
+        return errors[index];
+    }
+
+    @CheckForNull
+    private static JsonArray results(@CheckForNull String body) {
+        if (body == null || body.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            JsonElement parsed = JsonParser.parseString(body);
+            if (parsed.isJsonObject() && parsed.getAsJsonObject().get("results") instanceof JsonArray) {
+                return parsed.getAsJsonObject().getAsJsonArray("results");
+            }
+        } catch (JsonParseException e) {
+            // Collectors predating the contract may answer with plain text
+        }
+        return null;
+    }
+
+    private static Outcome outcome(@CheckForNull String status) {
+        if (status == null) {
+            return Outcome.RETRY;
+        }
+        switch (status.toLowerCase(Locale.ROOT)) {
+            case "accepted":
+                return Outcome.ACCEPTED;
+            case "rejected":
+                return Outcome.REJECTED;
+            default:
+                // Unknown statuses are retried rather than lost
+                return Outcome.RETRY;
+        }
+    }
+
+    @CheckForNull
+    private static String stringOrNull(@CheckForNull JsonElement element) {
+        return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+    }
+
+    private static int intOrDefault(@CheckForNull JsonElement element, int defaultValue) {
+        try {
+            return element != null && element.isJsonPrimitive() ? element.getAsInt() : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
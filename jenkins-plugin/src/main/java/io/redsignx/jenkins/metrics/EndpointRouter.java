@@ -0,0 +1,249 @@
+package io.redsignx.jenkins.metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads events over the configured endpoints with a consistent-hash ring keyed on the job,
+ * so all events of a job go to the same collector replica while it is healthy. Adding or removing
+ * an endpoint only moves the jobs that hash next to it. Endpoints failing repeatedly are skipped
+ * for a cool-down period, and their jobs fail over to the next member of the ring.
+ */
+public class EndpointRouter {
+
+    // Virtual nodes per endpoint, enough for an even spread across a handful of replicas
+    static final int VIRTUAL_NODES = 128;
+    static final int FAILURE_THRESHOLD = 3;
+    static final long INITIAL_COOL_DOWN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    static final long MAX_COOL_DOWN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private volatile Ring ring = new Ring(Collections.emptyList());
+    private final Map<String, EndpointStats> stats = new ConcurrentHashMap<>();
+
+    EndpointRouter(List<String> endpoints) {
+        setEndpoints(endpoints);
+    }
+
+    /**
+     * Replace the ring. Health and counters of endpoints that remain configured are kept.
+     */
+    synchronized void setEndpoints(List<String> endpoints) {
+        if (endpoints.equals(ring.endpoints)) {
+            return;
+        }
+        for (String endpoint : endpoints) {
+            stats.computeIfAbsent(endpoint, EndpointStats::new);
+        }
+        stats.keySet().retainAll(endpoints);
+        ring = new Ring(endpoints);
+    }
+
+    /**
+     * @return Endpoints to try for a job, in order: the owner and then the following ring members,
+     *         with endpoints that are cooling down moved to the end
+     */
+    List<String> route(String job, long now) {
+        List<String> ordered = ring.walk(hash(job));
+        List<String> route = new ArrayList<>(ordered.size());
+        List<String> coolingDown = new ArrayList<>();
+        for (String endpoint : ordered) {
+            EndpointStats endpointStats = stats.get(endpoint);
+            if (endpointStats == null || endpointStats.isAvailable(now)) {
+                route.add(endpoint);
+            } else {
+                coolingDown.add(endpoint);
+            }
+        }
+        route.addAll(coolingDown);
+        return route;
+    }
+
+    /**
+     * @return Endpoints in the order a job walks the ring, regardless of health
+     */
+    List<String> walk(String job) {
+        return ring.walk(hash(job));
+    }
+
+    /**
+     * @return The endpoint owning a job on the ring, regardless of health, or null without endpoints
+     */
+    String owner(String job) {
+        return ring.owner(hash(job));
+    }
+
+    void recordSuccess(String endpoint, long latencyNanos, boolean failover) {
+        EndpointStats endpointStats = stats.get(endpoint);
+        if (endpointStats != null) {
+            endpointStats.recordSuccess(latencyNanos, failover);
+        }
+    }
+
+    void recordFailure(String endpoint, long now) {
+        EndpointStats endpointStats = stats.get(endpoint);
+        if (endpointStats != null) {
+            endpointStats.recordFailure(now);
+        }
+    }
+
+    /**
+     * @return Stats of the configured endpoints, in configuration order
+     */
+    public List<EndpointStats> getStats() {
+        List<EndpointStats> result = new ArrayList<>();
+        for (String endpoint : ring.endpoints) {
+            EndpointStats endpointStats = stats.get(endpoint);
+            if (endpointStats != null) {
+                result.add(endpointStats);
+            }
+        }
+        return result;
+    }
+
+    static long hash(String key) {
+        // FNV-1a followed by the MurmurHash3 finalizer, so similar job names land far apart
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Immutable hash ring over a fixed list of endpoints.
+     */
+    private static final class Ring {
+        private final List<String> endpoints;
+        private final TreeMap<Long, String> points = new TreeMap<>();
+
+        Ring(List<String> endpoints) {
+            this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+            for (String endpoint : endpoints) {
+                for (int i = 0; i < VIRTUAL_NODES; i++) {
+                    points.put(hash(endpoint + "#" + i), endpoint);
+                }
+            }
+        }
+
+        String owner(long position) {
+            if (endpoints.size() <= 1) {
+                return endpoints.isEmpty() ? null : endpoints.get(0);
+            }
+            Map.Entry<Long, String> point = points.ceilingEntry(position);
+            return point != null ? point.getValue() : points.firstEntry().getValue();
+        }
+
+        List<String> walk(long position) {
+            if (endpoints.size() <= 1) {
+                return endpoints;
+            }
+            Map<String, Boolean> seen = new LinkedHashMap<>();
+            for (String endpoint : points.tailMap(position).values()) {
+                if (seen.putIfAbsent(endpoint, Boolean.TRUE) == null && seen.size() == endpoints.size()) {
+                    return new ArrayList<>(seen.keySet());
+                }
+            }
+            for (String endpoint : points.values()) {
+                if (seen.putIfAbsent(endpoint, Boolean.TRUE) == null && seen.size() == endpoints.size()) {
+                    break;
+                }
+            }
+            return new ArrayList<>(seen.keySet());
+        }
+    }
+
+    /**
+     * Health and delivery counters of one endpoint.
+     */
+    public static final class EndpointStats {
+        private final String endpoint;
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong failovers = new AtomicLong();
+        private final AtomicLong totalLatencyNanos = new AtomicLong();
+        private int consecutiveFailures;
+        private long coolDownMillis;
+        private long unavailableUntil;
+
+        EndpointStats(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        synchronized boolean isAvailable(long now) {
+            return now >= unavailableUntil;
+        }
+
+        void recordSuccess(long latencyNanos, boolean failover) {
+            sent.incrementAndGet();
+            totalLatencyNanos.addAndGet(latencyNanos);
+            if (failover) {
+                failovers.incrementAndGet();
+            }
+            synchronized (this) {
+                consecutiveFailures = 0;
+                coolDownMillis = 0;
+                unavailableUntil = 0;
+            }
+        }
+
+        void recordFailure(long now) {
+            failed.incrementAndGet();
+            synchronized (this) {
+                consecutiveFailures++;
+                if (consecutiveFailures >= FAILURE_THRESHOLD && now >= unavailableUntil) {
+                    // Each failed probe after a cool-down doubles the next one
+                    coolDownMillis = coolDownMillis == 0
+                        ? INITIAL_COOL_DOWN_MILLIS
+                        : Math.min(MAX_COOL_DOWN_MILLIS, coolDownMillis * 2);
+                    unavailableUntil = now + coolDownMillis;
+                }
+            }
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public boolean isHealthy() {
+            return isAvailable(System.currentTimeMillis());
+        }
+
+        public synchronized int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        public long getSent() {
+            return sent.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * @return Requests this endpoint accepted for jobs owned by another endpoint, a batch counting once
+         */
+        public long getFailovers() {
+            return failovers.get();
+        }
+
+        public double getAverageLatencyMillis() {
+            long count = sent.get();
+            return count > 0 ? totalLatencyNanos.get() / 1e6 / count : 0;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package io.redsignx.jenkins.metrics;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Transport used by {@link MetricDeliveryService} to send a batch of events to one endpoint.
+ */
+interface EventSender {
+
+    /**
+     * Send events in one request using the given configuration snapshot.
+     * @param events Events of the request; a single event is sent on its own, several as an array
+     * @param endpointUrl One of the snapshot's endpoints, chosen by the {@link EndpointRouter}
+     * @return The outcome of each event, in the order given
+     * @throws PayloadTooLargeException if the endpoint refused the request for its size
+     * @throws RejectedException if the endpoint refused the request without naming the events at fault
+     * @throws ClientErrorException if the endpoint refused the credentials; may be retried
+     * @throws IOException if the request failed as a whole and may be retried
+     */
+    DeliveryResult send(List<MetricEvent> events, String endpointUrl, DeliveryConfig config) throws IOException;
+
+    /**
+     * Apply a new configuration snapshot. Sends already in progress finish with the previous transport.
+     */
+    void reconfigure(DeliveryConfig config);
+
+    void close();
+
+    /**
+     * The endpoint answered 413, the events have to be sent in smaller requests.
+     */
+    class PayloadTooLargeException extends IOException {
+        PayloadTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The endpoint answered 400 or 422 without per-event results. Any of the events may be at fault,
+     * so they have to be sent in smaller requests until the refused ones are found.
+     */
+    class RejectedException extends IOException {
+        RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The endpoint answered 401 or 403. The token is wrong for now, as while it is rotated, so the
+     * events are kept for a later retry. Other endpoints share the token, so the events do not fail
+     * over, and the endpoint's health is unaffected. A 404 is specific to the endpoint's URL and is
+     * handled like any other failure.
+     */
+    class ClientErrorException extends IOException {
+        ClientErrorException(String message) {
+            super(message);
+        }
+
+        ClientErrorException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.annotations.SerializedName;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Event emitted when a {@code node} block gets an executor.
+ * The stage fields identify the enclosing stage, or are omitted for {@code node} blocks
+ * outside any stage, and {@code node_id} is the {@code node} step's FlowNode.
+ */
+public class ExecutorWaitEvent extends MetricEvent {
+
+    @SerializedName("label")
+    @CheckForNull
+    private final String label;
+
+    @SerializedName("agent_name")
+    @CheckForNull
+    private final String agentName;
+
+    @SerializedName("start_timestamp")
+    private final long startTimestamp;
+
+    @SerializedName("wait_ms")
+    private final long waitMs;
+
+    public ExecutorWaitEvent(String stageId, String stageName,
+                             String jobFullName, int buildNumber, String buildUrl,
+                             String branchName, String changeId, String changeTarget,
+                             String nodeId, long timestamp, String label, String agentName,
+                             long startTimestamp, long waitMs) {
+        super("executor_wait", stageId, stageName, jobFullName, buildNumber, buildUrl,
+              branchName, changeId, changeTarget, nodeId, timestamp);
+        this.label = label;
+        this.agentName = agentName;
+        this.startTimestamp = startTimestamp;
+        this.waitMs = waitMs;
+    }
+
+    /**
+     * @return Label expression requested by the {@code node} step, or null for any agent
+     */
+    @CheckForNull
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return Name of the agent the block runs on, empty for the built-in node
+     */
+    @CheckForNull
+    public String getAgentName() {
+        return agentName;
+    }
+
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    public long getWaitMs() {
+        return waitMs;
+    }
+}
@@ -0,0 +1,179 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends events with pooled HTTP clients built from the current {@link DeliveryConfig}, one client
+ * and connection pool per endpoint. When the endpoints, timeouts or thread count change, new
+ * clients are swapped in and the previous ones are closed once their in-flight requests are done.
+ */
+class HttpEventSender implements EventSender {
+
+    private static final Logger LOGGER = Logger.getLogger(HttpEventSender.class.getName());
+
+    private final Gson gson = new GsonBuilder().create();
+    private volatile Transport transport;
+    private volatile boolean closed;
+
+    HttpEventSender(DeliveryConfig config) {
+        this.transport = new Transport(config);
+    }
+
+    @Override
+    public DeliveryResult send(List<MetricEvent> events, String endpointUrl, DeliveryConfig config)
+            throws IOException {
+        WireFormat wireFormat = config.getWireFormat();
+        // A lone event keeps the single-object body collectors without batch support expect
+        byte[] payload = wireFormat.encode(gson, events.size() == 1 ? events.get(0) : new ArrayList<>(events));
+
+        HttpPost post = new HttpPost(endpointUrl);
+        post.setHeader("Content-Type", wireFormat.getContentType());
+        String bearerToken = config.getBearerTokenPlainText();
+        if (bearerToken != null) {
+            post.setHeader("Authorization", "Bearer " + bearerToken);
+        }
+        post.setEntity(new ByteArrayEntity(payload));
+
+        Transport current = acquire();
+        try {
+            HttpResponse response = current.client(endpointUrl).execute(post);
+            int statusCode = response.getStatusLine().getStatusCode();
+
+            // Reading the whole body also releases the connection
+            String body = response.getEntity() != null
+                ? EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8)
+                : null;
+
+            if (statusCode >= 200 && statusCode < 300) {
+                return DeliveryResult.parse(body, events.size(), DeliveryResult.Outcome.ACCEPTED, null);
+            }
+            if (statusCode == 413) {
+                throw new PayloadTooLargeException("HTTP request failed with status code: 413");
+            }
+            if (statusCode == 400 || statusCode == 422) {
+                // The collector understood the request and refused its content, sending it again will not help
+                DeliveryResult result = DeliveryResult.parseListed(body, events.size());
+                if (result == null) {
+                    throw new RejectedException("Rejected with status code: " + statusCode);
+                }
+                return result;
+            }
+            if (statusCode == 401 || statusCode == 403) {
+                throw new ClientErrorException("HTTP request failed with status code: " + statusCode);
+            }
+            throw new IOException("HTTP request failed with status code: " + statusCode);
+        } finally {
+            current.release();
+        }
+    }
+
+    @Override
+    public synchronized void reconfigure(DeliveryConfig config) {
+        Transport previous = transport;
+        if (previous.config.hasSameTransport(config)) {
+            return;
+        }
+        transport = new Transport(config);
+        previous.retire();
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        transport.retire();
+    }
+
+    private Transport acquire() throws IOException {
+        while (true) {
+            if (closed) {
+                throw new IOException("HTTP sender is closed");
+            }
+            Transport current = transport;
+            if (current.retain()) {
+                return current;
+            }
+            // Swapped out between the read and the retain, the next read sees the replacement
+        }
+    }
+
+    /**
+     * HTTP clients for one configuration snapshot and the number of requests currently using them.
+     */
+    private static final class Transport {
+        private final DeliveryConfig config;
+        private final Map<String, CloseableHttpClient> clients = new ConcurrentHashMap<>();
+        private int users;
+        private boolean retired;
+
+        Transport(DeliveryConfig config) {
+            this.config = config;
+        }
+
+        CloseableHttpClient client(String endpointUrl) {
+            return clients.computeIfAbsent(endpointUrl, url -> {
+                // Every delivery thread may end up on the same endpoint while the others fail over to it
+                PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+                connections.setMaxTotal(config.getConnectionPoolSize());
+                connections.setDefaultMaxPerRoute(config.getConnectionPoolSize());
+                return HttpClientBuilder.create()
+                    .setConnectionManager(connections)
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(config.getConnectionTimeoutSeconds() * 1000)
+                        .setConnectionRequestTimeout(config.getConnectionTimeoutSeconds() * 1000)
+                        .setSocketTimeout(config.getReadTimeoutSeconds() * 1000)
+                        .build())
+                    .build();
+            });
+        }
+
+        synchronized boolean retain() {
+            if (retired) {
+                return false;
+            }
+            users++;
+            return true;
+        }
+
+        synchronized void release() {
+            users--;
+            if (retired && users == 0) {
+                closeQuietly();
+            }
+        }
+
+        synchronized void retire() {
+            retired = true;
+            if (users == 0) {
+                closeQuietly();
+            }
+        }
+
+        private void closeQuietly() {
+            for (CloseableHttpClient client : clients.values()) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to close HTTP client", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package io.redsignx.jenkins.metrics;
+
+import javax.annotation.CheckForNull;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the settings the Pipeline listeners read for every flow node:
+ * admission control, coalescing, step sampling, resource sampling, baselines and build summaries.
+ * Published together with the {@link DeliveryConfig} of the same version, so a listener
+ * reads it once per node and passes it down instead of looking the configuration up.
+ */
+public final class ListenerConfig {
+
+    static final ListenerConfig DEFAULTS = new Builder().build();
+
+    private final long version;
+    private final boolean admissionControlEnabled;
+    private final int jobStageBurst;
+    private final int jobStageRatePerSecond;
+    private final int runStageBurst;
+    private final int runStageRatePerSecond;
+    private final int throttledStageSampleInterval;
+    private final boolean coalesceShortStages;
+    private final int stageCoalesceGraceSeconds;
+    private final boolean stepEventsEnabled;
+    private final Map<String, Integer> stepTypeIntervals;
+    private final int fastStepSampleInterval;
+    private final int slowStepThresholdSeconds;
+    private final boolean queueLatencyEventsEnabled;
+    private final boolean resourceSamplingEnabled;
+    private final int resourceSampleIntervalSeconds;
+    private final boolean stageBaselinesEnabled;
+    private final double stageRegressionFactor;
+    private final int maxStageBaselines;
+    private final boolean buildSummaryEnabled;
+    private final boolean spanExportEnabled;
+
+    private ListenerConfig(Builder builder) {
+        this.version = builder.version;
+        this.admissionControlEnabled = builder.admissionControlEnabled;
+        this.jobStageBurst = Math.max(1, builder.jobStageBurst);
+        this.jobStageRatePerSecond = Math.max(1, builder.jobStageRatePerSecond);
+        this.runStageBurst = Math.max(1, builder.runStageBurst);
+        this.runStageRatePerSecond = Math.max(1, builder.runStageRatePerSecond);
+        this.throttledStageSampleInterval = Math.max(1, builder.throttledStageSampleInterval);
+        this.coalesceShortStages = builder.coalesceShortStages;
+        this.stageCoalesceGraceSeconds = Math.max(1, builder.stageCoalesceGraceSeconds);
+        this.stepEventsEnabled = builder.stepEventsEnabled;
+        // Parsed once here rather than for every step
+        this.stepTypeIntervals = StepSampler.parseAllowlist(builder.stepTypeAllowlist);
+        this.fastStepSampleInterval = Math.max(1, builder.fastStepSampleInterval);
+        this.slowStepThresholdSeconds = Math.max(1, builder.slowStepThresholdSeconds);
+        this.queueLatencyEventsEnabled = builder.queueLatencyEventsEnabled;
+        this.resourceSamplingEnabled = builder.resourceSamplingEnabled;
+        this.resourceSampleIntervalSeconds = Math.max(1, builder.resourceSampleIntervalSeconds);
+        this.stageBaselinesEnabled = builder.stageBaselinesEnabled;
+        // A factor of 1 already flags every stage slower than its baseline
+        this.stageRegressionFactor = Math.max(1.0, builder.stageRegressionFactor);
+        this.maxStageBaselines = Math.max(1, builder.maxStageBaselines);
+        this.buildSummaryEnabled = builder.buildSummaryEnabled;
+        this.spanExportEnabled = builder.otlpEndpointUrl != null && !builder.otlpEndpointUrl.trim().isEmpty();
+    }
+
+    static ListenerConfig of(PipelineMetricsConfiguration config, long version) {
+        return new Builder()
+            .version(version)
+            .admissionControlEnabled(config.isAdmissionControlEnabled())
+            .jobStageBudget(config.getJobStageBurst(), config.getJobStageRatePerSecond())
+            .runStageBudget(config.getRunStageBurst(), config.getRunStageRatePerSecond())
+            .throttledStageSampleInterval(config.getThrottledStageSampleInterval())
+            .coalesceShortStages(config.isCoalesceShortStages(), config.getStageCoalesceGraceSeconds())
+            .stepEventsEnabled(config.isStepEventsEnabled())
+            .stepTypeAllowlist(config.getStepTypeAllowlist())
+            .fastStepSampleInterval(config.getFastStepSampleInterval())
+            .slowStepThresholdSeconds(config.getSlowStepThresholdSeconds())
+            .queueLatencyEventsEnabled(config.isQueueLatencyEventsEnabled())
+            .resourceSampling(config.isResourceSamplingEnabled(), config.getResourceSampleIntervalSeconds())
+            .stageBaselines(config.isStageBaselinesEnabled(), config.getStageRegressionFactor(),
+                config.getMaxStageBaselines())
+            .buildSummaryEnabled(config.isBuildSummaryEnabled())
+            .otlpEndpointUrl(config.getOtlpEndpointUrl())
+            .build();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isAdmissionControlEnabled() {
+        return admissionControlEnabled;
+    }
+
+    public int getJobStageBurst() {
+        return jobStageBurst;
+    }
+
+    public int getJobStageRatePerSecond() {
+        return jobStageRatePerSecond;
+    }
+
+    public int getRunStageBurst() {
+        return runStageBurst;
+    }
+
+    public int getRunStageRatePerSecond() {
+        return runStageRatePerSecond;
+    }
+
+    public int getThrottledStageSampleInterval() {
+        return throttledStageSampleInterval;
+    }
+
+    public boolean isCoalesceShortStages() {
+        return coalesceShortStages;
+    }
+
+    public int getStageCoalesceGraceSeconds() {
+        return stageCoalesceGraceSeconds;
+    }
+
+    public boolean isStepEventsEnabled() {
+        return stepEventsEnabled;
+    }
+
+    /**
+     * @return Sample interval by allowlisted step type, 0 meaning the default interval;
+     *         empty when every step type is reported
+     */
+    Map<String, Integer> getStepTypeIntervals() {
+        return stepTypeIntervals;
+    }
+
+    public int getFastStepSampleInterval() {
+        return fastStepSampleInterval;
+    }
+
+    public int getSlowStepThresholdSeconds() {
+        return slowStepThresholdSeconds;
+    }
+
+    public boolean isQueueLatencyEventsEnabled() {
+        return queueLatencyEventsEnabled;
+    }
+
+    public boolean isResourceSamplingEnabled() {
+        return resourceSamplingEnabled;
+    }
+
+    public int getResourceSampleIntervalSeconds() {
+        return resourceSampleIntervalSeconds;
+    }
+
+    public boolean isStageBaselinesEnabled() {
+        return stageBaselinesEnabled;
+    }
+
+    public double getStageRegressionFactor() {
+        return stageRegressionFactor;
+    }
+
+    public int getMaxStageBaselines() {
+        return maxStageBaselines;
+    }
+
+    public boolean isBuildSummaryEnabled() {
+        return buildSummaryEnabled;
+    }
+
+    /**
+     * @return true if an OTLP endpoint is configured
+     */
+    public boolean isSpanExportEnabled() {
+        return spanExportEnabled;
+    }
+
+    /**
+     * Builds snapshots from the configuration, and in tests from just the settings under test.
+     * Starts from the configuration defaults.
+     */
+    static final class Builder {
+        private long version;
+        private boolean admissionControlEnabled = PipelineMetricsConfiguration.DEFAULT_ADMISSION_CONTROL_ENABLED;
+        private int jobStageBurst = PipelineMetricsConfiguration.DEFAULT_JOB_STAGE_BURST;
+        private int jobStageRatePerSecond = PipelineMetricsConfiguration.DEFAULT_JOB_STAGE_RATE_PER_SECOND;
+        private int runStageBurst = PipelineMetricsConfiguration.DEFAULT_RUN_STAGE_BURST;
+        private int runStageRatePerSecond = PipelineMetricsConfiguration.DEFAULT_RUN_STAGE_RATE_PER_SECOND;
+        private int throttledStageSampleInterval = PipelineMetricsConfiguration.DEFAULT_THROTTLED_STAGE_SAMPLE_INTERVAL;
+        private boolean coalesceShortStages = PipelineMetricsConfiguration.DEFAULT_COALESCE_SHORT_STAGES;
+        private int stageCoalesceGraceSeconds = PipelineMetricsConfiguration.DEFAULT_STAGE_COALESCE_GRACE_SECONDS;
+        private boolean stepEventsEnabled = PipelineMetricsConfiguration.DEFAULT_STEP_EVENTS_ENABLED;
+        private String stepTypeAllowlist = PipelineMetricsConfiguration.DEFAULT_STEP_TYPE_ALLOWLIST;
+        private int fastStepSampleInterval = PipelineMetricsConfiguration.DEFAULT_FAST_STEP_SAMPLE_INTERVAL;
+        private int slowStepThresholdSeconds = PipelineMetricsConfiguration.DEFAULT_SLOW_STEP_THRESHOLD_SECONDS;
+        private boolean queueLatencyEventsEnabled = PipelineMetricsConfiguration.DEFAULT_QUEUE_LATENCY_EVENTS_ENABLED;
+        private boolean resourceSamplingEnabled = PipelineMetricsConfiguration.DEFAULT_RESOURCE_SAMPLING_ENABLED;
+        private int resourceSampleIntervalSeconds = PipelineMetricsConfiguration.DEFAULT_RESOURCE_SAMPLE_INTERVAL_SECONDS;
+        private boolean stageBaselinesEnabled = PipelineMetricsConfiguration.DEFAULT_STAGE_BASELINES_ENABLED;
+        private double stageRegressionFactor = PipelineMetricsConfiguration.DEFAULT_STAGE_REGRESSION_FACTOR;
+        private int maxStageBaselines = PipelineMetricsConfiguration.DEFAULT_MAX_STAGE_BASELINES;
+        private boolean buildSummaryEnabled = PipelineMetricsConfiguration.DEFAULT_BUILD_SUMMARY_ENABLED;
+        private String otlpEndpointUrl;
+
+        Builder version(long version) {
+            this.version = version;
+            return this;
+        }
+
+        Builder admissionControlEnabled(boolean enabled) {
+            this.admissionControlEnabled = enabled;
+            return this;
+        }
+
+        Builder jobStageBudget(int burst, int ratePerSecond) {
+            this.jobStageBurst = burst;
+            this.jobStageRatePerSecond = ratePerSecond;
+            return this;
+        }
+
+        Builder runStageBudget(int burst, int ratePerSecond) {
+            this.runStageBurst = burst;
+            this.runStageRatePerSecond = ratePerSecond;
+            return this;
+        }
+
+        Builder throttledStageSampleInterval(int interval) {
+            this.throttledStageSampleInterval = interval;
+            return this;
+        }
+
+        Builder coalesceShortStages(boolean enabled, int graceSeconds) {
+            this.coalesceShortStages = enabled;
+            this.stageCoalesceGraceSeconds = graceSeconds;
+            return this;
+        }
+
+        Builder stepEventsEnabled(boolean enabled) {
+            this.stepEventsEnabled = enabled;
+            return this;
+        }
+
+        Builder stepTypeAllowlist(@CheckForNull String allowlist) {
+            this.stepTypeAllowlist = allowlist;
+            return this;
+        }
+
+        Builder fastStepSampleInterval(int interval) {
+            this.fastStepSampleInterval = interval;
+            return this;
+        }
+
+        Builder slowStepThresholdSeconds(int seconds) {
+            this.slowStepThresholdSeconds = seconds;
+            return this;
+        }
+
+        Builder queueLatencyEventsEnabled(boolean enabled) {
+            this.queueLatencyEventsEnabled = enabled;
+            return this;
+        }
+
+        Builder resourceSampling(boolean enabled, int intervalSeconds) {
+            this.resourceSamplingEnabled = enabled;
+            this.resourceSampleIntervalSeconds = intervalSeconds;
+            return this;
+        }
+
+        Builder stageBaselines(boolean enabled, double regressionFactor, int maxBaselines) {
+            this.stageBaselinesEnabled = enabled;
+            this.stageRegressionFactor = regressionFactor;
+            this.maxStageBaselines = maxBaselines;
+            return this;
+        }
+
+        Builder buildSummaryEnabled(boolean enabled) {
+            this.buildSummaryEnabled = enabled;
+            return this;
+        }
+
+        Builder otlpEndpointUrl(@CheckForNull String url) {
+            this.otlpEndpointUrl = url;
+            return this;
+        }
+
+        ListenerConfig build() {
+            return new ListenerConfig(this);
+        }
+    }
+}
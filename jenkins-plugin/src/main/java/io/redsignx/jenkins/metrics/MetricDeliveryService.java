@@ -1,75 +1,160 @@
 package io.redsignx.jenkins.metrics;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import hudson.util.Secret;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.util.EntityUtils;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Asynchronous HTTP delivery service for metric events.
  * Implements retry logic with exponential backoff and queue management.
+ * Settings come from the current {@link DeliveryConfig} snapshot and change in place without
+ * dropping queued events.
+ * <p>
+ * Events are queued in lanes picked by hashing the job's full name. One thread at a time delivers
+ * a lane, in batches of up to the configured size, so each job's events stay ordered while other
+ * jobs deliver concurrently. A batch waiting for its retry keeps its lane but not its thread.
+ * <p>
+ * With several endpoints, an {@link EndpointRouter} picks each job's route and events fail over
+ * along it. Only the events the collector asks to retry are sent again; events it rejects go to
+ * the {@link DeadLetterFile}. On Java 21 and later, batches can be delivered on virtual threads,
+ * with the number of requests in flight bounded by a semaphore.
  */
 public class MetricDeliveryService {
-    
+
     private static final Logger LOGGER = Logger.getLogger(MetricDeliveryService.class.getName());
     private static MetricDeliveryService instance;
-    
-    private final BlockingQueue<MetricEvent> eventQueue;
-    private final ExecutorService executorService;
-    private final Gson gson;
+
+    // Refused credentials wait this many times longer than an outage, they are fixed by a person
+    static final int CLIENT_ERROR_BACKOFF_FACTOR = 5;
+    // Enough lanes that jobs rarely share one at the default concurrency, few enough to allocate up front
+    static final int LANE_COUNT = 1024;
+
+    // Lanes are unbounded underneath, the capacity is enforced through queuedCount so it can change at any time
+    private final Lane[] lanes = new Lane[LANE_COUNT];
+    // Lanes with events and no thread delivering them
+    private final BlockingQueue<Lane> readyLanes = new LinkedBlockingQueue<>();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final ExecutorService workerThreads;
+    // Hands lanes back to the delivery threads once their retry is due
+    private final ScheduledExecutorService retries;
+    private final List<Worker> workers = new ArrayList<>();
+    private final EventSender sender;
+    private final EndpointRouter router;
+    private final DeadLetterFile deadLetters;
+    private final InFlightLimit inFlight;
+    // Non-null while deliveries run on virtual threads
+    private volatile ExecutorService virtualThreads;
+    private volatile DeliveryConfig config;
     private volatile boolean running = false;
-    
-    private MetricDeliveryService() {
-        PipelineMetricsConfiguration config = PipelineMetricsConfiguration.get();
-        int maxQueueSize = config != null ? config.getMaxQueueSize() : 1000;
-        this.eventQueue = new LinkedBlockingQueue<>(maxQueueSize);
-        this.executorService = Executors.newFixedThreadPool(2);
-        this.gson = new GsonBuilder().setPrettyPrinting().create();
-    }
-    
+
+    MetricDeliveryService(DeliveryConfig config, EventSender sender, DeadLetterFile deadLetters) {
+        this.config = config;
+        this.sender = sender;
+        this.deadLetters = deadLetters;
+        this.router = new EndpointRouter(config.getEndpointUrls());
+        this.inFlight = new InFlightLimit(config.getMaxConcurrentDeliveries());
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+        this.workerThreads = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), "PipelineMetrics.MetricDeliveryService"));
+        this.retries = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "PipelineMetrics.MetricDeliveryService.retry"));
+    }
+
     public static synchronized MetricDeliveryService getInstance() {
         if (instance == null) {
-            instance = new MetricDeliveryService();
+            DeliveryConfig config = PipelineMetricsConfiguration.snapshot();
+            instance = new MetricDeliveryService(config, new HttpEventSender(config), DeadLetterFile.inJenkinsHome());
             instance.start();
         }
         return instance;
     }
-    
-    public void start() {
+
+    /**
+     * Called when a new configuration snapshot is published.
+     */
+    static void configurationChanged(DeliveryConfig config) {
+        MetricDeliveryService service;
+        synchronized (MetricDeliveryService.class) {
+            service = instance;
+        }
+        if (service != null) {
+            service.reconfigure(config);
+        }
+        RecentEventLog.get().setCapacity(config.getRecentEventsCapacity());
+    }
+
+    public synchronized void start() {
         if (running) {
             return;
         }
         running = true;
-        // Start worker thread to process queue
-        executorService.submit(this::processQueue);
-        LOGGER.info("MetricDeliveryService started");
+        applyConcurrency(config);
+        LOGGER.info("MetricDeliveryService started" + (virtualThreads != null ? " on virtual threads" : ""));
     }
-    
+
     public void shutdown() {
         running = false;
-        executorService.shutdown();
+        // Batches waiting for a retry are dropped
+        retries.shutdownNow();
+        workerThreads.shutdown();
         try {
-            if (!executorService.awaitTermination(10, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
+            if (!workerThreads.awaitTermination(10, TimeUnit.SECONDS)) {
+                workerThreads.shutdownNow();
             }
         } catch (InterruptedException e) {
-            executorService.shutdownNow();
+            workerThreads.shutdownNow();
             Thread.currentThread().interrupt();
         }
+        ExecutorService virtual;
+        synchronized (this) {
+            virtual = virtualThreads;
+            virtualThreads = null;
+        }
+        if (virtual != null) {
+            virtual.shutdown();
+            try {
+                if (!virtual.awaitTermination(10, TimeUnit.SECONDS)) {
+                    virtual.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                virtual.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        sender.close();
         LOGGER.info("MetricDeliveryService shutdown");
     }
-    
+
+    /**
+     * Apply a new configuration snapshot. Older snapshots are ignored.
+     */
+    synchronized void reconfigure(DeliveryConfig next) {
+        if (next.getVersion() <= config.getVersion()) {
+            return;
+        }
+        config = next;
+        sender.reconfigure(next);
+        router.setEndpoints(next.getEndpointUrls());
+        if (running) {
+            applyConcurrency(next);
+        }
+        LOGGER.fine("Applied delivery configuration version " + next.getVersion());
+    }
+
     /**
      * Queue an event for delivery. Non-blocking.
      * @param event The event to deliver
@@ -79,107 +164,426 @@ public class MetricDeliveryService {
         if (event == null) {
             return false;
         }
-        
-        PipelineMetricsConfiguration config = PipelineMetricsConfiguration.get();
-        if (config == null || config.getEndpointUrl() == null || config.getEndpointUrl().trim().isEmpty()) {
+
+        DeliveryConfig config = this.config;
+        RecentEventLog log = RecentEventLog.get();
+        if (config.getEndpointUrl() == null) {
             LOGGER.fine("Endpoint URL not configured, skipping event delivery");
+            log.record(event, RecentEventLog.Status.DROPPED, "Endpoint URL not configured", System.currentTimeMillis());
             return false;
         }
-        
-        boolean queued = eventQueue.offer(event);
-        if (!queued) {
+
+        // Recorded before offering, so a fast delivery cannot update the entry before it exists
+        QueuedEvent queued = new QueuedEvent(event,
+            log.record(event, RecentEventLog.Status.QUEUED, null, System.currentTimeMillis()));
+        if (queuedCount.incrementAndGet() > config.getMaxQueueSize()) {
+            queuedCount.decrementAndGet();
             LOGGER.warning("Event queue is full, dropping event: " + event.getEventType());
+            updateLog(queued, RecentEventLog.Status.DROPPED, 0, "Event queue is full");
+            return false;
         }
-        return queued;
+        laneOf(jobOf(event)).add(queued);
+        return true;
     }
-    
-    private void processQueue() {
-        while (running) {
-            try {
-                MetricEvent event = eventQueue.poll(1, TimeUnit.SECONDS);
-                if (event != null) {
-                    // Submit delivery task to separate thread
-                    executorService.submit(() -> deliverEventWithRetry(event));
+
+    private Lane laneOf(String job) {
+        int hash = job.hashCode();
+        return lanes[(hash ^ (hash >>> 16)) & (LANE_COUNT - 1)];
+    }
+
+    int getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    synchronized int getWorkerCount() {
+        return workers.size();
+    }
+
+    boolean isUsingVirtualThreads() {
+        return virtualThreads != null;
+    }
+
+    public List<EndpointRouter.EndpointStats> getEndpointStats() {
+        return router.getStats();
+    }
+
+    private static void updateLog(QueuedEvent queued, RecentEventLog.Status status, int attempts, String error) {
+        RecentEventLog.get().update(queued.logSequence, status, attempts, error, System.currentTimeMillis());
+    }
+
+    /**
+     * Switch between delivery threads and virtual threads, and size either for the given snapshot.
+     */
+    private void applyConcurrency(DeliveryConfig config) {
+        if (config.isVirtualThreadsEnabled() && virtualThreads == null) {
+            virtualThreads = VirtualThreads.newThreadPerTaskExecutor("PipelineMetrics.MetricDeliveryService.virtual-");
+            if (virtualThreads == null) {
+                LOGGER.warning("Virtual threads need Java 21 or later, delivering on "
+                    + config.getDeliveryThreads() + " delivery threads instead");
+            }
+        } else if (!config.isVirtualThreadsEnabled() && virtualThreads != null) {
+            // Deliveries in flight finish on their virtual threads
+            virtualThreads.shutdown();
+            virtualThreads = null;
+        }
+        inFlight.setLimit(config.getMaxConcurrentDeliveries());
+        // With virtual threads a single worker hands out batches, blocking only while the limit is reached
+        resizeWorkers(virtualThreads != null ? 1 : config.getDeliveryThreads());
+    }
+
+    private void resizeWorkers(int count) {
+        while (workers.size() < count) {
+            Worker worker = new Worker();
+            workers.add(worker);
+            workerThreads.execute(worker);
+        }
+        // Surplus workers finish the event in hand and exit
+        while (workers.size() > count) {
+            workers.remove(workers.size() - 1).retired = true;
+        }
+    }
+
+    /**
+     * Events of the jobs hashing to one lane, in queueing order. A lane is either idle, waiting in
+     * {@link #readyLanes}, held by the one thread delivering its next batch, or waiting for a retry.
+     */
+    private final class Lane {
+        private final Queue<QueuedEvent> events = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // Batch being delivered, only touched by the thread holding the lane
+        private final Queue<Delivery> deliveries = new ArrayDeque<>();
+
+        void add(QueuedEvent event) {
+            events.offer(event);
+            if (scheduled.compareAndSet(false, true)) {
+                readyLanes.offer(this);
+            }
+        }
+
+        List<QueuedEvent> take(int max) {
+            // Take whatever is waiting, without holding back the first event to fill a batch
+            List<QueuedEvent> batch = new ArrayList<>();
+            QueuedEvent event;
+            while (batch.size() < max && (event = events.poll()) != null) {
+                batch.add(event);
+            }
+            return batch;
+        }
+
+        /**
+         * Called by the holder once its batch is done, so the next batch can go to any thread.
+         */
+        void release() {
+            if (events.isEmpty()) {
+                scheduled.set(false);
+                // An event added before the flag was cleared found the lane still scheduled
+                if (events.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+            readyLanes.offer(this);
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private volatile boolean retired;
+
+        @Override
+        public void run() {
+            while (running && !retired) {
+                try {
+                    Lane lane = readyLanes.poll(1, TimeUnit.SECONDS);
+                    if (lane != null) {
+                        dispatch(lane);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
             }
         }
     }
-    
-    private void deliverEventWithRetry(MetricEvent event) {
-        PipelineMetricsConfiguration config = PipelineMetricsConfiguration.get();
-        if (config == null) {
+
+    /**
+     * Deliver a lane's next batch on the calling thread, or on a new virtual thread once a slot is free.
+     */
+    private void dispatch(Lane lane) throws InterruptedException {
+        ExecutorService executor = virtualThreads;
+        if (executor == null) {
+            deliverNext(lane);
             return;
         }
-        
-        int maxRetries = config.getMaxRetries();
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            // Left for the next worker
+            readyLanes.offer(lane);
+            throw e;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    deliverNext(lane);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Switched back to delivery threads meanwhile
+            inFlight.release();
+            deliverNext(lane);
+        }
+    }
+
+    private void deliverNext(Lane lane) {
+        boolean waiting = false;
+        try {
+            if (lane.deliveries.isEmpty()) {
+                List<QueuedEvent> batch = lane.take(config.getDeliveryBatchSize());
+                queuedCount.addAndGet(-batch.size());
+                lane.deliveries.addAll(byRoute(batch));
+            }
+            Delivery delivery;
+            while ((delivery = lane.deliveries.peek()) != null) {
+                long retryDelayMillis = attempt(delivery);
+                if (retryDelayMillis >= 0) {
+                    waiting = scheduleRetry(lane, delivery, retryDelayMillis);
+                    if (waiting) {
+                        return;
+                    }
+                }
+                lane.deliveries.poll();
+            }
+        } finally {
+            if (!waiting) {
+                lane.deliveries.clear();
+                lane.release();
+            }
+        }
+    }
+
+    /**
+     * Split a batch of one lane's events into one delivery per route the events' jobs take.
+     * Jobs walking the ring in the same order share a route, so each job fails over along its own.
+     */
+    private List<Delivery> byRoute(List<QueuedEvent> batch) {
+        Map<List<String>, Delivery> byRoute = new LinkedHashMap<>();
         int retryDelaySeconds = config.getInitialRetryDelaySeconds();
-        
-        for (int attempt = 0; attempt <= maxRetries; attempt++) {
+        for (QueuedEvent queued : batch) {
+            byRoute.computeIfAbsent(router.walk(jobOf(queued.event)), k -> new Delivery(retryDelaySeconds))
+                .pending.add(queued);
+        }
+        return new ArrayList<>(byRoute.values());
+    }
+
+    /**
+     * Hand the lane back to the delivery threads once the backoff has passed. The lane stays held
+     * meanwhile, so later events of its jobs wait behind the retry without occupying a thread.
+     * @return false if the service stopped and the delivery's events were dropped
+     */
+    private boolean scheduleRetry(Lane lane, Delivery delivery, long delayMillis) {
+        try {
+            retries.schedule(() -> readyLanes.offer(lane), delayMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            for (QueuedEvent queued : delivery.pending) {
+                updateLog(queued, RecentEventLog.Status.DROPPED, delivery.attempts, "Stopped before retry");
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Send the events of a delivery still pending, once.
+     * @return Delay in milliseconds before the events left are sent again, or -1 once none are left
+     */
+    private long attempt(Delivery delivery) {
+        // Each attempt picks up the latest snapshot, so a corrected endpoint applies to pending retries
+        DeliveryConfig config = this.config;
+        int maxRetries = config.getMaxRetries();
+        int attempt = delivery.attempts++;
+        List<QueuedEvent> pending = delivery.pending;
+        if (config.getEndpointUrl() == null) {
+            for (QueuedEvent queued : pending) {
+                updateLog(queued, RecentEventLog.Status.DROPPED, attempt, "Endpoint URL not configured");
+            }
+            return -1;
+        }
+        String error;
+        boolean clientError = false;
+        try {
+            DeliveryResult result = sendToAnyEndpoint(eventsOf(pending), config);
+            List<QueuedEvent> retry = new ArrayList<>();
+            error = null;
+            for (int i = 0; i < pending.size(); i++) {
+                QueuedEvent queued = pending.get(i);
+                MetricEvent event = queued.event;
+                switch (result.getOutcome(i)) {
+                    case ACCEPTED:
+                        LOGGER.fine("Successfully delivered event: " + event.getEventType() +
+                                   " for stage: " + event.getStageName());
+                        updateLog(queued, RecentEventLog.Status.SENT, attempt + 1, null);
+                        break;
+                    case REJECTED:
+                        LOGGER.warning("Endpoint rejected event: " + event.getEventType() +
+                                      " for stage: " + event.getStageName() + ": " + result.getError(i));
+                        deadLetters.write(event, result.getError(i), System.currentTimeMillis());
+                        updateLog(queued, RecentEventLog.Status.REJECTED, attempt + 1, result.getError(i));
+                        break;
+                    default:
+                        retry.add(queued);
+                        if (error == null) {
+                            error = result.getError(i) != null ? result.getError(i) : "Endpoint asked to retry";
+                        }
+                }
+            }
+            if (retry.isEmpty()) {
+                return -1; // Success
+            }
+            pending = retry;
+            delivery.pending = retry;
+        } catch (IOException e) {
+            error = e.getMessage();
+            clientError = e instanceof EventSender.ClientErrorException;
+        }
+
+        if (attempt < maxRetries) {
+            LOGGER.log(Level.WARNING, "Failed to deliver " + pending.size() + " event(s) (attempt " + (attempt + 1) +
+                      "/" + (maxRetries + 1) + "), will retry: " + error);
+            for (QueuedEvent queued : pending) {
+                updateLog(queued, RecentEventLog.Status.RETRYING, attempt + 1, error);
+            }
+            long delayMillis = (clientError ? CLIENT_ERROR_BACKOFF_FACTOR : 1) * delivery.retryDelaySeconds * 1000L;
+            // Exponential backoff
+            delivery.retryDelaySeconds *= 2;
+            return delayMillis;
+        }
+        LOGGER.log(Level.SEVERE, "Failed to deliver " + pending.size() + " event(s) after " + (maxRetries + 1) +
+                  " attempts, dropping: " + error);
+        for (QueuedEvent queued : pending) {
+            updateLog(queued, RecentEventLog.Status.DROPPED, attempt + 1, error);
+        }
+        return -1;
+    }
+
+    /**
+     * Events of one lane batch sharing a route, with their retry state.
+     */
+    private static final class Delivery {
+        List<QueuedEvent> pending = new ArrayList<>();
+        int attempts;
+        int retryDelaySeconds;
+
+        Delivery(int retryDelaySeconds) {
+            this.retryDelaySeconds = retryDelaySeconds;
+        }
+    }
+
+    /**
+     * Try the endpoints of the events' route in order until one answers. All events share a route.
+     * An endpoint refusing the credentials stops the attempt without failing over.
+     * @return The outcome of each event at the endpoint that answered
+     * @throws EventSender.ClientErrorException if an endpoint refused the credentials
+     * @throws IOException with the last failure if no endpoint answered
+     */
+    private DeliveryResult sendToAnyEndpoint(List<MetricEvent> events, DeliveryConfig config) throws IOException {
+        String job = jobOf(events.get(0));
+        String owner = router.owner(job);
+        IOException failure = null;
+        for (String endpoint : router.route(job, System.currentTimeMillis())) {
+            long start = System.nanoTime();
             try {
-                deliverEvent(event, config);
-                LOGGER.fine("Successfully delivered event: " + event.getEventType() + 
-                           " for stage: " + event.getStageName());
-                return; // Success
+                DeliveryResult result = sendSplitting(events, endpoint, config);
+                router.recordSuccess(endpoint, System.nanoTime() - start, !endpoint.equals(owner));
+                return result;
+            } catch (EventSender.ClientErrorException e) {
+                // A wrong token is not an outage: the endpoint stays healthy and no other endpoint is tried
+                throw new EventSender.ClientErrorException(endpoint + ": " + e.getMessage(), e);
             } catch (IOException e) {
-                if (attempt < maxRetries) {
-                    LOGGER.log(Level.WARNING, "Failed to deliver event (attempt " + (attempt + 1) + 
-                              "/" + (maxRetries + 1) + "), will retry: " + e.getMessage());
-                    try {
-                        Thread.sleep(retryDelaySeconds * 1000L);
-                        // Exponential backoff
-                        retryDelaySeconds *= 2;
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        return;
-                    }
-                } else {
-                    LOGGER.log(Level.SEVERE, "Failed to deliver event after " + (maxRetries + 1) + 
-                              " attempts, dropping event: " + event.getEventType(), e);
+                router.recordFailure(endpoint, System.currentTimeMillis());
+                IOException wrapped = new IOException(endpoint + ": " + e.getMessage(), e);
+                if (failure != null) {
+                    wrapped.addSuppressed(failure);
                 }
+                failure = wrapped;
             }
         }
+        if (failure == null) {
+            throw new IOException("Endpoint URL not configured");
+        }
+        throw failure;
     }
-    
-    private void deliverEvent(MetricEvent event, PipelineMetricsConfiguration config) throws IOException {
-        String endpointUrl = config.getEndpointUrl();
-        if (endpointUrl == null || endpointUrl.trim().isEmpty()) {
-            return;
+
+    /**
+     * Send events to one endpoint, halving the request each time the endpoint finds it too large,
+     * or refuses it without naming the events at fault. A single event still refused is rejected.
+     */
+    private DeliveryResult sendSplitting(List<MetricEvent> events, String endpoint, DeliveryConfig config)
+            throws IOException {
+        try {
+            return sender.send(events, endpoint, config);
+        } catch (EventSender.PayloadTooLargeException | EventSender.RejectedException e) {
+            if (events.size() == 1) {
+                return DeliveryResult.of(1, DeliveryResult.Outcome.REJECTED, e.getMessage());
+            }
+            int half = events.size() / 2;
+            DeliveryResult first = sendSplitting(events.subList(0, half), endpoint, config);
+            DeliveryResult second;
+            try {
+                second = sendSplitting(events.subList(half, events.size()), endpoint, config);
+            } catch (IOException secondFailure) {
+                // The first half is already stored, so only the second half is retried
+                second = DeliveryResult.of(events.size() - half, DeliveryResult.Outcome.RETRY,
+                    secondFailure.getMessage());
+            }
+            return first.concat(second);
+        }
+    }
+
+    private static List<MetricEvent> eventsOf(List<QueuedEvent> queued) {
+        List<MetricEvent> events = new ArrayList<>(queued.size());
+        for (QueuedEvent event : queued) {
+            events.add(event.event);
+        }
+        return events;
+    }
+
+    private static String jobOf(MetricEvent event) {
+        return event.getJobFullName() != null ? event.getJobFullName() : "";
+    }
+
+    /**
+     * An event waiting for delivery, with its position in the {@link RecentEventLog}.
+     */
+    private static final class QueuedEvent {
+        final MetricEvent event;
+        final long logSequence;
+
+        QueuedEvent(MetricEvent event, long logSequence) {
+            this.event = event;
+            this.logSequence = logSequence;
+        }
+    }
+
+    /**
+     * Semaphore whose number of permits can change while permits are held. Lowering the limit
+     * below the permits in use makes later acquires wait until enough have been released.
+     */
+    private static final class InFlightLimit extends Semaphore {
+        private int limit;
+
+        InFlightLimit(int limit) {
+            super(limit);
+            this.limit = limit;
         }
-        
-        String json = gson.toJson(event);
-        
-        RequestConfig requestConfig = RequestConfig.custom()
-            .setConnectTimeout(config.getConnectionTimeoutSeconds() * 1000)
-            .setSocketTimeout(config.getReadTimeoutSeconds() * 1000)
-            .build();
-        
-        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
-                .setDefaultRequestConfig(requestConfig)
-                .build()) {
-            
-            HttpPost post = new HttpPost(endpointUrl);
-            post.setHeader("Content-Type", "application/json");
-            
-            Secret bearerToken = config.getBearerToken();
-            if (bearerToken != null && bearerToken.getPlainText() != null && 
-                !bearerToken.getPlainText().trim().isEmpty()) {
-                post.setHeader("Authorization", "Bearer " + bearerToken.getPlainText());
-            }
-            
-            post.setEntity(new StringEntity(json, "UTF-8"));
-            
-            HttpResponse response = httpClient.execute(post);
-            int statusCode = response.getStatusLine().getStatusCode();
-            
-            // Consume response to release connection
-            EntityUtils.consume(response.getEntity());
-            
-            if (statusCode < 200 || statusCode >= 300) {
-                throw new IOException("HTTP request failed with status code: " + statusCode);
+
+        synchronized void setLimit(int next) {
+            if (next > limit) {
+                release(next - limit);
+            } else if (next < limit) {
+                reducePermits(limit - next);
             }
+            limit = next;
         }
     }
 }
@@ -19,9 +19,11 @@ public abstract class MetricEvent {
     private final long timestamp;
     
     @SerializedName("stage_id")
+    @CheckForNull
     private final String stageId;
     
     @SerializedName("stage_name")
+    @CheckForNull
     private final String stageName;
     
     @SerializedName("job_full_name")
@@ -46,6 +48,7 @@ public abstract class MetricEvent {
     private final String changeTarget;
     
     @SerializedName("node_id")
+    @CheckForNull
     private final String nodeId;
     
     protected MetricEvent(String eventType, String stageId, String stageName, 
@@ -65,6 +68,16 @@ public abstract class MetricEvent {
         this.timestamp = timestamp;
     }
     
+    /**
+     * Constructor for run-level events that are not tied to a single stage.
+     * The stage fields are left null and omitted from the payload.
+     */
+    protected MetricEvent(String eventType, String jobFullName, int buildNumber, String buildUrl,
+                         String branchName, String changeId, String changeTarget, long timestamp) {
+        this(eventType, null, null, jobFullName, buildNumber, buildUrl,
+             branchName, changeId, changeTarget, null, timestamp);
+    }
+    
     public String getEventType() {
         return eventType;
     }
@@ -77,10 +90,12 @@ public abstract class MetricEvent {
         return timestamp;
     }
     
+    @CheckForNull
     public String getStageId() {
         return stageId;
     }
     
+    @CheckForNull
     public String getStageName() {
         return stageName;
     }
@@ -112,6 +127,7 @@ public abstract class MetricEvent {
         return changeTarget;
     }
     
+    @CheckForNull
     public String getNodeId() {
         return nodeId;
     }
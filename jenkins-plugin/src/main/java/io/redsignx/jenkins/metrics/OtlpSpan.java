@@ -0,0 +1,147 @@
+package io.redsignx.jenkins.metrics;
+
+import javax.annotation.CheckForNull;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A finished span ready for OTLP export.
+ * Trace and span IDs are derived from the job, build number and FlowNode ID, so the
+ * same build always maps to the same trace and a stage to the same span.
+ */
+public final class OtlpSpan {
+
+    private final byte[] traceId;
+    private final byte[] spanId;
+    @CheckForNull
+    private final byte[] parentSpanId;
+    private final String name;
+    private final long startTimeUnixNano;
+    private final long endTimeUnixNano;
+    private final boolean error;
+    @CheckForNull
+    private final String statusMessage;
+    private final Map<String, Object> attributes;
+
+    public OtlpSpan(byte[] traceId, byte[] spanId, @CheckForNull byte[] parentSpanId, String name,
+                    long startTimeMillis, long endTimeMillis, boolean error,
+                    @CheckForNull String statusMessage, Map<String, Object> attributes) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.startTimeUnixNano = TimeUnit.MILLISECONDS.toNanos(startTimeMillis);
+        this.endTimeUnixNano = TimeUnit.MILLISECONDS.toNanos(endTimeMillis);
+        this.error = error;
+        this.statusMessage = statusMessage;
+        this.attributes = Collections.unmodifiableMap(new LinkedHashMap<>(attributes));
+    }
+
+    /**
+     * @return 16-byte trace ID for a build
+     */
+    public static byte[] traceId(String jobFullName, int buildNumber) {
+        return Arrays.copyOf(sha256(jobFullName + "#" + buildNumber), 16);
+    }
+
+    /**
+     * @return 8-byte span ID for the root span of a build
+     */
+    public static byte[] buildSpanId(String jobFullName, int buildNumber) {
+        return spanId(jobFullName, buildNumber, "");
+    }
+
+    /**
+     * @return 8-byte span ID for the stage started by the given FlowNode
+     */
+    public static byte[] stageSpanId(String jobFullName, int buildNumber, String nodeId) {
+        return spanId(jobFullName, buildNumber, nodeId);
+    }
+
+    private static byte[] spanId(String jobFullName, int buildNumber, String nodeId) {
+        return Arrays.copyOf(sha256(jobFullName + "#" + buildNumber + ":" + nodeId), 8);
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public byte[] getTraceId() {
+        return traceId.clone();
+    }
+
+    public byte[] getSpanId() {
+        return spanId.clone();
+    }
+
+    @CheckForNull
+    public byte[] getParentSpanId() {
+        return parentSpanId != null ? parentSpanId.clone() : null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isError() {
+        return error;
+    }
+
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Encode as an OTLP {@code opentelemetry.proto.trace.v1.Span} message.
+     */
+    ProtobufWriter encode() {
+        ProtobufWriter span = new ProtobufWriter()
+            .writeBytes(1, traceId)
+            .writeBytes(2, spanId)
+            .writeBytes(4, parentSpanId)
+            .writeString(5, name)
+            .writeVarint(6, 1) // SPAN_KIND_INTERNAL
+            .writeFixed64(7, startTimeUnixNano)
+            .writeFixed64(8, endTimeUnixNano);
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            if (attribute.getValue() != null) {
+                span.writeMessage(9, encodeKeyValue(attribute.getKey(), attribute.getValue()));
+            }
+        }
+        if (!error) {
+            // Status left unset: OK is reserved for spans an operator explicitly marked successful
+            return span;
+        }
+        ProtobufWriter status = new ProtobufWriter()
+            .writeString(2, statusMessage)
+            .writeVarint(3, 2); // STATUS_CODE_ERROR
+        return span.writeMessage(15, status);
+    }
+
+    /**
+     * Encode an OTLP {@code opentelemetry.proto.common.v1.KeyValue} message.
+     */
+    static ProtobufWriter encodeKeyValue(String key, Object value) {
+        ProtobufWriter anyValue = new ProtobufWriter();
+        if (value instanceof Boolean) {
+            anyValue.writeBool(2, (Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long) {
+            anyValue.writeVarint(3, ((Number) value).longValue());
+        } else if (value instanceof Number) {
+            anyValue.writeDouble(4, ((Number) value).doubleValue());
+        } else {
+            anyValue.writeString(1, value.toString());
+        }
+        return new ProtobufWriter().writeString(1, key).writeMessage(2, anyValue);
+    }
+}
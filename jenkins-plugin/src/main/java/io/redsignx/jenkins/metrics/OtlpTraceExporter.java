@@ -0,0 +1,319 @@
+package io.redsignx.jenkins.metrics;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exports build and stage spans to an OpenTelemetry collector using OTLP/HTTP with protobuf encoding.
+ * Spans are buffered in a bounded queue and sent in batches, either every few seconds
+ * or as soon as a full batch is available. When the buffer is full new spans are dropped.
+ * A batch that fails is retried with the event delivery's retry count and backoff, holding back
+ * later batches meanwhile, and dropped after the last retry. Dropped spans are counted.
+ * Settings come from the published {@link DeliveryConfig}, so the buffer size changes in place,
+ * and the pooled HTTP client is rebuilt when the endpoint or timeouts change.
+ */
+public class OtlpTraceExporter {
+
+    private static final Logger LOGGER = Logger.getLogger(OtlpTraceExporter.class.getName());
+    private static final long EXPORT_INTERVAL_SECONDS = 5;
+    private static final String INSTRUMENTATION_SCOPE = "io.redsignx.jenkins.metrics";
+    private static OtlpTraceExporter instance;
+
+    // Unbounded underneath, the capacity is enforced through queuedCount so it can change at any time
+    private final BlockingQueue<OtlpSpan> spanQueue = new LinkedBlockingQueue<>();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicBoolean exportPending = new AtomicBoolean();
+    private final AtomicLong exportedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile DeliveryConfig config;
+    private ScheduledExecutorService scheduler;
+
+    // Guarded by exportLock, only one export runs at a time
+    private final Object exportLock = new Object();
+    private CloseableHttpClient client;
+    private DeliveryConfig clientConfig;
+    private List<OtlpSpan> retryBatch;
+    private int retryAttempts;
+    private long retryAtNanos;
+
+    OtlpTraceExporter(DeliveryConfig config) {
+        this.config = config;
+    }
+
+    public static synchronized OtlpTraceExporter getInstance() {
+        if (instance == null) {
+            instance = new OtlpTraceExporter(PipelineMetricsConfiguration.snapshot());
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Called when a new configuration snapshot is published.
+     */
+    static void configurationChanged(DeliveryConfig config) {
+        OtlpTraceExporter exporter;
+        synchronized (OtlpTraceExporter.class) {
+            exporter = instance;
+        }
+        if (exporter != null) {
+            exporter.reconfigure(config);
+        }
+    }
+
+    /**
+     * Apply a new configuration snapshot. Older snapshots are ignored; spans already buffered
+     * beyond a smaller capacity are still exported.
+     */
+    synchronized void reconfigure(DeliveryConfig next) {
+        if (next.getVersion() <= config.getVersion()) {
+            return;
+        }
+        boolean sameTransport = config.hasSameOtlpTransport(next);
+        config = next;
+        if (!sameTransport && scheduler != null) {
+            // Off the saving thread, an export in progress finishes with the previous client first.
+            // The next export builds the new one
+            scheduler.execute(() -> {
+                synchronized (exportLock) {
+                    closeClient();
+                }
+            });
+        }
+    }
+
+    private void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "PipelineMetrics.OtlpTraceExporter"));
+        scheduler.scheduleWithFixedDelay(this::exportQueued,
+            EXPORT_INTERVAL_SECONDS, EXPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        LOGGER.info("OtlpTraceExporter started");
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        synchronized (exportLock) {
+            closeClient();
+        }
+    }
+
+    /**
+     * Buffer a finished span for export. Non-blocking.
+     * @param span The span to export
+     * @return true if buffered, false if the buffer is full
+     */
+    public boolean export(OtlpSpan span) {
+        DeliveryConfig config = this.config;
+        int queued = queuedCount.incrementAndGet();
+        if (queued > config.getOtlpMaxQueueSize()) {
+            queuedCount.decrementAndGet();
+            droppedCount.incrementAndGet();
+            LOGGER.fine("Span buffer is full, dropping span: " + span.getName());
+            return false;
+        }
+        spanQueue.offer(span);
+        // Export early once a full batch is waiting
+        if (scheduler != null && queued >= config.getOtlpMaxExportBatchSize()
+                && exportPending.compareAndSet(false, true)) {
+            scheduler.execute(this::exportQueued);
+        }
+        return true;
+    }
+
+    public int getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    /**
+     * @return Spans accepted by the collector since startup
+     */
+    public long getExportedCount() {
+        return exportedCount.get();
+    }
+
+    /**
+     * @return Spans lost since startup, because the buffer was full, no endpoint was configured
+     *         or every attempt to export them failed
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    @CheckForNull
+    public String getEndpointUrl() {
+        return config.getOtlpEndpointUrl();
+    }
+
+    private void exportQueued() {
+        exportPending.set(false);
+        try {
+            flush();
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Unexpected error exporting spans", e);
+        }
+    }
+
+    /**
+     * Export buffered spans in batches, starting with a failed batch whose backoff has expired.
+     * Stops at the first failure, the failed batch is retried by a later call.
+     * @return Number of spans exported successfully
+     */
+    int flush() {
+        synchronized (exportLock) {
+            DeliveryConfig config = this.config;
+            long exportedBefore = exportedCount.get();
+            if (retryBatch != null) {
+                if (System.nanoTime() - retryAtNanos < 0) {
+                    return 0;
+                }
+                List<OtlpSpan> batch = retryBatch;
+                retryBatch = null;
+                if (!export(batch, config)) {
+                    return 0;
+                }
+            }
+            int batchSize = config.getOtlpMaxExportBatchSize();
+            List<OtlpSpan> batch = new ArrayList<>(Math.min(batchSize, queuedCount.get()));
+            while (spanQueue.drainTo(batch, batchSize) > 0) {
+                queuedCount.addAndGet(-batch.size());
+                if (!export(batch, config)) {
+                    break;
+                }
+                batch = new ArrayList<>(batchSize);
+            }
+            return (int) (exportedCount.get() - exportedBefore);
+        }
+    }
+
+    /**
+     * Send one batch, or set it aside for a retry if it fails. Dropped batches count as done.
+     * @return false if the batch is waiting for a retry
+     */
+    private boolean export(List<OtlpSpan> batch, DeliveryConfig config) {
+        if (config.getOtlpEndpointUrl() == null) {
+            droppedCount.addAndGet(batch.size());
+            return true;
+        }
+        try {
+            send(encodeRequest(batch), config);
+            exportedCount.addAndGet(batch.size());
+            retryAttempts = 0;
+            LOGGER.fine("Exported " + batch.size() + " spans");
+            return true;
+        } catch (IOException e) {
+            retryAttempts++;
+            if (retryAttempts > config.getMaxRetries()) {
+                retryAttempts = 0;
+                droppedCount.addAndGet(batch.size());
+                LOGGER.warning("Failed to export " + batch.size() + " spans, dropping batch after the last retry: "
+                    + e.getMessage());
+                return true;
+            }
+            long delaySeconds = (long) config.getInitialRetryDelaySeconds() << Math.min(retryAttempts - 1, 16);
+            retryBatch = batch;
+            retryAtNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(delaySeconds);
+            LOGGER.warning("Failed to export " + batch.size() + " spans, retrying in " + delaySeconds
+                + " seconds: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Encode an OTLP {@code ExportTraceServiceRequest} with a single resource and scope.
+     */
+    static byte[] encodeRequest(List<OtlpSpan> spans) {
+        ProtobufWriter resource = new ProtobufWriter()
+            .writeMessage(1, OtlpSpan.encodeKeyValue("service.name", "jenkins"));
+        ProtobufWriter scope = new ProtobufWriter()
+            .writeString(1, INSTRUMENTATION_SCOPE);
+        ProtobufWriter scopeSpans = new ProtobufWriter()
+            .writeMessage(1, scope);
+        for (OtlpSpan span : spans) {
+            scopeSpans.writeMessage(2, span.encode());
+        }
+        ProtobufWriter resourceSpans = new ProtobufWriter()
+            .writeMessage(1, resource)
+            .writeMessage(2, scopeSpans);
+        return new ProtobufWriter()
+            .writeMessage(1, resourceSpans)
+            .toByteArray();
+    }
+
+    private void send(byte[] payload, DeliveryConfig config) throws IOException {
+        HttpPost post = new HttpPost(config.getOtlpEndpointUrl());
+        post.setHeader("Content-Type", "application/x-protobuf");
+        post.setEntity(new ByteArrayEntity(payload));
+
+        HttpResponse response = client(config).execute(post);
+        int statusCode = response.getStatusLine().getStatusCode();
+
+        // Consume response to release connection
+        EntityUtils.consume(response.getEntity());
+
+        if (statusCode < 200 || statusCode >= 300) {
+            throw new IOException("OTLP export failed with status code: " + statusCode);
+        }
+    }
+
+    /**
+     * @return The pooled client for the snapshot's endpoint, rebuilt if the endpoint or timeouts changed
+     */
+    private CloseableHttpClient client(DeliveryConfig config) {
+        if (client != null && clientConfig.hasSameOtlpTransport(config)) {
+            return client;
+        }
+        closeClient();
+        // Exports run one at a time, a single connection to the collector is kept alive
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(1);
+        connections.setDefaultMaxPerRoute(1);
+        client = HttpClientBuilder.create()
+            .setConnectionManager(connections)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(config.getConnectionTimeoutSeconds() * 1000)
+                .setConnectionRequestTimeout(config.getConnectionTimeoutSeconds() * 1000)
+                .setSocketTimeout(config.getReadTimeoutSeconds() * 1000)
+                .build())
+            .build();
+        clientConfig = config;
+        return client;
+    }
+
+    private void closeClient() {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to close OTLP HTTP client", e);
+        }
+        client = null;
+        clientConfig = null;
+    }
+}
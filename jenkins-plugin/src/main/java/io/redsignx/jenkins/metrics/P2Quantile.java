@@ -0,0 +1,103 @@
+package io.redsignx.jenkins.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Streaming estimate of a single quantile using the P² algorithm (Jain and Chlamtac, 1985).
+ * Keeps five markers regardless of how many observations were added, so it can be
+ * persisted with the rest of a {@link StageBaseline}.
+ */
+final class P2Quantile {
+
+    private final double p;
+    private final double[] heights = new double[5];
+    private final int[] positions = {1, 2, 3, 4, 5};
+    private final double[] desired;
+    private final double[] increments;
+    private int count;
+
+    P2Quantile(double p) {
+        this.p = p;
+        this.desired = new double[] {1, 1 + 2 * p, 1 + 4 * p, 3 + 2 * p, 5};
+        this.increments = new double[] {0, p / 2, p, (1 + p) / 2, 1};
+    }
+
+    void add(double x) {
+        if (count < 5) {
+            heights[count++] = x;
+            if (count == 5) {
+                Arrays.sort(heights);
+            }
+            return;
+        }
+        count++;
+
+        // Find the cell the observation falls into, widening the extremes if needed
+        int k;
+        if (x < heights[0]) {
+            heights[0] = x;
+            k = 0;
+        } else if (x >= heights[4]) {
+            heights[4] = x;
+            k = 3;
+        } else {
+            k = 0;
+            while (x >= heights[k + 1]) {
+                k++;
+            }
+        }
+        for (int i = k + 1; i < 5; i++) {
+            positions[i]++;
+        }
+        for (int i = 0; i < 5; i++) {
+            desired[i] += increments[i];
+        }
+
+        // Move the middle markers towards their desired positions
+        for (int i = 1; i <= 3; i++) {
+            double d = desired[i] - positions[i];
+            if ((d >= 1 && positions[i + 1] - positions[i] > 1)
+                    || (d <= -1 && positions[i - 1] - positions[i] < -1)) {
+                int step = d >= 0 ? 1 : -1;
+                double height = parabolic(i, step);
+                if (heights[i - 1] < height && height < heights[i + 1]) {
+                    heights[i] = height;
+                } else {
+                    heights[i] = linear(i, step);
+                }
+                positions[i] += step;
+            }
+        }
+    }
+
+    /**
+     * @return Current estimate, exact while fewer than five observations were added, 0 if there are none
+     */
+    double get() {
+        if (count == 0) {
+            return 0;
+        }
+        if (count < 5) {
+            double[] sorted = Arrays.copyOf(heights, count);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.round(p * (count - 1))];
+        }
+        return heights[2];
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    private double parabolic(int i, int d) {
+        double left = positions[i] - positions[i - 1];
+        double right = positions[i + 1] - positions[i];
+        return heights[i] + d / (double) (positions[i + 1] - positions[i - 1])
+            * ((left + d) * (heights[i + 1] - heights[i]) / right
+               + (right - d) * (heights[i] - heights[i - 1]) / left);
+    }
+
+    private double linear(int i, int d) {
+        return heights[i] + d * (heights[i + d] - heights[i]) / (positions[i + d] - positions[i]);
+    }
+}
@@ -1,6 +1,10 @@
 package io.redsignx.jenkins.metrics;
 
+import hudson.BulkChange;
 import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Descriptor;
 import hudson.util.FormValidation;
 import hudson.util.Secret;
 import jenkins.model.GlobalConfiguration;
@@ -10,8 +14,10 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import javax.annotation.CheckForNull;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Global configuration for Pipeline Metrics Plugin.
@@ -20,13 +26,81 @@ import java.net.URL;
 @Extension
 public class PipelineMetricsConfiguration extends GlobalConfiguration {
 
+    // Defaults shared with the snapshots in use before the configuration loads. Compile-time
+    // constants, so the snapshot classes read them without initializing this class
+    static final int DEFAULT_CONNECTION_TIMEOUT_SECONDS = 10;
+    static final int DEFAULT_READ_TIMEOUT_SECONDS = 30;
+    static final int DEFAULT_MAX_QUEUE_SIZE = 1000;
+    static final int DEFAULT_MAX_RETRIES = 3;
+    static final int DEFAULT_INITIAL_RETRY_DELAY_SECONDS = 2;
+    static final int DEFAULT_DELIVERY_THREADS = 2;
+    static final int DEFAULT_DELIVERY_BATCH_SIZE = 1;
+    static final boolean DEFAULT_VIRTUAL_THREADS_ENABLED = false;
+    static final int DEFAULT_MAX_CONCURRENT_DELIVERIES = 256;
+    static final boolean DEFAULT_ADMISSION_CONTROL_ENABLED = false;
+    static final int DEFAULT_JOB_STAGE_BURST = 1000;
+    static final int DEFAULT_JOB_STAGE_RATE_PER_SECOND = 50;
+    static final int DEFAULT_RUN_STAGE_BURST = 500;
+    static final int DEFAULT_RUN_STAGE_RATE_PER_SECOND = 20;
+    static final int DEFAULT_THROTTLED_STAGE_SAMPLE_INTERVAL = 10;
+    static final boolean DEFAULT_COALESCE_SHORT_STAGES = false;
+    static final int DEFAULT_STAGE_COALESCE_GRACE_SECONDS = 5;
+    static final int DEFAULT_OTLP_MAX_QUEUE_SIZE = 2048;
+    static final int DEFAULT_OTLP_MAX_EXPORT_BATCH_SIZE = 512;
+    static final boolean DEFAULT_STEP_EVENTS_ENABLED = false;
+    static final int DEFAULT_FAST_STEP_SAMPLE_INTERVAL = 10;
+    static final int DEFAULT_SLOW_STEP_THRESHOLD_SECONDS = 30;
+    static final boolean DEFAULT_QUEUE_LATENCY_EVENTS_ENABLED = false;
+    static final boolean DEFAULT_RESOURCE_SAMPLING_ENABLED = false;
+    static final int DEFAULT_RESOURCE_SAMPLE_INTERVAL_SECONDS = 30;
+    static final boolean DEFAULT_STAGE_BASELINES_ENABLED = false;
+    static final double DEFAULT_STAGE_REGRESSION_FACTOR = 2.0;
+    static final int DEFAULT_MAX_STAGE_BASELINES = 10000;
+    static final boolean DEFAULT_BUILD_SUMMARY_ENABLED = false;
+    static final int DEFAULT_RECENT_EVENTS_CAPACITY = 1000;
+    static final String DEFAULT_STEP_TYPE_ALLOWLIST =
+        "checkout\ngit\nsh\nbat\npowershell\narchiveArtifacts\nstash\nunstash\njunit";
+
     private String endpointUrl;
+    private String additionalEndpointUrls;
     private Secret bearerToken;
-    private int connectionTimeoutSeconds = 10;
-    private int readTimeoutSeconds = 30;
-    private int maxQueueSize = 1000;
-    private int maxRetries = 3;
-    private int initialRetryDelaySeconds = 2;
+    private int connectionTimeoutSeconds = DEFAULT_CONNECTION_TIMEOUT_SECONDS;
+    private int readTimeoutSeconds = DEFAULT_READ_TIMEOUT_SECONDS;
+    private int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private int initialRetryDelaySeconds = DEFAULT_INITIAL_RETRY_DELAY_SECONDS;
+    private int deliveryThreads = DEFAULT_DELIVERY_THREADS;
+    private int deliveryBatchSize = DEFAULT_DELIVERY_BATCH_SIZE;
+    private boolean virtualThreadsEnabled = DEFAULT_VIRTUAL_THREADS_ENABLED;
+    private int maxConcurrentDeliveries = DEFAULT_MAX_CONCURRENT_DELIVERIES;
+    private boolean admissionControlEnabled = DEFAULT_ADMISSION_CONTROL_ENABLED;
+    private int jobStageBurst = DEFAULT_JOB_STAGE_BURST;
+    private int jobStageRatePerSecond = DEFAULT_JOB_STAGE_RATE_PER_SECOND;
+    private int runStageBurst = DEFAULT_RUN_STAGE_BURST;
+    private int runStageRatePerSecond = DEFAULT_RUN_STAGE_RATE_PER_SECOND;
+    private int throttledStageSampleInterval = DEFAULT_THROTTLED_STAGE_SAMPLE_INTERVAL;
+    private boolean coalesceShortStages = DEFAULT_COALESCE_SHORT_STAGES;
+    private int stageCoalesceGraceSeconds = DEFAULT_STAGE_COALESCE_GRACE_SECONDS;
+    private WireFormat wireFormat = WireFormat.JSON;
+    private String otlpEndpointUrl;
+    private int otlpMaxQueueSize = DEFAULT_OTLP_MAX_QUEUE_SIZE;
+    private int otlpMaxExportBatchSize = DEFAULT_OTLP_MAX_EXPORT_BATCH_SIZE;
+    private boolean stepEventsEnabled = DEFAULT_STEP_EVENTS_ENABLED;
+    private String stepTypeAllowlist = DEFAULT_STEP_TYPE_ALLOWLIST;
+    private int fastStepSampleInterval = DEFAULT_FAST_STEP_SAMPLE_INTERVAL;
+    private int slowStepThresholdSeconds = DEFAULT_SLOW_STEP_THRESHOLD_SECONDS;
+    private boolean queueLatencyEventsEnabled = DEFAULT_QUEUE_LATENCY_EVENTS_ENABLED;
+    private boolean resourceSamplingEnabled = DEFAULT_RESOURCE_SAMPLING_ENABLED;
+    private int resourceSampleIntervalSeconds = DEFAULT_RESOURCE_SAMPLE_INTERVAL_SECONDS;
+    private boolean stageBaselinesEnabled = DEFAULT_STAGE_BASELINES_ENABLED;
+    private double stageRegressionFactor = DEFAULT_STAGE_REGRESSION_FACTOR;
+    private int maxStageBaselines = DEFAULT_MAX_STAGE_BASELINES;
+    private boolean buildSummaryEnabled = DEFAULT_BUILD_SUMMARY_ENABLED;
+    private int recentEventsCapacity = DEFAULT_RECENT_EVENTS_CAPACITY;
+
+    private static final AtomicLong SNAPSHOT_VERSION = new AtomicLong();
+    private static volatile DeliveryConfig snapshot = DeliveryConfig.DEFAULTS;
+    private static volatile ListenerConfig listenerSnapshot = ListenerConfig.DEFAULTS;
 
     public PipelineMetricsConfiguration() {
         load();
@@ -36,6 +110,68 @@ public class PipelineMetricsConfiguration extends GlobalConfiguration {
         return GlobalConfiguration.all().get(PipelineMetricsConfiguration.class);
     }
 
+    /**
+     * @return The delivery settings as last published, a single volatile read
+     */
+    public static DeliveryConfig snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return The listener settings as last published, a single volatile read
+     */
+    public static ListenerConfig listenerSnapshot() {
+        return listenerSnapshot;
+    }
+
+    /**
+     * Publish the settings loaded from disk. Only the registered instance publishes,
+     * other instances never touch the process-wide snapshot or the services it configures.
+     */
+    @Initializer(after = InitMilestone.EXTENSIONS_AUGMENTED)
+    public static void publishInitialSnapshot() {
+        PipelineMetricsConfiguration config = get();
+        if (config != null) {
+            config.publishSnapshot();
+        }
+    }
+
+    @Override
+    public synchronized boolean configure(StaplerRequest req, JSONObject json) throws Descriptor.FormException {
+        // Each setter saves, so the form is bound as one change and saved and published once
+        try (BulkChange change = new BulkChange(this)) {
+            req.bindJSON(this, json);
+            change.commit();
+        } catch (IOException e) {
+            throw new Descriptor.FormException("Failed to save the configuration: " + e.getMessage(), e, null);
+        }
+        return true;
+    }
+
+    /**
+     * Save, and publish a new snapshot if this is the registered instance. Every setter saves,
+     * so settings changed through Configuration as Code or the script console apply at once.
+     */
+    @Override
+    public synchronized void save() {
+        if (BulkChange.contains(this)) {
+            return;
+        }
+        super.save();
+        if (this == get()) {
+            publishSnapshot();
+        }
+    }
+
+    private void publishSnapshot() {
+        long version = SNAPSHOT_VERSION.incrementAndGet();
+        DeliveryConfig next = DeliveryConfig.of(this, version);
+        listenerSnapshot = ListenerConfig.of(this, version);
+        snapshot = next;
+        MetricDeliveryService.configurationChanged(next);
+        OtlpTraceExporter.configurationChanged(next);
+    }
+
     @CheckForNull
     public String getEndpointUrl() {
         return endpointUrl;
@@ -47,6 +183,17 @@ public class PipelineMetricsConfiguration extends GlobalConfiguration {
         save();
     }
 
+    @CheckForNull
+    public String getAdditionalEndpointUrls() {
+        return additionalEndpointUrls;
+    }
+
+    @DataBoundSetter
+    public void setAdditionalEndpointUrls(String additionalEndpointUrls) {
+        this.additionalEndpointUrls = additionalEndpointUrls;
+        save();
+    }
+
     @CheckForNull
     public Secret getBearerToken() {
         return bearerToken;
@@ -108,6 +255,288 @@ public class PipelineMetricsConfiguration extends GlobalConfiguration {
         save();
     }
 
+    public int getDeliveryThreads() {
+        return deliveryThreads;
+    }
+
+    @DataBoundSetter
+    public void setDeliveryThreads(int deliveryThreads) {
+        this.deliveryThreads = deliveryThreads;
+        save();
+    }
+
+    public int getDeliveryBatchSize() {
+        return deliveryBatchSize;
+    }
+
+    @DataBoundSetter
+    public void setDeliveryBatchSize(int deliveryBatchSize) {
+        this.deliveryBatchSize = deliveryBatchSize;
+        save();
+    }
+
+    public boolean isVirtualThreadsEnabled() {
+        return virtualThreadsEnabled;
+    }
+
+    @DataBoundSetter
+    public void setVirtualThreadsEnabled(boolean virtualThreadsEnabled) {
+        this.virtualThreadsEnabled = virtualThreadsEnabled;
+        save();
+    }
+
+    public int getMaxConcurrentDeliveries() {
+        return maxConcurrentDeliveries;
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrentDeliveries(int maxConcurrentDeliveries) {
+        this.maxConcurrentDeliveries = maxConcurrentDeliveries;
+        save();
+    }
+
+    public boolean isAdmissionControlEnabled() {
+        return admissionControlEnabled;
+    }
+
+    @DataBoundSetter
+    public void setAdmissionControlEnabled(boolean admissionControlEnabled) {
+        this.admissionControlEnabled = admissionControlEnabled;
+        save();
+    }
+
+    public int getJobStageBurst() {
+        return jobStageBurst;
+    }
+
+    @DataBoundSetter
+    public void setJobStageBurst(int jobStageBurst) {
+        this.jobStageBurst = jobStageBurst;
+        save();
+    }
+
+    public int getJobStageRatePerSecond() {
+        return jobStageRatePerSecond;
+    }
+
+    @DataBoundSetter
+    public void setJobStageRatePerSecond(int jobStageRatePerSecond) {
+        this.jobStageRatePerSecond = jobStageRatePerSecond;
+        save();
+    }
+
+    public int getRunStageBurst() {
+        return runStageBurst;
+    }
+
+    @DataBoundSetter
+    public void setRunStageBurst(int runStageBurst) {
+        this.runStageBurst = runStageBurst;
+        save();
+    }
+
+    public int getRunStageRatePerSecond() {
+        return runStageRatePerSecond;
+    }
+
+    @DataBoundSetter
+    public void setRunStageRatePerSecond(int runStageRatePerSecond) {
+        this.runStageRatePerSecond = runStageRatePerSecond;
+        save();
+    }
+
+    public int getThrottledStageSampleInterval() {
+        return throttledStageSampleInterval;
+    }
+
+    @DataBoundSetter
+    public void setThrottledStageSampleInterval(int throttledStageSampleInterval) {
+        this.throttledStageSampleInterval = throttledStageSampleInterval;
+        save();
+    }
+
+    public boolean isCoalesceShortStages() {
+        return coalesceShortStages;
+    }
+
+    @DataBoundSetter
+    public void setCoalesceShortStages(boolean coalesceShortStages) {
+        this.coalesceShortStages = coalesceShortStages;
+        save();
+    }
+
+    public int getStageCoalesceGraceSeconds() {
+        return stageCoalesceGraceSeconds;
+    }
+
+    @DataBoundSetter
+    public void setStageCoalesceGraceSeconds(int stageCoalesceGraceSeconds) {
+        this.stageCoalesceGraceSeconds = stageCoalesceGraceSeconds;
+        save();
+    }
+
+    public WireFormat getWireFormat() {
+        return wireFormat != null ? wireFormat : WireFormat.JSON;
+    }
+
+    @DataBoundSetter
+    public void setWireFormat(WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+        save();
+    }
+
+    @CheckForNull
+    public String getOtlpEndpointUrl() {
+        return otlpEndpointUrl;
+    }
+
+    @DataBoundSetter
+    public void setOtlpEndpointUrl(String otlpEndpointUrl) {
+        this.otlpEndpointUrl = otlpEndpointUrl;
+        save();
+    }
+
+    public int getOtlpMaxQueueSize() {
+        return otlpMaxQueueSize;
+    }
+
+    @DataBoundSetter
+    public void setOtlpMaxQueueSize(int otlpMaxQueueSize) {
+        this.otlpMaxQueueSize = otlpMaxQueueSize;
+        save();
+    }
+
+    public int getOtlpMaxExportBatchSize() {
+        return otlpMaxExportBatchSize;
+    }
+
+    @DataBoundSetter
+    public void setOtlpMaxExportBatchSize(int otlpMaxExportBatchSize) {
+        this.otlpMaxExportBatchSize = otlpMaxExportBatchSize;
+        save();
+    }
+
+    public boolean isStepEventsEnabled() {
+        return stepEventsEnabled;
+    }
+
+    @DataBoundSetter
+    public void setStepEventsEnabled(boolean stepEventsEnabled) {
+        this.stepEventsEnabled = stepEventsEnabled;
+        save();
+    }
+
+    @CheckForNull
+    public String getStepTypeAllowlist() {
+        return stepTypeAllowlist;
+    }
+
+    @DataBoundSetter
+    public void setStepTypeAllowlist(String stepTypeAllowlist) {
+        this.stepTypeAllowlist = stepTypeAllowlist;
+        save();
+    }
+
+    public int getFastStepSampleInterval() {
+        return fastStepSampleInterval;
+    }
+
+    @DataBoundSetter
+    public void setFastStepSampleInterval(int fastStepSampleInterval) {
+        this.fastStepSampleInterval = fastStepSampleInterval;
+        save();
+    }
+
+    public int getSlowStepThresholdSeconds() {
+        return slowStepThresholdSeconds;
+    }
+
+    @DataBoundSetter
+    public void setSlowStepThresholdSeconds(int slowStepThresholdSeconds) {
+        this.slowStepThresholdSeconds = slowStepThresholdSeconds;
+        save();
+    }
+
+    public boolean isQueueLatencyEventsEnabled() {
+        return queueLatencyEventsEnabled;
+    }
+
+    @DataBoundSetter
+    public void setQueueLatencyEventsEnabled(boolean queueLatencyEventsEnabled) {
+        this.queueLatencyEventsEnabled = queueLatencyEventsEnabled;
+        save();
+    }
+
+    public boolean isResourceSamplingEnabled() {
+        return resourceSamplingEnabled;
+    }
+
+    @DataBoundSetter
+    public void setResourceSamplingEnabled(boolean resourceSamplingEnabled) {
+        this.resourceSamplingEnabled = resourceSamplingEnabled;
+        save();
+    }
+
+    public int getResourceSampleIntervalSeconds() {
+        return resourceSampleIntervalSeconds;
+    }
+
+    @DataBoundSetter
+    public void setResourceSampleIntervalSeconds(int resourceSampleIntervalSeconds) {
+        this.resourceSampleIntervalSeconds = resourceSampleIntervalSeconds;
+        save();
+    }
+
+    public boolean isStageBaselinesEnabled() {
+        return stageBaselinesEnabled;
+    }
+
+    @DataBoundSetter
+    public void setStageBaselinesEnabled(boolean stageBaselinesEnabled) {
+        this.stageBaselinesEnabled = stageBaselinesEnabled;
+        save();
+    }
+
+    public double getStageRegressionFactor() {
+        return stageRegressionFactor;
+    }
+
+    @DataBoundSetter
+    public void setStageRegressionFactor(double stageRegressionFactor) {
+        this.stageRegressionFactor = stageRegressionFactor;
+        save();
+    }
+
+    public int getMaxStageBaselines() {
+        return maxStageBaselines;
+    }
+
+    @DataBoundSetter
+    public void setMaxStageBaselines(int maxStageBaselines) {
+        this.maxStageBaselines = maxStageBaselines;
+        save();
+    }
+
+    public boolean isBuildSummaryEnabled() {
+        return buildSummaryEnabled;
+    }
+
+    @DataBoundSetter
+    public void setBuildSummaryEnabled(boolean buildSummaryEnabled) {
+        this.buildSummaryEnabled = buildSummaryEnabled;
+        save();
+    }
+
+    public int getRecentEventsCapacity() {
+        return recentEventsCapacity;
+    }
+
+    @DataBoundSetter
+    public void setRecentEventsCapacity(int recentEventsCapacity) {
+        this.recentEventsCapacity = recentEventsCapacity;
+        save();
+    }
+
     public FormValidation doCheckEndpointUrl(@QueryParameter String value) {
         if (value == null || value.trim().isEmpty()) {
             return FormValidation.ok();
@@ -120,6 +549,34 @@ public class PipelineMetricsConfiguration extends GlobalConfiguration {
         }
     }
 
+    public FormValidation doCheckAdditionalEndpointUrls(@QueryParameter String value) {
+        if (value == null) {
+            return FormValidation.ok();
+        }
+        for (String line : value.split("[\\r\\n]+")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                new URL(line.trim());
+            } catch (MalformedURLException e) {
+                return FormValidation.error("Invalid URL " + line.trim() + ": " + e.getMessage());
+            }
+        }
+        return FormValidation.ok();
+    }
+
+    public FormValidation doCheckOtlpEndpointUrl(@QueryParameter String value) {
+        return doCheckEndpointUrl(value);
+    }
+
+    public FormValidation doCheckOtlpMaxExportBatchSize(@QueryParameter int value) {
+        if (value < 1) {
+            return FormValidation.error("Batch size must be at least 1");
+        }
+        return FormValidation.ok();
+    }
+
     public FormValidation doCheckMaxQueueSize(@QueryParameter int value) {
         if (value < 1) {
             return FormValidation.error("Queue size must be at least 1");
@@ -139,4 +596,116 @@ public class PipelineMetricsConfiguration extends GlobalConfiguration {
         }
         return FormValidation.ok();
     }
+
+    public FormValidation doCheckDeliveryThreads(@QueryParameter int value) {
+        if (value < 1) {
+            return FormValidation.error("At least 1 delivery thread is required");
+        }
+        if (value > 32) {
+            return FormValidation.warning("Many delivery threads can overload the endpoint");
+        }
+        return FormValidation.ok();
+    }
+
+    public FormValidation doCheckDeliveryBatchSize(@QueryParameter int value) {
+        if (value < 1) {
+            return FormValidation.error("Batch size must be at least 1");
+        }
+        if (value > 1000) {
+            return FormValidation.error("Batch size must be at most 1000");
+        }
+        return FormValidation.ok();
+    }
+
+    public FormValidation doCheckVirtualThreadsEnabled(@QueryParameter boolean value) {
+        if (value && !VirtualThreads.isSupported()) {
+            return FormValidation.warning("Virtual threads need Java 21 or later, delivery threads are used instead");
+        }
+        return FormValidation.ok();
+    }
+
+    public FormValidation doCheckMaxConcurrentDeliveries(@QueryParameter int value) {
+        if (value < 1) {
+            return FormValidation.error("At least 1 concurrent delivery is required");
+        }
+        if (value > 1000) {
+            return FormValidation.warning("Many concurrent deliveries can overload the endpoint");
+        }
+        return FormValidation.ok();
+    }
+
+    public FormValidation doCheckThrottledStageSampleInterval(@QueryParameter int value) {
+        if (value < 1) {
+            return FormValidation.error("Sample interval must be at least 1");
+        }
+        return FormValidation.ok();
+    }
+
+    public FormValidation doCheckStageCoalesceGraceSeconds(@QueryParameter int value) {
+        if (value < 1) {
+            return FormValidation.error("Grace period must be at least 1 second");
+        }
+        if (value > 60) {
+            return FormValidation.warning("Long grace periods delay stage_start events for every running stage");
+        }
+        return FormValidation.ok();
+    }
+
+    public FormValidation doCheckFastStepSampleInterval(@QueryParameter int value) {
+        if (value < 1) {
+            return FormValidation.error("Sample interval must be at least 1");
+        }
+        return FormValidation.ok();
+    }
+
+    public FormValidation doCheckSlowStepThresholdSeconds(@QueryParameter int value) {
+        if (value < 1) {
+            return FormValidation.error("Slow step threshold must be at least 1 second");
+        }
+        return FormValidation.ok();
+    }
+
+    public FormValidation doCheckResourceSampleIntervalSeconds(@QueryParameter int value) {
+        if (value < 1) {
+            return FormValidation.error("Sample interval must be at least 1 second");
+        }
+        return FormValidation.ok();
+    }
+
+    public FormValidation doCheckStageRegressionFactor(@QueryParameter double value) {
+        if (value <= 1) {
+            return FormValidation.error("Regression factor must be greater than 1");
+        }
+        return FormValidation.ok();
+    }
+
+    public FormValidation doCheckMaxStageBaselines(@QueryParameter int value) {
+        if (value < 1) {
+            return FormValidation.error("Must keep at least 1 baseline");
+        }
+        if (value > 100000) {
+            return FormValidation.warning("Large baseline limits increase controller memory and the size of the baselines file");
+        }
+        return FormValidation.ok();
+    }
+
+    public FormValidation doCheckRecentEventsCapacity(@QueryParameter int value) {
+        if (value < 0) {
+            return FormValidation.error("Capacity cannot be negative");
+        }
+        if (value == 0) {
+            return FormValidation.warning("Recent events will not be kept");
+        }
+        if (value > 100000) {
+            return FormValidation.warning("Every kept event stays in controller memory");
+        }
+        return FormValidation.ok();
+    }
+
+    public FormValidation doCheckStepTypeAllowlist(@QueryParameter String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return FormValidation.warning("An empty allowlist reports every step type, including echo and dir");
+        }
+        return FormValidation.ok();
+    }
 }
@@ -1,18 +1,31 @@
 package io.redsignx.jenkins.metrics;
 
 import hudson.Extension;
+import hudson.model.Queue;
+import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import org.jenkinsci.plugins.workflow.actions.ArgumentsAction;
+import org.jenkinsci.plugins.workflow.actions.ErrorAction;
 import org.jenkinsci.plugins.workflow.actions.LabelAction;
+import org.jenkinsci.plugins.workflow.actions.ThreadNameAction;
+import org.jenkinsci.plugins.workflow.actions.WorkspaceAction;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepAtomNode;
 import org.jenkinsci.plugins.workflow.cps.nodes.StepEndNode;
 import org.jenkinsci.plugins.workflow.cps.nodes.StepStartNode;
 import org.jenkinsci.plugins.workflow.flow.FlowExecution;
 import org.jenkinsci.plugins.workflow.flow.FlowExecutionListener;
 import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.BlockStartNode;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.steps.FlowInterruptedException;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
 
 import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
@@ -26,9 +39,18 @@ public class PipelineMetricsListener extends FlowExecutionListener {
     
     private static final Logger LOGGER = Logger.getLogger(PipelineMetricsListener.class.getName());
     
-    // Track stage start times and info by start node ID
+    // Track stage start times and info by stage ID (node IDs repeat across runs)
     private final Map<String, StageStartInfo> stageStartInfoMap = new ConcurrentHashMap<>();
     
+    private final StageAdmissionController admissionController = new StageAdmissionController();
+    
+    private final StageEventCoalescer coalescer = new StageEventCoalescer();
+    
+    private final StepSampler stepSampler = new StepSampler();
+    
+    // Stage graph of each running build, keyed by run ID
+    private final Map<String, StageDag> stageDags = new ConcurrentHashMap<>();
+    
     @Override
     public void onCreated(FlowExecution execution) {
         try {
@@ -37,12 +59,135 @@ public class PipelineMetricsListener extends FlowExecutionListener {
         } catch (Exception e) {
             LOGGER.log(Level.WARNING, "Failed to add graph listener", e);
         }
+        try {
+            Run<?, ?> run = getRunFromExecution(execution);
+            if (run != null) {
+                emitQueueWait(run);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Error emitting queue wait", e);
+        }
+    }
+    
+    private void emitQueueWait(Run<?, ?> run) {
+        QueueWaitTracker.QueueWait wait = QueueWaitTracker.get().take(run.getQueueId());
+        if (wait == null) {
+            return;
+        }
+        BuildContext context = extractBuildContext(run);
+        QueueWaitEvent event = new QueueWaitEvent(
+            context.jobFullName,
+            context.buildNumber,
+            context.buildUrl,
+            context.branchName,
+            context.changeId,
+            context.changeTarget,
+            wait.getLeftAt(),
+            wait.getQueueId(),
+            wait.getEnqueuedAt(),
+            wait.getWaitMs(),
+            wait.getLabel()
+        );
+        
+        MetricDeliveryService.getInstance().queueEvent(event);
+        LOGGER.fine("Queued queue_wait event for " + generateRunId(run));
+    }
+    
+    @Override
+    public void onCompleted(FlowExecution execution) {
+        try {
+            Run<?, ?> run = getRunFromExecution(execution);
+            if (run == null) {
+                return;
+            }
+            
+            ListenerConfig config = PipelineMetricsConfiguration.listenerSnapshot();
+            BuildContext context = extractBuildContext(run);
+            long endTime = System.currentTimeMillis();
+            
+            StageAdmissionController.RunAdmission admission = admissionController.completeRun(generateRunId(run));
+            if (admission != null) {
+                StageSuppressionSummaryEvent event = new StageSuppressionSummaryEvent(
+                    context.jobFullName,
+                    context.buildNumber,
+                    context.buildUrl,
+                    context.branchName,
+                    context.changeId,
+                    context.changeTarget,
+                    endTime,
+                    admission.getSuppressedCount(),
+                    admission.getSampledCount(),
+                    config.getThrottledStageSampleInterval()
+                );
+                
+                MetricDeliveryService.getInstance().queueEvent(event);
+                LOGGER.info("Suppressed " + admission.getSuppressedCount() + " stages for " + generateRunId(run));
+            }
+            
+            Throwable failure = execution.getCauseOfFailure();
+            // Removed even when build summaries were turned off while the run was going
+            StageDag dag = stageDags.remove(generateRunId(run));
+            if (dag != null && config.isBuildSummaryEnabled()) {
+                BuildSummaryEvent event = new BuildSummaryEvent(
+                    context.jobFullName,
+                    context.buildNumber,
+                    context.buildUrl,
+                    context.branchName,
+                    context.changeId,
+                    context.changeTarget,
+                    endTime,
+                    resultOf(run, failure).toString(),
+                    run.getStartTimeInMillis(),
+                    dag.getStageCount(),
+                    dag.analyze(run.getStartTimeInMillis(), endTime)
+                );
+                
+                MetricDeliveryService.getInstance().queueEvent(event);
+                LOGGER.fine("Queued build_summary event for " + generateRunId(run));
+            }
+            
+            if (config.isSpanExportEnabled()) {
+                Map<String, Object> attributes = spanAttributes(context);
+                attributes.put("jenkins.build_url", context.buildUrl);
+                OtlpTraceExporter.getInstance().export(new OtlpSpan(
+                    OtlpSpan.traceId(context.jobFullName, context.buildNumber),
+                    OtlpSpan.buildSpanId(context.jobFullName, context.buildNumber),
+                    null,
+                    context.jobFullName + " #" + context.buildNumber,
+                    run.getStartTimeInMillis(),
+                    endTime,
+                    failure != null,
+                    failure != null ? failure.getMessage() : null,
+                    attributes
+                ));
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Error handling flow execution completion", e);
+        }
+    }
+    
+    /**
+     * Result of a run whose execution just completed. The run may not have recorded it yet, so the
+     * result implied by the execution's failure is combined with it, e.g. ABORTED for an interrupted build.
+     */
+    private static Result resultOf(Run<?, ?> run, @CheckForNull Throwable failure) {
+        Result result = failure == null ? Result.SUCCESS
+            : failure instanceof FlowInterruptedException ? ((FlowInterruptedException) failure).getResult()
+            : Result.FAILURE;
+        Result recorded = run.getResult();
+        return recorded != null ? recorded.combine(result) : result;
     }
     
     private class StageGraphListener implements GraphListener {
         
         private final FlowExecution execution;
         
+        // Steps being timed, keyed by the node ID of the atom or block start node
+        private final Map<String, PendingStep> pendingSteps = new ConcurrentHashMap<>();
+        
+        // node steps waiting for an executor, keyed by the node step's start node ID
+        private final Map<String, PendingStep> pendingNodeSteps = new ConcurrentHashMap<>();
+        
         StageGraphListener(FlowExecution execution) {
             this.execution = execution;
         }
@@ -50,20 +195,239 @@ public class PipelineMetricsListener extends FlowExecutionListener {
         @Override
         public void onNewHead(FlowNode node) {
             try {
+                // Settings are read once per node, every handler sees the same snapshot
+                ListenerConfig config = PipelineMetricsConfiguration.listenerSnapshot();
+                if (!pendingSteps.isEmpty()) {
+                    completeAtomSteps(node, config);
+                }
                 if (isStageStartNode(node)) {
-                    handleStageStart((StepStartNode) node);
+                    handleStageStart((StepStartNode) node, config);
                 } else if (isStageEndNode(node)) {
-                    handleStageEnd((StepEndNode) node);
+                    handleStageEnd((StepEndNode) node, config);
+                } else if (node instanceof StepStartNode) {
+                    StepStartNode stepNode = (StepStartNode) node;
+                    if (stepNode.isBody()) {
+                        if (!pendingNodeSteps.isEmpty()) {
+                            handleExecutorAcquired(stepNode, config);
+                        }
+                    } else {
+                        if (isNodeStepStart(stepNode)) {
+                            handleNodeStepStart(stepNode, config);
+                        }
+                        if (config.isStepEventsEnabled()) {
+                            handleStepStart(node, config);
+                        }
+                    }
+                } else if (node instanceof StepAtomNode) {
+                    // Checked before any lookup, most steps run with step events off
+                    if (config.isStepEventsEnabled()) {
+                        handleStepStart(node, config);
+                    }
+                } else if (node instanceof StepEndNode) {
+                    handleStepEnd((StepEndNode) node, config);
                 }
             } catch (Exception e) {
                 LOGGER.log(Level.WARNING, "Error handling flow node", e);
             }
         }
         
-        private boolean isStageStartNode(FlowNode node) {
-            // Check if this is a stage start node
-            return node instanceof StepStartNode && 
-                   "stage".equals(((StepStartNode) node).getDescriptor().getFunctionName());
+        /**
+         * Only called with step events enabled.
+         */
+        private void handleStepStart(FlowNode node, ListenerConfig config) {
+            // Allowlist first, it is the cheapest way to skip a step
+            StepDescriptor descriptor = node instanceof StepAtomNode
+                ? ((StepAtomNode) node).getDescriptor()
+                : ((StepStartNode) node).getDescriptor();
+            if (descriptor == null) {
+                return;
+            }
+            String stepType = descriptor.getFunctionName();
+            int sampleInterval = stepSampler.sampleInterval(config, stepType);
+            if (sampleInterval == 0) {
+                return;
+            }
+            
+            String stageNodeId = findEnclosingStageNodeId(node);
+            if (stageNodeId == null) {
+                return;
+            }
+            Run<?, ?> run = getRunFromExecution(execution);
+            if (run == null) {
+                return;
+            }
+            String stageId = generateStageId(run, stageNodeId);
+            StageStartInfo stageInfo = stageStartInfoMap.get(stageId);
+            if (stageInfo == null || !stageInfo.admitted) {
+                return;
+            }
+            
+            PendingStep step = new PendingStep();
+            step.node = node;
+            step.stepType = stepType;
+            step.stageId = stageId;
+            step.stageInfo = stageInfo;
+            step.timestamp = System.currentTimeMillis();
+            step.sampleInterval = sampleInterval;
+            pendingSteps.put(node.getId(), step);
+        }
+        
+        /**
+         * An atom step has no end node, it ends when the next node in its branch appears.
+         */
+        private void completeAtomSteps(FlowNode node, ListenerConfig config) {
+            for (String parentId : node.getParentIds()) {
+                PendingStep step = pendingSteps.get(parentId);
+                if (step != null && step.node instanceof StepAtomNode) {
+                    pendingSteps.remove(parentId);
+                    completeStep(step, step.node.getError(), config);
+                }
+            }
+        }
+        
+        private void handleStepEnd(StepEndNode endNode, ListenerConfig config) {
+            if (pendingSteps.isEmpty() && pendingNodeSteps.isEmpty()) {
+                return;
+            }
+            String startNodeId = endNode.getStartNode().getId();
+            // A node block ending before its body started never got an executor
+            pendingNodeSteps.remove(startNodeId);
+            PendingStep step = pendingSteps.remove(startNodeId);
+            if (step != null) {
+                completeStep(step, endNode.getError(), config);
+            }
+        }
+        
+        private boolean isNodeStepStart(StepStartNode node) {
+            StepDescriptor descriptor = node.getDescriptor();
+            return descriptor != null && "node".equals(descriptor.getFunctionName());
+        }
+        
+        private void handleNodeStepStart(StepStartNode node, ListenerConfig config) {
+            if (!(config.isQueueLatencyEventsEnabled() || config.isResourceSamplingEnabled())) {
+                return;
+            }
+            PendingStep step = new PendingStep();
+            step.node = node;
+            step.stepType = "node";
+            step.timestamp = System.currentTimeMillis();
+            pendingNodeSteps.put(node.getId(), step);
+        }
+        
+        /**
+         * The body of a node block starts once the block has an executor on an agent.
+         */
+        private void handleExecutorAcquired(StepStartNode bodyNode, ListenerConfig config) {
+            PendingStep step = null;
+            for (String parentId : bodyNode.getParentIds()) {
+                step = pendingNodeSteps.remove(parentId);
+                if (step != null) {
+                    break;
+                }
+            }
+            if (step == null) {
+                return;
+            }
+            long acquiredTime = System.currentTimeMillis();
+            
+            Run<?, ?> run = getRunFromExecution(execution);
+            if (run == null) {
+                return;
+            }
+            WorkspaceAction workspace = step.node.getAction(WorkspaceAction.class);
+            if (workspace == null) {
+                workspace = bodyNode.getAction(WorkspaceAction.class);
+            }
+            
+            String stageId = null;
+            String stageName = null;
+            BuildContext context = null;
+            String stageNodeId = findEnclosingStageNodeId(step.node);
+            if (stageNodeId != null) {
+                stageId = generateStageId(run, stageNodeId);
+                StageStartInfo stageInfo = stageStartInfoMap.get(stageId);
+                if (stageInfo != null) {
+                    if (!stageInfo.admitted) {
+                        return;
+                    }
+                    // A stage that allocates its own agent is sampled from here on
+                    if (stageInfo.resourceSession == null && workspace != null
+                            && config.isResourceSamplingEnabled()) {
+                        stageInfo.resourceSession = AgentResourceMonitor.getInstance()
+                            .start(workspace.getNode(), config.getResourceSampleIntervalSeconds());
+                    }
+                    stageName = stageInfo.stageName;
+                    context = stageInfo.context;
+                }
+            }
+            if (!config.isQueueLatencyEventsEnabled()) {
+                return;
+            }
+            if (context == null) {
+                context = extractBuildContext(run);
+            }
+            
+            Object label = ArgumentsAction.getArguments(step.node).get("label");
+            
+            ExecutorWaitEvent event = new ExecutorWaitEvent(
+                stageName != null ? stageId : null,
+                stageName,
+                context.jobFullName,
+                context.buildNumber,
+                context.buildUrl,
+                context.branchName,
+                context.changeId,
+                context.changeTarget,
+                step.node.getId(),
+                acquiredTime,
+                label != null ? label.toString() : null,
+                workspace != null ? workspace.getNode() : null,
+                step.timestamp,
+                acquiredTime - step.timestamp
+            );
+            
+            if (stageName != null) {
+                // The stage's own start has to reach delivery first
+                coalescer.flush(stageId);
+            }
+            MetricDeliveryService.getInstance().queueEvent(event);
+            LOGGER.fine("Queued executor_wait event for node step: " + step.node.getId());
+        }
+        
+        private void completeStep(PendingStep step, @CheckForNull ErrorAction error, ListenerConfig config) {
+            long endTime = System.currentTimeMillis();
+            long durationMs = endTime - step.timestamp;
+            BuildContext context = step.stageInfo.context;
+            
+            StepSampler.Reason reason = stepSampler.sample(context.jobFullName, step.stepType, durationMs,
+                error != null, step.sampleInterval, config.getSlowStepThresholdSeconds() * 1000L);
+            if (reason == null) {
+                return;
+            }
+            
+            StepEndEvent event = new StepEndEvent(
+                step.stageId,
+                step.stageInfo.stageName,
+                context.jobFullName,
+                context.buildNumber,
+                context.buildUrl,
+                context.branchName,
+                context.changeId,
+                context.changeTarget,
+                step.node.getId(),
+                endTime,
+                step.stepType,
+                step.timestamp,
+                error != null ? "FAILURE" : "SUCCESS",
+                durationMs,
+                error != null ? error.getError().getMessage() : null,
+                reason,
+                reason == StepSampler.Reason.SAMPLED ? step.sampleInterval : 1
+            );
+            
+            coalescer.flush(step.stageId);
+            MetricDeliveryService.getInstance().queueEvent(event);
+            LOGGER.finest("Queued step_end event for step: " + step.stepType);
         }
         
         private boolean isStageEndNode(FlowNode node) {
@@ -71,12 +435,10 @@ public class PipelineMetricsListener extends FlowExecutionListener {
                 return false;
             }
             StepEndNode endNode = (StepEndNode) node;
-            FlowNode startNode = endNode.getStartNode();
-            return startNode instanceof StepStartNode && 
-                   "stage".equals(((StepStartNode) startNode).getDescriptor().getFunctionName());
+            return isStageStartNode(endNode.getStartNode());
         }
         
-        private void handleStageStart(StepStartNode startNode) {
+        private void handleStageStart(StepStartNode startNode, ListenerConfig config) {
             try {
                 String nodeId = startNode.getId();
                 String stageName = getStageName(startNode);
@@ -93,17 +455,50 @@ public class PipelineMetricsListener extends FlowExecutionListener {
                 }
                 
                 BuildContext context = extractBuildContext(run);
+                String parentNodeId = findEnclosingStageNodeId(startNode);
+                
+                // Every stage goes into the graph, suppressed ones still shape the critical path
+                if (config.isBuildSummaryEnabled()) {
+                    stageDags.computeIfAbsent(generateRunId(run), k -> new StageDag())
+                        .onStageStart(nodeId, parentNodeId, findEnclosingBranches(startNode), stageName, timestamp);
+                }
+                
+                // Admission is decided once per stage so start and end events stay paired
+                boolean admitted = admissionController.admit(config, context.jobFullName, generateRunId(run))
+                    != StageAdmissionController.Decision.SUPPRESSED;
                 
                 // Store start info for later use in end event
+                String stageId = generateStageId(run, nodeId);
                 StageStartInfo startInfo = new StageStartInfo();
                 startInfo.nodeId = nodeId;
                 startInfo.stageName = stageName;
                 startInfo.timestamp = timestamp;
                 startInfo.context = context;
-                stageStartInfoMap.put(nodeId, startInfo);
+                startInfo.admitted = admitted;
+                startInfo.parentNodeId = parentNodeId;
+                startInfo.parallelBranch = findParallelBranchName(startNode);
+                stageStartInfoMap.put(stageId, startInfo);
+                
+                if (!admitted) {
+                    LOGGER.finest("Suppressed stage_start event for stage: " + stageName);
+                    return;
+                }
+                
+                if (config.isResourceSamplingEnabled()) {
+                    String agentName = findEnclosingAgentName(startNode);
+                    if (agentName != null) {
+                        startInfo.resourceSession = AgentResourceMonitor.getInstance()
+                            .start(agentName, config.getResourceSampleIntervalSeconds());
+                    }
+                }
+                
+                // A nested stage is an event of its parent, which then no longer completes as one event
+                if (parentNodeId != null) {
+                    coalescer.flush(generateStageId(run, parentNodeId));
+                }
                 
                 StageStartEvent event = new StageStartEvent(
-                    generateStageId(run, nodeId),
+                    stageId,
                     stageName,
                     context.jobFullName,
                     context.buildNumber,
@@ -115,6 +510,12 @@ public class PipelineMetricsListener extends FlowExecutionListener {
                     timestamp
                 );
                 
+                if (config.isCoalesceShortStages()) {
+                    coalescer.hold(event, config.getStageCoalesceGraceSeconds() * 1000L);
+                    LOGGER.fine("Holding stage_start event for stage: " + stageName);
+                    return;
+                }
+                
                 MetricDeliveryService.getInstance().queueEvent(event);
                 LOGGER.fine("Queued stage_start event for stage: " + stageName);
             } catch (Exception e) {
@@ -122,39 +523,112 @@ public class PipelineMetricsListener extends FlowExecutionListener {
             }
         }
         
-        private void handleStageEnd(StepEndNode endNode) {
+        private void handleStageEnd(StepEndNode endNode, ListenerConfig config) {
             try {
                 FlowNode startNode = endNode.getStartNode();
                 String startNodeId = startNode.getId();
                 
-                StageStartInfo startInfo = stageStartInfoMap.remove(startNodeId);
+                Run<?, ?> run = getRunFromExecution(execution);
+                if (run == null) {
+                    return;
+                }
+                String stageId = generateStageId(run, startNodeId);
+                
+                StageStartInfo startInfo = stageStartInfoMap.remove(stageId);
                 if (startInfo == null) {
                     LOGGER.fine("No start info found for stage end node: " + endNode.getId());
                     return;
                 }
                 
                 long endTime = System.currentTimeMillis();
-                long durationMs = endTime - startInfo.timestamp;
-                
-                Run<?, ?> run = getRunFromExecution(execution);
-                if (run == null) {
+                StageDag dag = stageDags.get(generateRunId(run));
+                if (dag != null) {
+                    dag.onStageEnd(startNodeId, endTime);
+                }
+                // Baselines see every stage, a regression is worth reporting even for a suppressed one
+                if (config.isStageBaselinesEnabled() && endNode.getError() == null) {
+                    recordStageBaseline(config, stageId, startNodeId, startInfo, endTime);
+                }
+                if (!startInfo.admitted) {
                     return;
                 }
                 
+                long durationMs = endTime - startInfo.timestamp;
+                
                 String status = "SUCCESS";
                 String result = null;
                 String errorMessage = null;
                 
                 if (endNode.getError() != null) {
                     status = "FAILURE";
-                    errorMessage = endNode.getError().getMessage();
+                    errorMessage = endNode.getError().getError().getMessage();
                     result = "FAILURE";
                 } else {
                     result = "SUCCESS";
                 }
                 
-                StageEndEvent event = new StageEndEvent(
-                    generateStageId(run, startNodeId),
+                boolean complete = coalescer.complete(stageId);
+                StageEndEvent event = createStageEndEvent(complete, stageId, startNodeId, startInfo, endTime,
+                    status, result, durationMs, errorMessage);
+                MetricDeliveryService.getInstance().queueEvent(event);
+                LOGGER.fine("Queued " + event.getEventType() + " event for stage: " + startInfo.stageName);
+                
+                if (startInfo.resourceSession != null) {
+                    // Remoting round trip happens off the CPS thread, the usage follows once the agent answers
+                    AgentResourceMonitor.getInstance().stop(startInfo.resourceSession).thenAccept(usage -> {
+                        if (usage != null) {
+                            queueResourceUsageEvent(stageId, startNodeId, startInfo, endTime, usage);
+                        }
+                    });
+                }
+                
+                if (config.isSpanExportEnabled()) {
+                    exportStageSpan(startInfo, endTime, endNode.getError() != null, errorMessage);
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Error handling stage end", e);
+            }
+        }
+        
+        private void recordStageBaseline(ListenerConfig config, String stageId, String startNodeId,
+                                         StageStartInfo startInfo, long endTime) {
+            BuildContext context = startInfo.context;
+            StageBaselineStore baselines = StageBaselineStore.getInstance();
+            baselines.setMaxEntries(config.getMaxStageBaselines());
+            StageBaselineStore.Regression regression = baselines.record(context.jobFullName, context.branchName,
+                startInfo.stageName, endTime - startInfo.timestamp, config.getStageRegressionFactor(), endTime);
+            if (regression == null) {
+                return;
+            }
+            
+            StageRegressionEvent event = new StageRegressionEvent(
+                stageId,
+                startInfo.stageName,
+                context.jobFullName,
+                context.buildNumber,
+                context.buildUrl,
+                context.branchName,
+                context.changeId,
+                context.changeTarget,
+                startNodeId,
+                endTime,
+                regression,
+                config.getStageRegressionFactor()
+            );
+            
+            MetricDeliveryService.getInstance().queueEvent(event);
+            LOGGER.info("Stage " + startInfo.stageName + " of " + context.jobFullName + " #" + context.buildNumber
+                + " took " + regression.getDurationMs() + " ms against a baseline of "
+                + Math.round(regression.getMean()) + " ms");
+        }
+        
+        private StageEndEvent createStageEndEvent(boolean complete, String stageId, String startNodeId,
+                                                  StageStartInfo startInfo, long endTime, String status,
+                                                  String result, long durationMs, String errorMessage) {
+            if (complete) {
+                // The stage_start was never sent, report the whole stage at once
+                return new StageCompleteEvent(
+                    stageId,
                     startInfo.stageName,
                     startInfo.context.jobFullName,
                     startInfo.context.buildNumber,
@@ -163,18 +637,76 @@ public class PipelineMetricsListener extends FlowExecutionListener {
                     startInfo.context.changeId,
                     startInfo.context.changeTarget,
                     startNodeId,
+                    startInfo.timestamp,
                     endTime,
                     status,
                     result,
                     durationMs,
                     errorMessage
                 );
-                
-                MetricDeliveryService.getInstance().queueEvent(event);
-                LOGGER.fine("Queued stage_end event for stage: " + startInfo.stageName);
-            } catch (Exception e) {
-                LOGGER.log(Level.WARNING, "Error handling stage end", e);
             }
+            return new StageEndEvent(
+                stageId,
+                startInfo.stageName,
+                startInfo.context.jobFullName,
+                startInfo.context.buildNumber,
+                startInfo.context.buildUrl,
+                startInfo.context.branchName,
+                startInfo.context.changeId,
+                startInfo.context.changeTarget,
+                startNodeId,
+                endTime,
+                status,
+                result,
+                durationMs,
+                errorMessage
+            );
+        }
+        
+        private void queueResourceUsageEvent(String stageId, String startNodeId, StageStartInfo startInfo,
+                                             long endTime, ResourceUsage usage) {
+            BuildContext context = startInfo.context;
+            StageResourceUsageEvent event = new StageResourceUsageEvent(
+                stageId,
+                startInfo.stageName,
+                context.jobFullName,
+                context.buildNumber,
+                context.buildUrl,
+                context.branchName,
+                context.changeId,
+                context.changeTarget,
+                startNodeId,
+                endTime,
+                usage
+            );
+            
+            MetricDeliveryService.getInstance().queueEvent(event);
+            LOGGER.fine("Queued stage_resource_usage event for stage: " + startInfo.stageName);
+        }
+        
+        private void exportStageSpan(StageStartInfo startInfo, long endTime, boolean error, String errorMessage) {
+            BuildContext context = startInfo.context;
+            // Stages outside any other stage hang off the build's root span
+            byte[] parentSpanId = startInfo.parentNodeId != null
+                ? OtlpSpan.stageSpanId(context.jobFullName, context.buildNumber, startInfo.parentNodeId)
+                : OtlpSpan.buildSpanId(context.jobFullName, context.buildNumber);
+            
+            Map<String, Object> attributes = spanAttributes(context);
+            attributes.put("jenkins.stage_name", startInfo.stageName);
+            attributes.put("jenkins.node_id", startInfo.nodeId);
+            attributes.put("jenkins.parallel_branch", startInfo.parallelBranch);
+            
+            OtlpTraceExporter.getInstance().export(new OtlpSpan(
+                OtlpSpan.traceId(context.jobFullName, context.buildNumber),
+                OtlpSpan.stageSpanId(context.jobFullName, context.buildNumber, startInfo.nodeId),
+                parentSpanId,
+                startInfo.stageName,
+                startInfo.timestamp,
+                endTime,
+                error,
+                errorMessage,
+                attributes
+            ));
         }
         
         @CheckForNull
@@ -192,44 +724,130 @@ public class PipelineMetricsListener extends FlowExecutionListener {
             }
             return null;
         }
-        
-        @CheckForNull
-        private Run<?, ?> getRunFromExecution(FlowExecution execution) {
-            try {
-                return execution.getOwner().getExecutable();
-            } catch (Exception e) {
-                LOGGER.log(Level.WARNING, "Failed to get run from execution", e);
-                return null;
+    }
+    
+    private static boolean isStageStartNode(FlowNode node) {
+        if (!(node instanceof StepStartNode)) {
+            return false;
+        }
+        StepStartNode startNode = (StepStartNode) node;
+        // The stage step's body start node shares its descriptor, only the outer node marks the stage
+        if (startNode.isBody()) {
+            return false;
+        }
+        // No descriptor when the plugin providing the step has been removed
+        StepDescriptor descriptor = startNode.getDescriptor();
+        return descriptor != null && "stage".equals(descriptor.getFunctionName());
+    }
+    
+    /**
+     * @return FlowNode ID of the nearest stage enclosing the given node, or null for top-level stages
+     */
+    @CheckForNull
+    private static String findEnclosingStageNodeId(FlowNode node) {
+        for (BlockStartNode block : node.getEnclosingBlocks()) {
+            if (isStageStartNode(block)) {
+                return block.getId();
             }
         }
-        
-        private String generateStageId(Run<?, ?> run, String nodeId) {
-            return run.getParent().getFullName() + "#" + run.getNumber() + ":" + nodeId;
+        return null;
+    }
+    
+    /**
+     * @return Parallel branches between the given node and its nearest enclosing stage, innermost first
+     */
+    private static List<StageDag.Branch> findEnclosingBranches(FlowNode node) {
+        List<StageDag.Branch> branches = new ArrayList<>();
+        List<? extends BlockStartNode> blocks = node.getEnclosingBlocks();
+        for (int i = 0; i < blocks.size() && !isStageStartNode(blocks.get(i)); i++) {
+            // A branch block sits directly inside its parallel step block
+            if (blocks.get(i).getAction(ThreadNameAction.class) != null && i + 1 < blocks.size()) {
+                branches.add(new StageDag.Branch(blocks.get(i + 1).getId(), blocks.get(i).getId()));
+            }
+        }
+        return branches;
+    }
+    
+    /**
+     * @return Name of the agent the nearest enclosing node block runs on, empty for the built-in node,
+     *         or null outside any node block
+     */
+    @CheckForNull
+    private static String findEnclosingAgentName(FlowNode node) {
+        for (BlockStartNode block : node.getEnclosingBlocks()) {
+            WorkspaceAction workspace = block.getAction(WorkspaceAction.class);
+            if (workspace != null) {
+                return workspace.getNode();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * @return Name of the nearest parallel branch enclosing the given node, or null outside parallel
+     */
+    @CheckForNull
+    private static String findParallelBranchName(FlowNode node) {
+        for (BlockStartNode block : node.getEnclosingBlocks()) {
+            ThreadNameAction threadName = block.getAction(ThreadNameAction.class);
+            if (threadName != null) {
+                return threadName.getThreadName();
+            }
+        }
+        return null;
+    }
+    
+    private static Map<String, Object> spanAttributes(BuildContext context) {
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("jenkins.job_full_name", context.jobFullName);
+        attributes.put("jenkins.build_number", context.buildNumber);
+        attributes.put("jenkins.branch_name", context.branchName);
+        attributes.put("jenkins.change_id", context.changeId);
+        attributes.put("jenkins.change_target", context.changeTarget);
+        return attributes;
+    }
+    
+    @CheckForNull
+    private Run<?, ?> getRunFromExecution(FlowExecution execution) {
+        try {
+            Queue.Executable executable = execution.getOwner().getExecutable();
+            return executable instanceof Run ? (Run<?, ?>) executable : null;
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to get run from execution", e);
+            return null;
         }
+    }
+    
+    private String generateRunId(Run<?, ?> run) {
+        return run.getParent().getFullName() + "#" + run.getNumber();
+    }
+    
+    private String generateStageId(Run<?, ?> run, String nodeId) {
+        return generateRunId(run) + ":" + nodeId;
+    }
+    
+    private BuildContext extractBuildContext(Run<?, ?> run) {
+        BuildContext context = new BuildContext();
+        context.jobFullName = run.getParent().getFullName();
+        context.buildNumber = run.getNumber();
+        context.buildUrl = run.getUrl();
         
-        private BuildContext extractBuildContext(Run<?, ?> run) {
-            BuildContext context = new BuildContext();
-            context.jobFullName = run.getParent().getFullName();
-            context.buildNumber = run.getNumber();
-            context.buildUrl = run.getUrl();
+        // Extract branch and change information for Multibranch pipelines
+        if (run instanceof WorkflowRun) {
+            WorkflowRun workflowRun = (WorkflowRun) run;
             
-            // Extract branch and change information for Multibranch pipelines
-            if (run instanceof WorkflowRun) {
-                WorkflowRun workflowRun = (WorkflowRun) run;
-                
-                // Get environment once and reuse
-                try {
-                    hudson.EnvVars env = workflowRun.getEnvironment(TaskListener.NULL);
-                    context.branchName = env.get("BRANCH_NAME");
-                    context.changeId = env.get("CHANGE_ID");
-                    context.changeTarget = env.get("CHANGE_TARGET");
-                } catch (Exception e) {
-                    LOGGER.log(Level.FINE, "Could not extract branch/change info", e);
-                }
+            // Get environment once and reuse
+            try {
+                hudson.EnvVars env = workflowRun.getEnvironment(TaskListener.NULL);
+                context.branchName = env.get("BRANCH_NAME");
+                context.changeId = env.get("CHANGE_ID");
+                context.changeTarget = env.get("CHANGE_TARGET");
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Could not extract branch/change info", e);
             }
-            
-            return context;
         }
+        
+        return context;
     }
     
     private static class StageStartInfo {
@@ -237,6 +855,19 @@ public class PipelineMetricsListener extends FlowExecutionListener {
         String stageName;
         long timestamp;
         BuildContext context;
+        boolean admitted;
+        String parentNodeId;
+        String parallelBranch;
+        AgentResourceMonitor.Session resourceSession;
+    }
+    
+    private static class PendingStep {
+        FlowNode node;
+        String stepType;
+        String stageId;
+        StageStartInfo stageInfo;
+        long timestamp;
+        int sampleInterval;
     }
     
     private static class BuildContext {
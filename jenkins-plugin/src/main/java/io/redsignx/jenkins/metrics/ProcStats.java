@@ -0,0 +1,165 @@
+package io.redsignx.jenkins.metrics;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Snapshot of machine-wide CPU, memory and disk counters read from Linux {@code /proc}.
+ * Runs on agents, so it only depends on the JDK.
+ */
+final class ProcStats {
+
+    private static final Path PROC_STAT = Paths.get("/proc/stat");
+    private static final Path PROC_MEMINFO = Paths.get("/proc/meminfo");
+    private static final Path PROC_DISKSTATS = Paths.get("/proc/diskstats");
+    private static final File SYS_BLOCK = new File("/sys/block");
+    private static final long SECTOR_BYTES = 512;
+
+    final long cpuBusyTicks;
+    final long cpuIowaitTicks;
+    final long cpuTotalTicks;
+    final int cpuCount;
+    final long memoryTotalBytes;
+    final long memoryAvailableBytes;
+    final long diskReadBytes;
+    final long diskWriteBytes;
+
+    ProcStats(long[] cpu, int cpuCount, long[] memory, long[] disk) {
+        this.cpuBusyTicks = cpu[0];
+        this.cpuIowaitTicks = cpu[1];
+        this.cpuTotalTicks = cpu[2];
+        this.cpuCount = cpuCount;
+        this.memoryTotalBytes = memory[0];
+        this.memoryAvailableBytes = memory[1];
+        this.diskReadBytes = disk[0];
+        this.diskWriteBytes = disk[1];
+    }
+
+    static boolean isSupported() {
+        return Files.isReadable(PROC_STAT) && Files.isReadable(PROC_MEMINFO);
+    }
+
+    static ProcStats read() throws IOException {
+        String stat = new String(Files.readAllBytes(PROC_STAT), StandardCharsets.US_ASCII);
+        String meminfo = new String(Files.readAllBytes(PROC_MEMINFO), StandardCharsets.US_ASCII);
+        long[] disk = {0, 0};
+        if (Files.isReadable(PROC_DISKSTATS)) {
+            String diskstats = new String(Files.readAllBytes(PROC_DISKSTATS), StandardCharsets.US_ASCII);
+            disk = parseDiskStats(diskstats, wholeDisks());
+        }
+        return new ProcStats(parseCpu(stat), parseCpuCount(stat), parseMemInfo(meminfo), disk);
+    }
+
+    long memoryUsedBytes() {
+        return Math.max(0, memoryTotalBytes - memoryAvailableBytes);
+    }
+
+    /**
+     * @return Busy, iowait and total ticks from the aggregate {@code cpu} line of {@code /proc/stat}
+     */
+    static long[] parseCpu(String stat) {
+        for (String line : stat.split("\n")) {
+            if (!line.startsWith("cpu ")) {
+                continue;
+            }
+            String[] fields = line.trim().split("\\s+");
+            long total = 0;
+            // user nice system idle iowait irq softirq steal; guest time is already part of user
+            for (int i = 1; i <= 8 && i < fields.length; i++) {
+                total += Long.parseLong(fields[i]);
+            }
+            long idle = Long.parseLong(fields[4]);
+            long iowait = fields.length > 5 ? Long.parseLong(fields[5]) : 0;
+            return new long[] {total - idle - iowait, iowait, total};
+        }
+        return new long[] {0, 0, 0};
+    }
+
+    static int parseCpuCount(String stat) {
+        int count = 0;
+        for (String line : stat.split("\n")) {
+            if (line.length() > 3 && line.startsWith("cpu") && Character.isDigit(line.charAt(3))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return Total and available memory in bytes from {@code /proc/meminfo}
+     */
+    static long[] parseMemInfo(String meminfo) {
+        long total = 0;
+        long available = -1;
+        long free = 0;
+        for (String line : meminfo.split("\n")) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length < 2) {
+                continue;
+            }
+            switch (fields[0]) {
+                case "MemTotal:":
+                    total = Long.parseLong(fields[1]) * 1024;
+                    break;
+                case "MemAvailable:":
+                    available = Long.parseLong(fields[1]) * 1024;
+                    break;
+                case "MemFree:":
+                    free = Long.parseLong(fields[1]) * 1024;
+                    break;
+                default:
+                    break;
+            }
+        }
+        // Kernels before 3.14 have no MemAvailable
+        return new long[] {total, available >= 0 ? available : free};
+    }
+
+    /**
+     * @param wholeDisks Names of whole block devices, or null to guess from the device name
+     * @return Bytes read and written across whole disks, so partitions are not counted twice
+     */
+    static long[] parseDiskStats(String diskstats, @CheckForNull Set<String> wholeDisks) {
+        long read = 0;
+        long written = 0;
+        for (String line : diskstats.split("\n")) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length < 10) {
+                continue;
+            }
+            String device = fields[2];
+            if (!isPhysicalDisk(device, wholeDisks)) {
+                continue;
+            }
+            read += Long.parseLong(fields[5]) * SECTOR_BYTES;
+            written += Long.parseLong(fields[9]) * SECTOR_BYTES;
+        }
+        return new long[] {read, written};
+    }
+
+    private static boolean isPhysicalDisk(String device, @CheckForNull Set<String> wholeDisks) {
+        // Loop, RAM and device-mapper devices sit on top of other disks or memory
+        if (device.startsWith("loop") || device.startsWith("ram") || device.startsWith("zram")
+                || device.startsWith("dm-") || device.startsWith("md")) {
+            return false;
+        }
+        if (wholeDisks != null) {
+            return wholeDisks.contains(device);
+        }
+        return !Character.isDigit(device.charAt(device.length() - 1));
+    }
+
+    @CheckForNull
+    private static Set<String> wholeDisks() {
+        String[] names = SYS_BLOCK.list();
+        return names != null ? new HashSet<>(Arrays.asList(names)) : null;
+    }
+}
@@ -0,0 +1,84 @@
+package io.redsignx.jenkins.metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal protocol buffers wire format encoder, enough to build OTLP export requests
+ * without generated classes. Nested messages are encoded into their own writer and
+ * then written as length-delimited fields.
+ */
+public class ProtobufWriter {
+
+    private static final int WIRETYPE_VARINT = 0;
+    private static final int WIRETYPE_FIXED64 = 1;
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+
+    public ProtobufWriter writeString(int field, String value) {
+        if (value == null) {
+            return this;
+        }
+        return writeBytes(field, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public ProtobufWriter writeBytes(int field, byte[] value) {
+        if (value == null) {
+            return this;
+        }
+        writeTag(field, WIRETYPE_LENGTH_DELIMITED);
+        writeVarint(value.length);
+        out.write(value, 0, value.length);
+        return this;
+    }
+
+    public ProtobufWriter writeMessage(int field, ProtobufWriter message) {
+        writeTag(field, WIRETYPE_LENGTH_DELIMITED);
+        writeVarint(message.out.size());
+        out.write(message.out.toByteArray(), 0, message.out.size());
+        return this;
+    }
+
+    public ProtobufWriter writeVarint(int field, long value) {
+        writeTag(field, WIRETYPE_VARINT);
+        writeVarint(value);
+        return this;
+    }
+
+    public ProtobufWriter writeBool(int field, boolean value) {
+        return writeVarint(field, value ? 1 : 0);
+    }
+
+    public ProtobufWriter writeFixed64(int field, long value) {
+        writeTag(field, WIRETYPE_FIXED64);
+        for (int shift = 0; shift < 64; shift += 8) {
+            out.write((int) (value >>> shift));
+        }
+        return this;
+    }
+
+    public ProtobufWriter writeDouble(int field, double value) {
+        return writeFixed64(field, Double.doubleToLongBits(value));
+    }
+
+    public int size() {
+        return out.size();
+    }
+
+    public byte[] toByteArray() {
+        return out.toByteArray();
+    }
+
+    private void writeTag(int field, int wireType) {
+        writeVarint(((long) field << 3) | wireType);
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -0,0 +1,53 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.annotations.SerializedName;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Event emitted once per run with the time the build waited in the Jenkins queue.
+ */
+public class QueueWaitEvent extends MetricEvent {
+
+    @SerializedName("queue_id")
+    private final long queueId;
+
+    @SerializedName("enqueued_timestamp")
+    private final long enqueuedTimestamp;
+
+    @SerializedName("wait_ms")
+    private final long waitMs;
+
+    @SerializedName("label")
+    @CheckForNull
+    private final String label;
+
+    public QueueWaitEvent(String jobFullName, int buildNumber, String buildUrl,
+                          String branchName, String changeId, String changeTarget,
+                          long timestamp, long queueId, long enqueuedTimestamp,
+                          long waitMs, String label) {
+        super("queue_wait", jobFullName, buildNumber, buildUrl,
+              branchName, changeId, changeTarget, timestamp);
+        this.queueId = queueId;
+        this.enqueuedTimestamp = enqueuedTimestamp;
+        this.waitMs = waitMs;
+        this.label = label;
+    }
+
+    public long getQueueId() {
+        return queueId;
+    }
+
+    public long getEnqueuedTimestamp() {
+        return enqueuedTimestamp;
+    }
+
+    public long getWaitMs() {
+        return waitMs;
+    }
+
+    @CheckForNull
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,117 @@
+package io.redsignx.jenkins.metrics;
+
+import javax.annotation.CheckForNull;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the queue wait of builds that have left the Jenkins queue until their flow execution
+ * is created, which is the first point where the build number and branch are known.
+ * Entries are keyed by queue item ID, which the build later reports via {@code Run.getQueueId()}.
+ */
+public class QueueWaitTracker {
+
+    private static final QueueWaitTracker INSTANCE = new QueueWaitTracker();
+
+    // Entries never claimed by a flow execution expire after MAX_AGE_MILLIS, and the eldest
+    // are evicted beyond this many
+    static final int MAX_TRACKED_ITEMS = 10000;
+    static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    // Insertion order is the order items left the queue, so the eldest entries come first
+    private final Map<Long, QueueWait> waits = new LinkedHashMap<Long, QueueWait>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, QueueWait> eldest) {
+            return size() > MAX_TRACKED_ITEMS;
+        }
+    };
+
+    public static QueueWaitTracker get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record a queue item that left the queue to start executing.
+     * @param queueId Queue item ID
+     * @param enqueuedAt Time the item entered the queue, in milliseconds
+     * @param leftAt Time the item left the queue, in milliseconds
+     * @param label Label expression the item was assigned to, or null
+     */
+    public void recordLeft(long queueId, long enqueuedAt, long leftAt, @CheckForNull String label) {
+        synchronized (waits) {
+            // Only the expired entries at the head are visited
+            for (Iterator<QueueWait> it = waits.values().iterator(); it.hasNext(); ) {
+                if (leftAt - it.next().leftAt <= MAX_AGE_MILLIS) {
+                    break;
+                }
+                it.remove();
+            }
+            waits.put(queueId, new QueueWait(queueId, enqueuedAt, leftAt, label));
+        }
+    }
+
+    /**
+     * Remove and return the queue wait of a build.
+     * @param queueId Queue item ID of the build
+     * @return The queue wait, or null if the item was not recorded
+     */
+    @CheckForNull
+    public QueueWait take(long queueId) {
+        synchronized (waits) {
+            return waits.remove(queueId);
+        }
+    }
+
+    int size() {
+        synchronized (waits) {
+            return waits.size();
+        }
+    }
+
+    void clear() {
+        synchronized (waits) {
+            waits.clear();
+        }
+    }
+
+    /**
+     * Time a single queue item spent in the queue.
+     */
+    public static final class QueueWait {
+        private final long queueId;
+        private final long enqueuedAt;
+        private final long leftAt;
+        @CheckForNull
+        private final String label;
+
+        QueueWait(long queueId, long enqueuedAt, long leftAt, @CheckForNull String label) {
+            this.queueId = queueId;
+            this.enqueuedAt = enqueuedAt;
+            this.leftAt = leftAt;
+            this.label = label;
+        }
+
+        public long getQueueId() {
+            return queueId;
+        }
+
+        public long getEnqueuedAt() {
+            return enqueuedAt;
+        }
+
+        public long getLeftAt() {
+            return leftAt;
+        }
+
+        public long getWaitMs() {
+            return Math.max(0, leftAt - enqueuedAt);
+        }
+
+        @CheckForNull
+        public String getLabel() {
+            return label;
+        }
+    }
+}
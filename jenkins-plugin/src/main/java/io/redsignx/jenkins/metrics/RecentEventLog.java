@@ -0,0 +1,421 @@
+package io.redsignx.jenkins.metrics;
+
+import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-size ring of the most recently emitted events and their delivery status, for operators
+ * checking from the controller whether an event was sent. Each slot holds an immutable record
+ * that writers replace with compare-and-set, so recording and status updates never wait on a
+ * query. Events are indexed by job, build and stage ID; index entries are dropped together with
+ * the record they point to, so the indexes never outgrow the ring. Queries read the ring and the
+ * indexes without locking and copy the records they match.
+ */
+public class RecentEventLog {
+
+    public enum Status {
+        /** Waiting in the delivery queue */
+        QUEUED,
+        /** Accepted by the endpoint */
+        SENT,
+        /** Last attempt failed, another one is scheduled */
+        RETRYING,
+        /** Given up on, or never queued */
+        DROPPED,
+        /** Refused by the endpoint for good and written to the dead-letter file */
+        REJECTED
+    }
+
+    private static volatile RecentEventLog instance;
+
+    // Shared by all rings, so a sequence number from before a resize never matches a new slot
+    private final AtomicLong nextSequence = new AtomicLong();
+    private volatile Ring ring;
+
+    RecentEventLog(int capacity) {
+        this.ring = new Ring(capacity);
+    }
+
+    public static RecentEventLog get() {
+        RecentEventLog log = instance;
+        if (log == null) {
+            synchronized (RecentEventLog.class) {
+                if (instance == null) {
+                    instance = new RecentEventLog(PipelineMetricsConfiguration.snapshot().getRecentEventsCapacity());
+                }
+                log = instance;
+            }
+        }
+        return log;
+    }
+
+    /**
+     * Change the number of events kept. Existing entries are discarded.
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (Math.max(0, capacity) != ring.capacity()) {
+            ring = new Ring(capacity);
+        }
+    }
+
+    public int getCapacity() {
+        return ring.capacity();
+    }
+
+    /**
+     * Add an event, evicting the oldest one if the ring is full.
+     * @return The event's sequence number, or -1 if the log is disabled
+     */
+    public long record(MetricEvent event, Status status, @CheckForNull String error, long now) {
+        Ring ring = this.ring;
+        if (ring.capacity() == 0) {
+            return -1;
+        }
+        long sequence = nextSequence.getAndIncrement();
+        ring.add(new Record(sequence, event, status, 0, now, now, error));
+        return sequence;
+    }
+
+    /**
+     * Update the delivery status of an event, if it is still in the ring.
+     * @param attempt Number of delivery attempts made so far
+     */
+    public void update(long sequence, Status status, int attempt, @CheckForNull String error, long now) {
+        Ring ring = this.ring;
+        if (ring.capacity() == 0 || sequence < 0) {
+            return;
+        }
+        AtomicReferenceArray<Record> slots = ring.slots;
+        int slot = ring.slotOf(sequence);
+        while (true) {
+            Record current = slots.get(slot);
+            if (current == null || current.sequence != sequence) {
+                return;
+            }
+            Record updated = new Record(sequence, current.event, status, attempt, current.recordedAt, now, error);
+            if (slots.compareAndSet(slot, current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Find events, newest first.
+     * @param query Filters; null fields match everything
+     * @param offset Number of matching events to skip
+     * @param limit Maximum number of events to return
+     */
+    public Page query(Query query, int offset, int limit) {
+        Ring ring = this.ring;
+        List<Entry> entries = new ArrayList<>();
+        int total = 0;
+        long[] candidates = ring.candidates(query);
+        if (candidates != null) {
+            for (int i = candidates.length - 1; i >= 0; i--) {
+                total = ring.collect(candidates[i], query, offset, limit, total, entries);
+            }
+        } else if (!query.isIndexed() && ring.capacity() > 0) {
+            long newest = nextSequence.get() - 1;
+            for (long sequence = newest; sequence >= 0 && sequence > newest - ring.capacity(); sequence--) {
+                total = ring.collect(sequence, query, offset, limit, total, entries);
+            }
+        }
+        return new Page(total, offset, limit, ring.capacity(), entries);
+    }
+
+    int indexedKeyCount() {
+        Ring ring = this.ring;
+        return ring.byJob.size() + ring.byBuild.size() + ring.byStage.size();
+    }
+
+    private static String buildKey(String job, int build) {
+        return job + '#' + build;
+    }
+
+    /**
+     * Slots and indexes of one capacity. Replaced as a whole when the capacity changes.
+     */
+    private static final class Ring {
+        final AtomicReferenceArray<Record> slots;
+        // Sequences by key, oldest first. Updated atomically per key, read without locking
+        final Map<String, Deque<Long>> byJob = new ConcurrentHashMap<>();
+        final Map<String, Deque<Long>> byBuild = new ConcurrentHashMap<>();
+        final Map<String, Deque<Long>> byStage = new ConcurrentHashMap<>();
+
+        Ring(int capacity) {
+            this.slots = new AtomicReferenceArray<>(Math.max(0, capacity));
+        }
+
+        int capacity() {
+            return slots.length();
+        }
+
+        int slotOf(long sequence) {
+            return (int) (sequence % slots.length());
+        }
+
+        void add(Record record) {
+            // Indexed before it is visible, so whoever replaces it finds every key to drop
+            index(record);
+            int slot = slotOf(record.sequence);
+            while (true) {
+                Record current = slots.get(slot);
+                // A writer a full lap ahead already took the slot, this event would be evicted at once
+                if (current != null && current.sequence > record.sequence) {
+                    unindex(record);
+                    return;
+                }
+                if (slots.compareAndSet(slot, current, record)) {
+                    if (current != null) {
+                        unindex(current);
+                    }
+                    return;
+                }
+            }
+        }
+
+        @CheckForNull
+        long[] candidates(Query query) {
+            Deque<Long> sequences;
+            if (query.stageId != null) {
+                sequences = byStage.get(query.stageId);
+            } else if (query.job != null && query.build != null) {
+                sequences = byBuild.get(buildKey(query.job, query.build));
+            } else if (query.job != null) {
+                sequences = byJob.get(query.job);
+            } else {
+                return null;
+            }
+            if (sequences == null) {
+                return null;
+            }
+            // Concurrent writers can append slightly out of order
+            long[] sorted = sequences.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        int collect(long sequence, Query query, int offset, int limit, int total, List<Entry> entries) {
+            Record record = slots.get(slotOf(sequence));
+            // Still being written, or already replaced by a newer event
+            if (record == null || record.sequence != sequence || !query.matches(record.event, record.status)) {
+                return total;
+            }
+            if (total >= offset && entries.size() < limit) {
+                entries.add(new Entry(sequence, record.event, record.status, record.attempts,
+                    record.recordedAt, record.updatedAt, record.error));
+            }
+            return total + 1;
+        }
+
+        private void index(Record record) {
+            MetricEvent event = record.event;
+            index(byJob, event.getJobFullName(), record.sequence);
+            index(byBuild, buildKey(event.getJobFullName(), event.getBuildNumber()), record.sequence);
+            if (event.getStageId() != null) {
+                index(byStage, event.getStageId(), record.sequence);
+            }
+        }
+
+        private void unindex(Record record) {
+            MetricEvent event = record.event;
+            unindex(byJob, event.getJobFullName(), record.sequence);
+            unindex(byBuild, buildKey(event.getJobFullName(), event.getBuildNumber()), record.sequence);
+            if (event.getStageId() != null) {
+                unindex(byStage, event.getStageId(), record.sequence);
+            }
+        }
+
+        private static void index(Map<String, Deque<Long>> index, String key, long sequence) {
+            index.compute(key, (k, sequences) -> {
+                Deque<Long> list = sequences != null ? sequences : new ConcurrentLinkedDeque<>();
+                list.addLast(sequence);
+                return list;
+            });
+        }
+
+        private static void unindex(Map<String, Deque<Long>> index, String key, long sequence) {
+            // The evicted record is usually the oldest of its key, at the head of the list
+            index.computeIfPresent(key, (k, sequences) -> {
+                sequences.removeFirstOccurrence(sequence);
+                return sequences.isEmpty() ? null : sequences;
+            });
+        }
+    }
+
+    /**
+     * An event and its status as last written to a slot. Replaced, never changed.
+     */
+    private static final class Record {
+        final long sequence;
+        final MetricEvent event;
+        final Status status;
+        final int attempts;
+        final long recordedAt;
+        final long updatedAt;
+        final String error;
+
+        Record(long sequence, MetricEvent event, Status status, int attempts,
+               long recordedAt, long updatedAt, @CheckForNull String error) {
+            this.sequence = sequence;
+            this.event = event;
+            this.status = status;
+            this.attempts = attempts;
+            this.recordedAt = recordedAt;
+            this.updatedAt = updatedAt;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Filters for {@link #query(Query, int, int)}.
+     */
+    public static final class Query {
+        String job;
+        Integer build;
+        String stageId;
+        String eventType;
+        Status status;
+
+        public Query job(@CheckForNull String job) {
+            this.job = job;
+            return this;
+        }
+
+        public Query build(@CheckForNull Integer build) {
+            this.build = build;
+            return this;
+        }
+
+        public Query stageId(@CheckForNull String stageId) {
+            this.stageId = stageId;
+            return this;
+        }
+
+        public Query eventType(@CheckForNull String eventType) {
+            this.eventType = eventType;
+            return this;
+        }
+
+        public Query status(@CheckForNull Status status) {
+            this.status = status;
+            return this;
+        }
+
+        boolean isIndexed() {
+            return stageId != null || job != null;
+        }
+
+        boolean matches(MetricEvent event, Status entryStatus) {
+            return (job == null || job.equals(event.getJobFullName()))
+                && (build == null || build == event.getBuildNumber())
+                && (stageId == null || stageId.equals(event.getStageId()))
+                && (eventType == null || eventType.equals(event.getEventType()))
+                && (status == null || status == entryStatus);
+        }
+    }
+
+    /**
+     * One event and its delivery status.
+     */
+    public static final class Entry {
+        private final long sequence;
+        private final MetricEvent event;
+        private final Status status;
+        private final int attempts;
+        private final long recordedAt;
+        private final long updatedAt;
+        private final String error;
+
+        Entry(long sequence, MetricEvent event, Status status, int attempts,
+              long recordedAt, long updatedAt, String error) {
+            this.sequence = sequence;
+            this.event = event;
+            this.status = status;
+            this.attempts = attempts;
+            this.recordedAt = recordedAt;
+            this.updatedAt = updatedAt;
+            this.error = error;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public MetricEvent getEvent() {
+            return event;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public long getRecordedAt() {
+            return recordedAt;
+        }
+
+        public long getUpdatedAt() {
+            return updatedAt;
+        }
+
+        @CheckForNull
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * A page of query results.
+     */
+    public static final class Page {
+        private final int total;
+        private final int offset;
+        private final int limit;
+        private final int capacity;
+        private final List<Entry> entries;
+
+        Page(int total, int offset, int limit, int capacity, List<Entry> entries) {
+            this.total = total;
+            this.offset = offset;
+            this.limit = limit;
+            this.capacity = capacity;
+            this.entries = Collections.unmodifiableList(entries);
+        }
+
+        /**
+         * @return Number of matching events in the ring, across all pages
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public List<Entry> getEntries() {
+            return entries;
+        }
+    }
+}
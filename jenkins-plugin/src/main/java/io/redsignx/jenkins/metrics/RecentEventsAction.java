@@ -0,0 +1,173 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.verb.GET;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * REST endpoint over the {@link RecentEventLog}, at {@code /pipeline-metrics/events}.
+ * Supports the filters {@code job}, {@code build}, {@code stage}, {@code type} and {@code status},
+ * and pagination with {@code offset} and {@code limit}. Health and counters of the delivery
+ * endpoints are at {@code /pipeline-metrics/endpoints}, counters of the span export at
+ * {@code /pipeline-metrics/traces}. Requires Overall/Administer.
+ */
+@Extension
+public class RecentEventsAction implements RootAction {
+
+    static final int DEFAULT_LIMIT = 50;
+    static final int MAX_LIMIT = 1000;
+
+    private final Gson gson = new Gson();
+
+    @Override
+    public String getIconFileName() {
+        // Not shown in the side panel
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Pipeline Metrics Events";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "pipeline-metrics";
+    }
+
+    @GET
+    public void doEvents(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        RecentEventLog.Query query;
+        int offset;
+        int limit;
+        try {
+            query = parseQuery(req);
+            offset = parseInt(req.getParameter("offset"), 0, 0, Integer.MAX_VALUE, "offset");
+            limit = parseInt(req.getParameter("limit"), DEFAULT_LIMIT, 1, MAX_LIMIT, "limit");
+        } catch (IllegalArgumentException e) {
+            rsp.sendError(400, e.getMessage());
+            return;
+        }
+
+        RecentEventLog.Page page = RecentEventLog.get().query(query, offset, limit);
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().write(gson.toJson(toJson(page)));
+    }
+
+    @GET
+    public void doEndpoints(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().write(gson.toJson(toJson(MetricDeliveryService.getInstance().getEndpointStats())));
+    }
+
+    @GET
+    public void doTraces(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().write(gson.toJson(toJson(OtlpTraceExporter.getInstance())));
+    }
+
+    static RecentEventLog.Query parseQuery(StaplerRequest req) {
+        String build = emptyToNull(req.getParameter("build"));
+        String status = emptyToNull(req.getParameter("status"));
+        RecentEventLog.Query query = new RecentEventLog.Query()
+            .job(emptyToNull(req.getParameter("job")))
+            .build(build != null ? parseInt(build, 0, 1, Integer.MAX_VALUE, "build") : null)
+            .stageId(emptyToNull(req.getParameter("stage")))
+            .eventType(emptyToNull(req.getParameter("type")));
+        if (status != null) {
+            try {
+                query.status(RecentEventLog.Status.valueOf(status.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown status: " + status);
+            }
+        }
+        return query;
+    }
+
+    JsonObject toJson(RecentEventLog.Page page) {
+        JsonArray events = new JsonArray();
+        for (RecentEventLog.Entry entry : page.getEntries()) {
+            JsonObject item = new JsonObject();
+            item.addProperty("sequence", entry.getSequence());
+            item.addProperty("status", entry.getStatus().name());
+            item.addProperty("attempts", entry.getAttempts());
+            item.addProperty("recorded_at", entry.getRecordedAt());
+            item.addProperty("updated_at", entry.getUpdatedAt());
+            if (entry.getError() != null) {
+                item.addProperty("error", entry.getError());
+            }
+            item.add("event", gson.toJsonTree(entry.getEvent()));
+            events.add(item);
+        }
+
+        JsonObject result = new JsonObject();
+        result.addProperty("total", page.getTotal());
+        result.addProperty("offset", page.getOffset());
+        result.addProperty("limit", page.getLimit());
+        result.addProperty("capacity", page.getCapacity());
+        result.add("events", events);
+        return result;
+    }
+
+    static JsonObject toJson(OtlpTraceExporter exporter) {
+        JsonObject result = new JsonObject();
+        result.addProperty("url", exporter.getEndpointUrl());
+        result.addProperty("queued", exporter.getQueuedCount());
+        result.addProperty("exported", exporter.getExportedCount());
+        result.addProperty("dropped", exporter.getDroppedCount());
+        return result;
+    }
+
+    static JsonArray toJson(List<EndpointRouter.EndpointStats> stats) {
+        JsonArray endpoints = new JsonArray();
+        for (EndpointRouter.EndpointStats endpoint : stats) {
+            JsonObject item = new JsonObject();
+            item.addProperty("url", endpoint.getEndpoint());
+            item.addProperty("healthy", endpoint.isHealthy());
+            item.addProperty("consecutive_failures", endpoint.getConsecutiveFailures());
+            item.addProperty("sent", endpoint.getSent());
+            item.addProperty("failed", endpoint.getFailed());
+            item.addProperty("failovers", endpoint.getFailovers());
+            item.addProperty("avg_latency_ms", endpoint.getAverageLatencyMillis());
+            endpoints.add(item);
+        }
+        return endpoints;
+    }
+
+    private static int parseInt(@CheckForNull String value, int defaultValue, int min, int max, String name) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed < min || parsed > max) {
+                throw new IllegalArgumentException(name + " must be between " + min + " and " + max);
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is not a number: " + value);
+        }
+    }
+
+    @CheckForNull
+    private static String emptyToNull(@CheckForNull String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+}
@@ -0,0 +1,113 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.io.Serializable;
+
+/**
+ * Agent resource usage over the lifetime of a stage, aggregated on the agent.
+ * Counters are machine-wide, so stages sharing an agent with other executors see their load too.
+ */
+public final class ResourceUsage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @SerializedName("agent_name")
+    private final String agentName;
+
+    @SerializedName("cpu_count")
+    private final int cpuCount;
+
+    @SerializedName("cpu_busy_percent")
+    private final double cpuBusyPercent;
+
+    @SerializedName("cpu_iowait_percent")
+    private final double cpuIowaitPercent;
+
+    @SerializedName("cpu_peak_busy_percent")
+    private final double cpuPeakBusyPercent;
+
+    @SerializedName("memory_total_bytes")
+    private final long memoryTotalBytes;
+
+    @SerializedName("memory_peak_used_bytes")
+    private final long memoryPeakUsedBytes;
+
+    @SerializedName("disk_read_bytes")
+    private final long diskReadBytes;
+
+    @SerializedName("disk_write_bytes")
+    private final long diskWriteBytes;
+
+    @SerializedName("sample_count")
+    private final int sampleCount;
+
+    ResourceUsage(String agentName, int cpuCount, double cpuBusyPercent, double cpuIowaitPercent,
+                  double cpuPeakBusyPercent, long memoryTotalBytes, long memoryPeakUsedBytes,
+                  long diskReadBytes, long diskWriteBytes, int sampleCount) {
+        this.agentName = agentName;
+        this.cpuCount = cpuCount;
+        this.cpuBusyPercent = cpuBusyPercent;
+        this.cpuIowaitPercent = cpuIowaitPercent;
+        this.cpuPeakBusyPercent = cpuPeakBusyPercent;
+        this.memoryTotalBytes = memoryTotalBytes;
+        this.memoryPeakUsedBytes = memoryPeakUsedBytes;
+        this.diskReadBytes = diskReadBytes;
+        this.diskWriteBytes = diskWriteBytes;
+        this.sampleCount = sampleCount;
+    }
+
+    ResourceUsage withAgentName(String agentName) {
+        return new ResourceUsage(agentName, cpuCount, cpuBusyPercent, cpuIowaitPercent, cpuPeakBusyPercent,
+            memoryTotalBytes, memoryPeakUsedBytes, diskReadBytes, diskWriteBytes, sampleCount);
+    }
+
+    public String getAgentName() {
+        return agentName;
+    }
+
+    public int getCpuCount() {
+        return cpuCount;
+    }
+
+    /**
+     * @return Average CPU utilisation across all cores between stage start and end
+     */
+    public double getCpuBusyPercent() {
+        return cpuBusyPercent;
+    }
+
+    /**
+     * @return Average share of CPU time spent idle waiting for I/O
+     */
+    public double getCpuIowaitPercent() {
+        return cpuIowaitPercent;
+    }
+
+    /**
+     * @return Highest CPU utilisation between two consecutive samples
+     */
+    public double getCpuPeakBusyPercent() {
+        return cpuPeakBusyPercent;
+    }
+
+    public long getMemoryTotalBytes() {
+        return memoryTotalBytes;
+    }
+
+    public long getMemoryPeakUsedBytes() {
+        return memoryPeakUsedBytes;
+    }
+
+    public long getDiskReadBytes() {
+        return diskReadBytes;
+    }
+
+    public long getDiskWriteBytes() {
+        return diskWriteBytes;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+}
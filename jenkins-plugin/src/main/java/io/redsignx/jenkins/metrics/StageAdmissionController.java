@@ -0,0 +1,154 @@
+package io.redsignx.jenkins.metrics;
+
+import javax.annotation.CheckForNull;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Admission control for stage events, applied before any event is constructed.
+ * Each job and each run gets its own {@link TokenBucket}; once either is exhausted,
+ * only every Nth stage of the run is admitted as a sample and the rest are counted
+ * so a single summary event can be emitted when the run completes.
+ * <p>
+ * Admission takes no lock: buckets live in concurrent maps and are themselves lock-free.
+ * A bucket is rebuilt when a new configuration changes its burst or rate.
+ */
+public class StageAdmissionController {
+
+    private static final Logger LOGGER = Logger.getLogger(StageAdmissionController.class.getName());
+
+    // Beyond this many tracked jobs the least recently admitted are evicted
+    static final int MAX_TRACKED_JOBS = 10000;
+
+    public enum Decision {
+        /** Within both budgets */
+        ADMITTED,
+        /** Over budget, but kept as part of the sampled subset */
+        SAMPLED,
+        /** Over budget and dropped; only counted */
+        SUPPRESSED
+    }
+
+    private final BoundedRecencyMap<String, Budget> jobBudgets =
+        new BoundedRecencyMap<>(MAX_TRACKED_JOBS, budget -> budget.lastAdmitted, budget -> false);
+    private final Map<String, RunAdmission> runAdmissions = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+
+    public StageAdmissionController() {
+        this(System::nanoTime);
+    }
+
+    StageAdmissionController(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Decide whether a newly started stage should produce events.
+     * @param config Current listener settings
+     * @param jobFullName Full name of the job owning the run
+     * @param runId Unique ID of the run (job_full_name#build_number)
+     * @return The admission decision for this stage
+     */
+    public Decision admit(ListenerConfig config, String jobFullName, String runId) {
+        if (!config.isAdmissionControlEnabled()) {
+            return Decision.ADMITTED;
+        }
+
+        long now = clock.getAsLong();
+        Budget job = jobBudgets.computeIfAbsent(jobFullName, k -> new Budget(now));
+        job.lastAdmitted = now;
+        TokenBucket jobBucket = job.bucket(config, config.getJobStageBurst(), config.getJobStageRatePerSecond(), clock);
+        RunAdmission run = runAdmissions.computeIfAbsent(runId, k -> new RunAdmission());
+        TokenBucket runBucket = run.budget.bucket(config, config.getRunStageBurst(), config.getRunStageRatePerSecond(), clock);
+
+        if (runBucket.tryAcquire()) {
+            if (jobBucket.tryAcquire()) {
+                return Decision.ADMITTED;
+            }
+            // A token is only spent when both budgets allow the stage
+            runBucket.refund();
+        }
+
+        long throttled = run.throttled.getAndIncrement();
+        if (throttled == 0) {
+            LOGGER.warning("Stage rate limit exceeded for " + runId + ", switching to sampled stage events");
+        }
+        if (throttled % config.getThrottledStageSampleInterval() == 0) {
+            run.sampled.incrementAndGet();
+            return Decision.SAMPLED;
+        }
+        run.suppressed.incrementAndGet();
+        return Decision.SUPPRESSED;
+    }
+
+    /**
+     * Release the per-run state once the run has finished.
+     * @param runId Unique ID of the run
+     * @return Throttling counters for the run, or null if the run was never throttled
+     */
+    @CheckForNull
+    public RunAdmission completeRun(String runId) {
+        RunAdmission run = runAdmissions.remove(runId);
+        if (run == null || run.throttled.get() == 0) {
+            return null;
+        }
+        return run;
+    }
+
+    int getTrackedJobCount() {
+        return jobBudgets.size();
+    }
+
+    /**
+     * A token bucket tuned to the configuration version it was last used with.
+     */
+    private static final class Budget {
+        private volatile TokenBucket bucket;
+        private volatile long version = -1;
+        private int burst;
+        private int ratePerSecond;
+        volatile long lastAdmitted;
+
+        Budget(long lastAdmitted) {
+            this.lastAdmitted = lastAdmitted;
+        }
+
+        TokenBucket bucket(ListenerConfig config, int burst, int ratePerSecond, LongSupplier clock) {
+            if (version != config.getVersion()) {
+                synchronized (this) {
+                    if (version != config.getVersion()) {
+                        // Other settings changing keeps the tokens already spent
+                        if (bucket == null || this.burst != burst || this.ratePerSecond != ratePerSecond) {
+                            bucket = new TokenBucket(burst, ratePerSecond, clock);
+                            this.burst = burst;
+                            this.ratePerSecond = ratePerSecond;
+                        }
+                        version = config.getVersion();
+                    }
+                }
+            }
+            return bucket;
+        }
+    }
+
+    /**
+     * Per-run admission state.
+     */
+    public static final class RunAdmission {
+        private final Budget budget = new Budget(0);
+        private final AtomicLong throttled = new AtomicLong();
+        private final AtomicLong sampled = new AtomicLong();
+        private final AtomicLong suppressed = new AtomicLong();
+
+        public long getSampledCount() {
+            return sampled.get();
+        }
+
+        public long getSuppressedCount() {
+            return suppressed.get();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package io.redsignx.jenkins.metrics;
+
+/**
+ * Duration baseline of one stage of one job and branch, updated incrementally from each
+ * successful stage end. Holds an exponentially weighted mean and variance plus P² estimates
+ * of the median and 90th percentile.
+ */
+final class StageBaseline {
+
+    // Weight of a new duration once the baseline has warmed up
+    static final double ALPHA = 0.1;
+
+    private final String job;
+    private final String branch;
+    private final String stage;
+    private long count;
+    private double mean;
+    private double variance;
+    private final P2Quantile p50 = new P2Quantile(0.5);
+    private final P2Quantile p90 = new P2Quantile(0.9);
+    private long lastUpdated;
+
+    StageBaseline(String job, String branch, String stage) {
+        this.job = job;
+        this.branch = branch;
+        this.stage = stage;
+    }
+
+    void add(long durationMs, long now) {
+        // Plain running average until 1/ALPHA samples are in, so the first duration does not dominate
+        double alpha = Math.max(ALPHA, 1.0 / (count + 1));
+        double diff = durationMs - mean;
+        double increment = alpha * diff;
+        mean += increment;
+        variance = (1 - alpha) * (variance + diff * increment);
+        p50.add(durationMs);
+        p90.add(durationMs);
+        count++;
+        lastUpdated = now;
+    }
+
+    String getKey() {
+        return key(job, branch, stage);
+    }
+
+    static String key(String job, String branch, String stage) {
+        return job + '\u0000' + branch + '\u0000' + stage;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    double getMean() {
+        return mean;
+    }
+
+    double getStdDev() {
+        return Math.sqrt(variance);
+    }
+
+    double getP50() {
+        return p50.get();
+    }
+
+    double getP90() {
+        return p90.get();
+    }
+
+    long getLastUpdated() {
+        return lastUpdated;
+    }
+}
@@ -0,0 +1,280 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stage duration baselines kept on the controller, keyed by job, branch and stage name.
+ * The least recently updated baselines are dropped once the configured limit is reached.
+ * Baselines are written to a JSON file under {@code JENKINS_HOME} at most once a minute,
+ * and only if something changed. The file is read on the store's own thread; until then the
+ * store starts from empty and saves nothing, and stages recorded meanwhile are kept on top of it.
+ */
+public class StageBaselineStore {
+
+    private static final Logger LOGGER = Logger.getLogger(StageBaselineStore.class.getName());
+
+    static final String FILE_NAME = "io.redsignx.jenkins.metrics.StageBaselines.json";
+    private static final long SAVE_INTERVAL_SECONDS = 60;
+    private static final Type LIST_TYPE = new TypeToken<List<StageBaseline>>() { }.getType();
+
+    // A regression needs a warmed-up baseline and has to stand out from the stage's usual noise
+    static final int MIN_SAMPLES = 10;
+    static final double MIN_Z_SCORE = 3;
+    static final long MIN_REGRESSION_MS = 1000;
+
+    private static StageBaselineStore instance;
+
+    private final File file;
+    private final Gson gson = new Gson();
+    private final LinkedHashMap<String, StageBaseline> baselines = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxEntries;
+    private boolean dirty;
+    private boolean loaded;
+    private ScheduledExecutorService scheduler;
+
+    StageBaselineStore(File file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    public static synchronized StageBaselineStore getInstance() {
+        if (instance == null) {
+            instance = new StageBaselineStore(new File(Jenkins.get().getRootDir(), FILE_NAME),
+                PipelineMetricsConfiguration.listenerSnapshot().getMaxStageBaselines());
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Start reading the baselines at startup rather than on the first stage end, which runs on the Pipeline thread.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void loadOnStartup() {
+        PipelineMetricsConfiguration config = PipelineMetricsConfiguration.get();
+        if (config != null && config.isStageBaselinesEnabled()) {
+            getInstance();
+        }
+    }
+
+    @Terminator
+    public static synchronized void saveOnShutdown() {
+        if (instance != null) {
+            instance.shutdown();
+        }
+    }
+
+    private void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "PipelineMetrics.StageBaselineStore"));
+        scheduler.execute(this::load);
+        scheduler.scheduleWithFixedDelay(this::saveIfDirty,
+            SAVE_INTERVAL_SECONDS, SAVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        saveIfDirty();
+    }
+
+    /**
+     * Compare a successful stage against its baseline, then fold its duration into the baseline.
+     * @param factor How many times the baseline mean the duration has to reach to count as a regression
+     * @return The regression, or null if the stage was within its baseline or the baseline is still warming up
+     */
+    @CheckForNull
+    public synchronized Regression record(String job, String branch, String stage, long durationMs,
+                                          double factor, long now) {
+        String key = StageBaseline.key(job, branch != null ? branch : "", stage);
+        StageBaseline baseline = baselines.get(key);
+        if (baseline == null) {
+            baseline = new StageBaseline(job, branch != null ? branch : "", stage);
+            baselines.put(key, baseline);
+            trim();
+        }
+
+        Regression regression = null;
+        if (baseline.getCount() >= MIN_SAMPLES) {
+            double mean = baseline.getMean();
+            double stdDev = baseline.getStdDev();
+            double zScore = stdDev > 0 ? (durationMs - mean) / stdDev : Double.POSITIVE_INFINITY;
+            if (durationMs >= factor * mean && zScore >= MIN_Z_SCORE && durationMs - mean >= MIN_REGRESSION_MS) {
+                regression = new Regression(baseline, durationMs, zScore);
+            }
+        }
+
+        baseline.add(durationMs, now);
+        dirty = true;
+        return regression;
+    }
+
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+        trim();
+    }
+
+    synchronized int size() {
+        return baselines.size();
+    }
+
+    @CheckForNull
+    synchronized StageBaseline get(String job, String branch, String stage) {
+        return baselines.get(StageBaseline.key(job, branch, stage));
+    }
+
+    private void trim() {
+        Iterator<StageBaseline> eldest = baselines.values().iterator();
+        while (baselines.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            dirty = true;
+        }
+    }
+
+    void load() {
+        List<StageBaseline> saved = null;
+        if (file.isFile()) {
+            try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                saved = gson.fromJson(reader, LIST_TYPE);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to load stage baselines from " + file + ", starting empty", e);
+            }
+        }
+        synchronized (this) {
+            if (saved != null && !saved.isEmpty()) {
+                // Baselines recorded before the file was read are newer than the saved ones
+                Map<String, StageBaseline> recorded = new LinkedHashMap<>(baselines);
+                baselines.clear();
+                // Saved least recently used first, so reinserting restores the LRU order
+                for (StageBaseline baseline : saved) {
+                    if (!recorded.containsKey(baseline.getKey())) {
+                        baselines.put(baseline.getKey(), baseline);
+                    }
+                }
+                baselines.putAll(recorded);
+                trim();
+            }
+            loaded = true;
+            LOGGER.fine("Loaded " + baselines.size() + " stage baselines");
+        }
+    }
+
+    synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    void saveIfDirty() {
+        String json;
+        synchronized (this) {
+            // Saving before the file was read would overwrite it with the few baselines recorded since startup
+            if (!dirty || !loaded) {
+                return;
+            }
+            json = gson.toJson(new ArrayList<>(baselines.values()), LIST_TYPE);
+            dirty = false;
+        }
+        try {
+            // Write next to the target and rename, so a crash never leaves a truncated file
+            Path target = file.toPath();
+            Path temp = target.resolveSibling(file.getName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(json);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            LOGGER.log(Level.WARNING, "Failed to save stage baselines to " + file, e);
+        }
+    }
+
+    /**
+     * A stage that took significantly longer than its baseline. Holds the baseline as it was
+     * before the regressing duration was added.
+     */
+    public static final class Regression {
+        private final long durationMs;
+        private final long sampleCount;
+        private final double mean;
+        private final double stdDev;
+        private final double p50;
+        private final double p90;
+        private final double zScore;
+
+        Regression(StageBaseline baseline, long durationMs, double zScore) {
+            this.durationMs = durationMs;
+            this.sampleCount = baseline.getCount();
+            this.mean = baseline.getMean();
+            this.stdDev = baseline.getStdDev();
+            this.p50 = baseline.getP50();
+            this.p90 = baseline.getP90();
+            this.zScore = zScore;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public long getSampleCount() {
+            return sampleCount;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getStdDev() {
+            return stdDev;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP90() {
+            return p90;
+        }
+
+        /**
+         * @return Standard deviations above the mean, infinite if the baseline never varied
+         */
+        public double getZScore() {
+            return zScore;
+        }
+
+        public double getRatio() {
+            return mean > 0 ? durationMs / mean : Double.POSITIVE_INFINITY;
+        }
+    }
+}
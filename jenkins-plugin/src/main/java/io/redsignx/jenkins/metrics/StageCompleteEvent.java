@@ -0,0 +1,28 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Event emitted instead of a stage_start/stage_end pair when a stage ends
+ * within the coalescing grace period.
+ */
+public class StageCompleteEvent extends StageEndEvent {
+    
+    @SerializedName("start_timestamp")
+    private final long startTimestamp;
+    
+    public StageCompleteEvent(String stageId, String stageName,
+                             String jobFullName, int buildNumber, String buildUrl,
+                             String branchName, String changeId, String changeTarget,
+                             String nodeId, long startTimestamp, long timestamp,
+                             String status, String result, long durationMs, String errorMessage) {
+        super("stage_complete", stageId, stageName, jobFullName, buildNumber, buildUrl,
+              branchName, changeId, changeTarget, nodeId, timestamp, status, result,
+              durationMs, errorMessage);
+        this.startTimestamp = startTimestamp;
+    }
+    
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+}
@@ -0,0 +1,339 @@
+package io.redsignx.jenkins.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stage graph of a single flow execution, maintained incrementally as stages start and end.
+ * <p>
+ * When a stage starts it records the sibling that ended most recently as its predecessor,
+ * and when it ends it becomes its parent's most recently ended child. Walking these links
+ * backwards from the last stage to end yields the critical path in time proportional to its
+ * length, without re-sorting or re-scanning the events of the build.
+ * <p>
+ * Siblings can also run in different branches of a {@code parallel} step between them and
+ * their parent, as top-level stages do in scripted Pipelines. A stage never follows a sibling
+ * from another branch of the same parallel step: it follows the last sibling to end within its
+ * own branch, or else the stage its parallel step followed when its first stage started.
+ * <p>
+ * Only the first {@link #MAX_STAGES} stages of a run are tracked. Later stages, and so their
+ * children, are counted but left out of the analysis.
+ */
+public class StageDag {
+
+    // Keeps a runaway generated Pipeline from holding an unbounded graph until it ends
+    static final int MAX_STAGES = 5000;
+
+    private final StageNode root = new StageNode(null, null, null, 0);
+    private final Map<String, StageNode> nodes = new HashMap<>();
+    private final int maxStages;
+    private int untrackedStages;
+
+    public StageDag() {
+        this(MAX_STAGES);
+    }
+
+    StageDag(int maxStages) {
+        this.maxStages = maxStages;
+    }
+
+    /**
+     * Record a stage start.
+     * @param nodeId FlowNode ID of the stage
+     * @param parentNodeId FlowNode ID of the enclosing stage, or null for top-level stages
+     * @param name Stage display name
+     * @param timestamp Start time in milliseconds
+     */
+    public void onStageStart(String nodeId, String parentNodeId, String name, long timestamp) {
+        onStageStart(nodeId, parentNodeId, Collections.emptyList(), name, timestamp);
+    }
+
+    /**
+     * Record a stage start.
+     * @param nodeId FlowNode ID of the stage
+     * @param parentNodeId FlowNode ID of the enclosing stage, or null for top-level stages
+     * @param branches Parallel branches between the stage and its parent, innermost first
+     * @param name Stage display name
+     * @param timestamp Start time in milliseconds
+     */
+    public synchronized void onStageStart(String nodeId, String parentNodeId, List<Branch> branches,
+                                          String name, long timestamp) {
+        if (nodes.size() >= maxStages) {
+            untrackedStages++;
+            return;
+        }
+        StageNode parent = parentNodeId != null ? nodes.getOrDefault(parentNodeId, root) : root;
+        StageNode node = new StageNode(nodeId, name, parent, timestamp);
+        node.branches = branches;
+        node.predecessor = parent.lastEndedChild;
+        // Outermost parallel first, each one follows what its enclosing branch had ended when it started
+        for (int i = branches.size() - 1; i >= 0; i--) {
+            Branch branch = branches.get(i);
+            if (!parent.parallelEntries.containsKey(branch.parallelNodeId)) {
+                parent.parallelEntries.put(branch.parallelNodeId, node.predecessor);
+            }
+            StageNode lastEnded = parent.lastEndedInBranch.get(branch.branchNodeId);
+            node.predecessor = lastEnded != null ? lastEnded : parent.parallelEntries.get(branch.parallelNodeId);
+        }
+        if (node.predecessor != null) {
+            node.predecessor.successors.add(node);
+        }
+        parent.children.add(node);
+        nodes.put(nodeId, node);
+    }
+
+    /**
+     * Record a stage end.
+     * @param nodeId FlowNode ID of the stage start node
+     * @param timestamp End time in milliseconds
+     */
+    public synchronized void onStageEnd(String nodeId, long timestamp) {
+        StageNode node = nodes.get(nodeId);
+        if (node == null || node.end >= 0) {
+            return;
+        }
+        node.end = timestamp;
+        node.parent.lastEndedChild = node;
+        for (Branch branch : node.branches) {
+            node.parent.lastEndedInBranch.put(branch.branchNodeId, node);
+        }
+    }
+
+    /**
+     * @return Stages started, including those past the tracking limit
+     */
+    public synchronized int getStageCount() {
+        return nodes.size() + untrackedStages;
+    }
+
+    /**
+     * Compute the critical path, branch slack and parallelism of all stages that have ended.
+     * @param buildStart Build start time in milliseconds
+     * @param buildEnd Build end time in milliseconds
+     * @return The analysis result
+     */
+    public synchronized Analysis analyze(long buildStart, long buildEnd) {
+        Analysis analysis = new Analysis();
+        analysis.totalDurationMs = Math.max(0, buildEnd - buildStart);
+
+        List<StageNode> path = new ArrayList<>();
+        List<StageNode> slackCandidates = new ArrayList<>();
+        collectCriticalPath(root, path, slackCandidates);
+        for (StageNode node : path) {
+            analysis.criticalPath.add(node);
+            analysis.criticalPathDurationMs += node.duration();
+        }
+
+        slackCandidates.sort(Comparator.comparingLong((StageNode n) -> n.slackMs).reversed());
+        analysis.branchSlack.addAll(slackCandidates);
+
+        computeParallelism(analysis);
+        return analysis;
+    }
+
+    /**
+     * Append the critical leaf stages of a scope to the path, in execution order,
+     * and compute the slack of the other stages in the scope.
+     */
+    private void collectCriticalPath(StageNode scope, List<StageNode> path, List<StageNode> slackCandidates) {
+        List<StageNode> chain = new ArrayList<>();
+        for (StageNode node = scope.lastEndedChild; node != null; node = node.predecessor) {
+            node.critical = true;
+            chain.add(node);
+        }
+        if (chain.isEmpty()) {
+            return;
+        }
+        Collections.reverse(chain);
+        long scopeEnd = scope == root ? scope.lastEndedChild.end : scope.end;
+
+        // Successors end after their predecessors, so walking backwards settles them first
+        List<StageNode> ended = new ArrayList<>();
+        for (StageNode child : scope.children) {
+            if (child.end >= 0) {
+                ended.add(child);
+            }
+        }
+        ended.sort(Comparator.comparingLong((StageNode n) -> n.end).thenComparingLong(n -> n.start).reversed());
+        for (StageNode child : ended) {
+            if (child.critical) {
+                child.latestEnd = child.end;
+                continue;
+            }
+            long latestEnd = scopeEnd;
+            for (StageNode successor : child.successors) {
+                long latestStart = successor.end >= 0 ? successor.latestEnd - successor.duration() : successor.start;
+                latestEnd = Math.min(latestEnd, latestStart);
+            }
+            child.latestEnd = latestEnd;
+            child.slackMs = Math.max(0, latestEnd - child.end);
+            slackCandidates.add(child);
+        }
+
+        for (StageNode node : chain) {
+            if (node.lastEndedChild != null) {
+                collectCriticalPath(node, path, slackCandidates);
+            } else {
+                path.add(node);
+            }
+        }
+    }
+
+    private void computeParallelism(Analysis analysis) {
+        List<long[]> boundaries = new ArrayList<>();
+        for (StageNode node : nodes.values()) {
+            if (node.end >= 0 && node.children.isEmpty()) {
+                analysis.stageTimeMs += node.duration();
+                boundaries.add(new long[] {node.start, 1});
+                boundaries.add(new long[] {node.end, -1});
+            }
+        }
+        // Process ends before starts at the same instant so back-to-back stages do not overlap
+        boundaries.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        int running = 0;
+        for (long[] boundary : boundaries) {
+            running += (int) boundary[1];
+            analysis.maxParallelism = Math.max(analysis.maxParallelism, running);
+        }
+        if (analysis.totalDurationMs > 0) {
+            analysis.averageParallelism = (double) analysis.stageTimeMs / analysis.totalDurationMs;
+        }
+        if (analysis.maxParallelism > 0) {
+            analysis.parallelismEfficiency = analysis.averageParallelism / analysis.maxParallelism;
+        }
+    }
+
+    /**
+     * A stage in the graph.
+     */
+    public static final class StageNode {
+        private final String nodeId;
+        private final String name;
+        private final StageNode parent;
+        private final long start;
+        private long end = -1;
+        private final List<StageNode> children = new ArrayList<>();
+        private final List<StageNode> successors = new ArrayList<>();
+        private List<Branch> branches = Collections.emptyList();
+        private StageNode predecessor;
+        private StageNode lastEndedChild;
+        // Of the children: last to end within each branch, and what each parallel step followed
+        private final Map<String, StageNode> lastEndedInBranch = new HashMap<>();
+        private final Map<String, StageNode> parallelEntries = new HashMap<>();
+        private boolean critical;
+        private long latestEnd;
+        private long slackMs;
+
+        StageNode(String nodeId, String name, StageNode parent, long start) {
+            this.nodeId = nodeId;
+            this.name = name;
+            this.parent = parent;
+            this.start = start;
+        }
+
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long duration() {
+            return end >= 0 ? end - start : 0;
+        }
+
+        /**
+         * @return How much longer this branch could have run without delaying the build
+         */
+        public long getSlackMs() {
+            return slackMs;
+        }
+    }
+
+    /**
+     * A branch of a {@code parallel} step.
+     */
+    public static final class Branch {
+        private final String parallelNodeId;
+        private final String branchNodeId;
+
+        /**
+         * @param parallelNodeId FlowNode ID of the parallel step start
+         * @param branchNodeId FlowNode ID of the branch start
+         */
+        public Branch(String parallelNodeId, String branchNodeId) {
+            this.parallelNodeId = parallelNodeId;
+            this.branchNodeId = branchNodeId;
+        }
+    }
+
+    /**
+     * Result of {@link #analyze(long, long)}.
+     */
+    public static final class Analysis {
+        private long totalDurationMs;
+        private long criticalPathDurationMs;
+        private long stageTimeMs;
+        private int maxParallelism;
+        private double averageParallelism;
+        private double parallelismEfficiency;
+        private final List<StageNode> criticalPath = new ArrayList<>();
+        private final List<StageNode> branchSlack = new ArrayList<>();
+
+        public long getTotalDurationMs() {
+            return totalDurationMs;
+        }
+
+        public long getCriticalPathDurationMs() {
+            return criticalPathDurationMs;
+        }
+
+        /**
+         * @return Sum of the durations of all leaf stages
+         */
+        public long getStageTimeMs() {
+            return stageTimeMs;
+        }
+
+        public int getMaxParallelism() {
+            return maxParallelism;
+        }
+
+        /**
+         * @return Leaf stage time divided by build duration
+         */
+        public double getAverageParallelism() {
+            return averageParallelism;
+        }
+
+        /**
+         * @return Average parallelism divided by peak parallelism, 1.0 when all parallel slots stay busy
+         */
+        public double getParallelismEfficiency() {
+            return parallelismEfficiency;
+        }
+
+        /**
+         * @return Leaf stages on the critical path, in execution order
+         */
+        public List<StageNode> getCriticalPath() {
+            return criticalPath;
+        }
+
+        /**
+         * @return Stages off the critical path within the scopes it passes through, largest slack first
+         */
+        public List<StageNode> getBranchSlack() {
+            return branchSlack;
+        }
+    }
+}
@@ -28,7 +28,17 @@ public class StageEndEvent extends MetricEvent {
                         String branchName, String changeId, String changeTarget,
                         String nodeId, long timestamp, String status, String result,
                         long durationMs, String errorMessage) {
-        super("stage_end", stageId, stageName, jobFullName, buildNumber, buildUrl,
+        this("stage_end", stageId, stageName, jobFullName, buildNumber, buildUrl,
+             branchName, changeId, changeTarget, nodeId, timestamp, status, result,
+             durationMs, errorMessage);
+    }
+    
+    protected StageEndEvent(String eventType, String stageId, String stageName,
+                           String jobFullName, int buildNumber, String buildUrl,
+                           String branchName, String changeId, String changeTarget,
+                           String nodeId, long timestamp, String status, String result,
+                           long durationMs, String errorMessage) {
+        super(eventType, stageId, stageName, jobFullName, buildNumber, buildUrl,
               branchName, changeId, changeTarget, nodeId, timestamp);
         this.status = status;
         this.result = result;
@@ -0,0 +1,135 @@
+package io.redsignx.jenkins.metrics;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Holds stage_start events for a grace period so short stages can be reported
+ * as a single stage_complete event. A held start is released to delivery when
+ * the grace period expires; whichever of release and stage end claims the
+ * pending entry first decides which flow the stage takes. A release claims and
+ * emits under the entry's lock, so a stage end racing it waits until the
+ * stage_start has been handed to delivery before its stage_end is queued.
+ * Events of the stage itself, such as step_end, flush the held start first,
+ * so they never reach delivery ahead of it.
+ */
+public class StageEventCoalescer {
+
+    private static final Logger LOGGER = Logger.getLogger(StageEventCoalescer.class.getName());
+
+    private final Map<String, PendingStart> pendingStarts = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Consumer<MetricEvent> sink;
+
+    public StageEventCoalescer() {
+        this(Executors.newSingleThreadScheduledExecutor(
+                new NamingThreadFactory(new DaemonThreadFactory(), "PipelineMetrics.StageEventCoalescer")),
+             event -> MetricDeliveryService.getInstance().queueEvent(event));
+    }
+
+    StageEventCoalescer(ScheduledExecutorService scheduler, Consumer<MetricEvent> sink) {
+        this.scheduler = scheduler;
+        this.sink = sink;
+    }
+
+    /**
+     * Hold a stage_start event until the grace period expires or the stage ends.
+     * @param event The start event to hold
+     * @param graceMillis How long to wait before releasing the event on its own
+     */
+    public void hold(StageStartEvent event, long graceMillis) {
+        String stageId = event.getStageId();
+        PendingStart pending = new PendingStart(event);
+        pendingStarts.put(stageId, pending);
+        pending.release = scheduler.schedule(() -> {
+            if (release(stageId, pending)) {
+                LOGGER.fine("Grace period expired, released stage_start event for stage: " + pending.event.getStageName());
+            }
+        }, graceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Claim a held stage_start for a stage that just ended.
+     * @param stageId The stage ID
+     * @return true if the start event was still held and has been discarded,
+     *         meaning the caller should emit a stage_complete event instead of stage_end
+     */
+    public boolean complete(String stageId) {
+        PendingStart pending = pendingStarts.get(stageId);
+        if (pending == null) {
+            return false;
+        }
+        synchronized (pending) {
+            pendingStarts.remove(stageId, pending);
+            if (pending.claimed) {
+                // Released while the stage ran, and the start is already queued
+                return false;
+            }
+            pending.claimed = true;
+        }
+        ScheduledFuture<?> release = pending.release;
+        if (release != null) {
+            release.cancel(false);
+        }
+        return true;
+    }
+
+    /**
+     * Release a held stage_start at once, because an event of that stage is about to be queued.
+     * The stage then ends with a stage_end event. Does nothing if the start is not held.
+     * @param stageId The stage ID
+     */
+    public void flush(String stageId) {
+        PendingStart pending = pendingStarts.get(stageId);
+        if (pending == null) {
+            return;
+        }
+        if (release(stageId, pending)) {
+            ScheduledFuture<?> release = pending.release;
+            if (release != null) {
+                release.cancel(false);
+            }
+            LOGGER.fine("Flushed stage_start event ahead of an event of stage: " + pending.event.getStageName());
+        }
+    }
+
+    int getPendingCount() {
+        return pendingStarts.size();
+    }
+
+    /**
+     * @return true if this call emitted the start, false if it was already claimed
+     */
+    private boolean release(String stageId, PendingStart pending) {
+        synchronized (pending) {
+            if (pending.claimed) {
+                return false;
+            }
+            pending.claimed = true;
+            // Still in the map until emitted, so a stage end arriving meanwhile waits on the lock
+            sink.accept(pending.event);
+            pendingStarts.remove(stageId, pending);
+        }
+        return true;
+    }
+
+    private static final class PendingStart {
+        final StageStartEvent event;
+        volatile ScheduledFuture<?> release;
+        // Set by whichever of release, flush and stage end gets the stage, guarded by this
+        boolean claimed;
+
+        PendingStart(StageStartEvent event) {
+            this.event = event;
+        }
+    }
+}
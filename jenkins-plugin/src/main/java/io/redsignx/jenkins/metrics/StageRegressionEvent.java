@@ -0,0 +1,109 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.annotations.SerializedName;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Event emitted when a successful stage took significantly longer than its baseline
+ * for the same job, branch and stage name. Follows the stage's {@code stage_end} event.
+ */
+public class StageRegressionEvent extends MetricEvent {
+
+    @SerializedName("duration_ms")
+    private final long durationMs;
+
+    @SerializedName("baseline_mean_ms")
+    private final long baselineMeanMs;
+
+    @SerializedName("baseline_stddev_ms")
+    private final long baselineStdDevMs;
+
+    @SerializedName("baseline_p50_ms")
+    private final long baselineP50Ms;
+
+    @SerializedName("baseline_p90_ms")
+    private final long baselineP90Ms;
+
+    @SerializedName("baseline_sample_count")
+    private final long baselineSampleCount;
+
+    @SerializedName("duration_ratio")
+    @CheckForNull
+    private final Double durationRatio;
+
+    @SerializedName("z_score")
+    @CheckForNull
+    private final Double zScore;
+
+    @SerializedName("regression_factor")
+    private final double regressionFactor;
+
+    public StageRegressionEvent(String stageId, String stageName,
+                                String jobFullName, int buildNumber, String buildUrl,
+                                String branchName, String changeId, String changeTarget,
+                                String nodeId, long timestamp,
+                                StageBaselineStore.Regression regression, double regressionFactor) {
+        super("stage_regression", stageId, stageName, jobFullName, buildNumber, buildUrl,
+              branchName, changeId, changeTarget, nodeId, timestamp);
+        this.durationMs = regression.getDurationMs();
+        this.baselineMeanMs = Math.round(regression.getMean());
+        this.baselineStdDevMs = Math.round(regression.getStdDev());
+        this.baselineP50Ms = Math.round(regression.getP50());
+        this.baselineP90Ms = Math.round(regression.getP90());
+        this.baselineSampleCount = regression.getSampleCount();
+        // JSON has no infinity, a baseline without any spread leaves these out
+        this.durationRatio = finiteOrNull(regression.getRatio());
+        this.zScore = finiteOrNull(regression.getZScore());
+        this.regressionFactor = regressionFactor;
+    }
+
+    @CheckForNull
+    private static Double finiteOrNull(double value) {
+        return Double.isFinite(value) ? value : null;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public long getBaselineMeanMs() {
+        return baselineMeanMs;
+    }
+
+    public long getBaselineStdDevMs() {
+        return baselineStdDevMs;
+    }
+
+    public long getBaselineP50Ms() {
+        return baselineP50Ms;
+    }
+
+    public long getBaselineP90Ms() {
+        return baselineP90Ms;
+    }
+
+    public long getBaselineSampleCount() {
+        return baselineSampleCount;
+    }
+
+    /**
+     * @return Duration divided by the baseline mean, or null if the mean is zero
+     */
+    @CheckForNull
+    public Double getDurationRatio() {
+        return durationRatio;
+    }
+
+    /**
+     * @return Standard deviations above the baseline mean, or null if the baseline never varied
+     */
+    @CheckForNull
+    public Double getZScore() {
+        return zScore;
+    }
+
+    public double getRegressionFactor() {
+        return regressionFactor;
+    }
+}
@@ -0,0 +1,29 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Event carrying the agent resource usage of a stage. Sent once the agent has answered,
+ * so it can follow later events of the build; the stage's {@code stage_end} is never held back for it.
+ * The usage is not a field of {@link StageEndEvent} because the agent may take up to
+ * {@link AgentResourceMonitor#STOP_TIMEOUT_SECONDS} seconds to answer, and holding the stage end
+ * that long would reorder it behind the next stages and {@code build_summary}.
+ */
+public class StageResourceUsageEvent extends MetricEvent {
+
+    @SerializedName("resource_usage")
+    private final ResourceUsage resourceUsage;
+
+    public StageResourceUsageEvent(String stageId, String stageName,
+                                   String jobFullName, int buildNumber, String buildUrl,
+                                   String branchName, String changeId, String changeTarget,
+                                   String nodeId, long timestamp, ResourceUsage resourceUsage) {
+        super("stage_resource_usage", stageId, stageName, jobFullName, buildNumber, buildUrl,
+              branchName, changeId, changeTarget, nodeId, timestamp);
+        this.resourceUsage = resourceUsage;
+    }
+
+    public ResourceUsage getResourceUsage() {
+        return resourceUsage;
+    }
+}
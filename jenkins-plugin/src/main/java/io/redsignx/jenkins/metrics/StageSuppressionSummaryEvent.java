@@ -0,0 +1,41 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Event emitted once per run when stage admission control suppressed stage events.
+ */
+public class StageSuppressionSummaryEvent extends MetricEvent {
+
+    @SerializedName("suppressed_stage_count")
+    private final long suppressedStageCount;
+
+    @SerializedName("sampled_stage_count")
+    private final long sampledStageCount;
+
+    @SerializedName("sample_interval")
+    private final int sampleInterval;
+
+    public StageSuppressionSummaryEvent(String jobFullName, int buildNumber, String buildUrl,
+                                        String branchName, String changeId, String changeTarget,
+                                        long timestamp, long suppressedStageCount,
+                                        long sampledStageCount, int sampleInterval) {
+        super("stage_suppression_summary", jobFullName, buildNumber, buildUrl,
+              branchName, changeId, changeTarget, timestamp);
+        this.suppressedStageCount = suppressedStageCount;
+        this.sampledStageCount = sampledStageCount;
+        this.sampleInterval = sampleInterval;
+    }
+
+    public long getSuppressedStageCount() {
+        return suppressedStageCount;
+    }
+
+    public long getSampledStageCount() {
+        return sampledStageCount;
+    }
+
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+}
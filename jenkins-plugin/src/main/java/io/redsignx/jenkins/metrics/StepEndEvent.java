@@ -0,0 +1,83 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.annotations.SerializedName;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Event emitted when a sampled step inside a stage ends.
+ * The stage fields identify the enclosing stage and {@code node_id} the step's FlowNode.
+ */
+public class StepEndEvent extends MetricEvent {
+
+    @SerializedName("step_type")
+    private final String stepType;
+
+    @SerializedName("start_timestamp")
+    private final long startTimestamp;
+
+    @SerializedName("status")
+    private final String status;
+
+    @SerializedName("duration_ms")
+    private final long durationMs;
+
+    @SerializedName("error_message")
+    @CheckForNull
+    private final String errorMessage;
+
+    @SerializedName("sample_reason")
+    private final String sampleReason;
+
+    @SerializedName("sample_weight")
+    private final int sampleWeight;
+
+    public StepEndEvent(String stageId, String stageName,
+                        String jobFullName, int buildNumber, String buildUrl,
+                        String branchName, String changeId, String changeTarget,
+                        String nodeId, long timestamp, String stepType, long startTimestamp,
+                        String status, long durationMs, String errorMessage,
+                        StepSampler.Reason sampleReason, int sampleWeight) {
+        super("step_end", stageId, stageName, jobFullName, buildNumber, buildUrl,
+              branchName, changeId, changeTarget, nodeId, timestamp);
+        this.stepType = stepType;
+        this.startTimestamp = startTimestamp;
+        this.status = status;
+        this.durationMs = durationMs;
+        this.errorMessage = errorMessage;
+        this.sampleReason = sampleReason.name();
+        this.sampleWeight = sampleWeight;
+    }
+
+    public String getStepType() {
+        return stepType;
+    }
+
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    @CheckForNull
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public String getSampleReason() {
+        return sampleReason;
+    }
+
+    /**
+     * @return Number of steps this event stands for, 1 unless it is a sampled fast step
+     */
+    public int getSampleWeight() {
+        return sampleWeight;
+    }
+}
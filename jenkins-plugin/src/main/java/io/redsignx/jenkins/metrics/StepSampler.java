@@ -0,0 +1,154 @@
+package io.redsignx.jenkins.metrics;
+
+import javax.annotation.CheckForNull;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Adaptive sampling for step events.
+ * Failed steps and slow steps are always kept. A step is slow when it exceeds the
+ * configured absolute threshold or takes more than {@link #SLOW_FACTOR} times the moving
+ * average of the same step type in the same job. Of the remaining fast steps only every
+ * Nth is kept, and carries a sample weight of N so totals can be extrapolated.
+ */
+public class StepSampler {
+
+    static final double SLOW_FACTOR = 2.0;
+    private static final double EWMA_ALPHA = 0.2;
+    // Jitter on very short steps easily doubles them, so they are never slow relative to their average
+    static final long MIN_RELATIVE_SLOW_MS = 1000;
+
+    // Beyond this many, statistics idle for longer than IDLE_NANOS are evicted,
+    // then the least recently seen if all are still in use
+    static final int MAX_TRACKED_STEP_TYPES = 10000;
+    private static final long IDLE_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    public enum Reason {
+        /** The step failed */
+        FAILED,
+        /** The step was slow for its type */
+        SLOW,
+        /** The step was fast and kept as part of the sampled subset */
+        SAMPLED
+    }
+
+    private final BoundedRecencyMap<String, StepStats> stats;
+    private final LongSupplier clock;
+
+    public StepSampler() {
+        this(System::nanoTime);
+    }
+
+    StepSampler(LongSupplier clock) {
+        this.clock = clock;
+        this.stats = new BoundedRecencyMap<>(MAX_TRACKED_STEP_TYPES, s -> s.lastSeenNanos,
+            s -> s.isIdle(clock.getAsLong()));
+    }
+
+    /**
+     * Look up a step type in the configured allowlist.
+     * @param config Current listener settings, with the allowlist already parsed
+     * @param stepType Step function name, e.g. {@code sh}
+     * @return Sample interval for fast steps of this type, or 0 if the type is not allowlisted
+     */
+    public int sampleInterval(ListenerConfig config, String stepType) {
+        Map<String, Integer> intervals = config.getStepTypeIntervals();
+        if (intervals.isEmpty()) {
+            return config.getFastStepSampleInterval();
+        }
+        Integer interval = intervals.get(stepType);
+        if (interval == null) {
+            return 0;
+        }
+        return interval > 0 ? interval : config.getFastStepSampleInterval();
+    }
+
+    /**
+     * Parse an allowlist with one step type per line or comma, optionally followed by
+     * {@code =N} to override the fast step sample interval for that type.
+     * @return Sample interval by step type, 0 meaning the default interval
+     */
+    static Map<String, Integer> parseAllowlist(@CheckForNull String source) {
+        if (source == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Integer> intervals = new HashMap<>();
+        for (String entry : source.split("[,\\s]+")) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int separator = entry.indexOf('=');
+            if (separator < 0) {
+                intervals.put(entry, 0);
+                continue;
+            }
+            try {
+                intervals.put(entry.substring(0, separator), Math.max(1, Integer.parseInt(entry.substring(separator + 1))));
+            } catch (NumberFormatException e) {
+                intervals.put(entry.substring(0, separator), 0);
+            }
+        }
+        return Collections.unmodifiableMap(intervals);
+    }
+
+    /**
+     * Decide whether a finished step should produce an event, and update the moving average of its type.
+     * @param jobFullName Full name of the job owning the run
+     * @param stepType Step function name
+     * @param durationMs Step duration in milliseconds
+     * @param failed Whether the step failed
+     * @param sampleInterval Keep one in every this many fast steps
+     * @param slowThresholdMs Steps taking at least this long are always kept
+     * @return The reason the step is kept, or null if it is dropped
+     */
+    @CheckForNull
+    public Reason sample(String jobFullName, String stepType, long durationMs, boolean failed,
+                         int sampleInterval, long slowThresholdMs) {
+        long now = clock.getAsLong();
+        StepStats stepStats = stats.computeIfAbsent(jobFullName + "\u0000" + stepType, k -> new StepStats(now));
+        return stepStats.record(durationMs, failed, Math.max(1, sampleInterval), slowThresholdMs, now);
+    }
+
+    int getTrackedCount() {
+        return stats.size();
+    }
+
+    /**
+     * Moving average and fast step counter for one step type of one job.
+     */
+    private static final class StepStats {
+        private double averageMs;
+        private long observations;
+        private long fastSteps;
+        private volatile long lastSeenNanos;
+
+        StepStats(long now) {
+            this.lastSeenNanos = now;
+        }
+
+        synchronized Reason record(long durationMs, boolean failed, int sampleInterval,
+                                   long slowThresholdMs, long now) {
+            boolean slow = durationMs >= slowThresholdMs
+                || (observations > 0 && durationMs >= MIN_RELATIVE_SLOW_MS && durationMs > averageMs * SLOW_FACTOR);
+
+            averageMs = observations == 0 ? durationMs : averageMs + EWMA_ALPHA * (durationMs - averageMs);
+            observations++;
+            lastSeenNanos = now;
+
+            if (failed) {
+                return Reason.FAILED;
+            }
+            if (slow) {
+                return Reason.SLOW;
+            }
+            return fastSteps++ % sampleInterval == 0 ? Reason.SAMPLED : null;
+        }
+
+        boolean isIdle(long now) {
+            return now - lastSeenNanos > IDLE_NANOS;
+        }
+    }
+}
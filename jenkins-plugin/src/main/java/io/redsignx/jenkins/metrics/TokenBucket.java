@@ -0,0 +1,58 @@
+package io.redsignx.jenkins.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free token bucket used for stage admission control.
+ * Implemented as a generic cell rate algorithm: the only state is the theoretical
+ * arrival time of the next token, so refilling is implicit and costs nothing.
+ */
+public final class TokenBucket {
+
+    private final long nanosPerToken;
+    private final long capacityNanos;
+    private final LongSupplier clock;
+    private final AtomicLong theoreticalArrivalTime;
+
+    /**
+     * @param burst Maximum number of tokens that can be taken at once
+     * @param ratePerSecond Number of tokens added back per second
+     */
+    public TokenBucket(int burst, int ratePerSecond) {
+        this(burst, ratePerSecond, System::nanoTime);
+    }
+
+    TokenBucket(int burst, int ratePerSecond, LongSupplier clock) {
+        this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / Math.max(1, ratePerSecond);
+        this.capacityNanos = nanosPerToken * Math.max(1, burst);
+        this.clock = clock;
+        this.theoreticalArrivalTime = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * Take one token if available. Never blocks.
+     * @return true if a token was taken, false if the bucket is exhausted
+     */
+    public boolean tryAcquire() {
+        long now = clock.getAsLong();
+        while (true) {
+            long tat = theoreticalArrivalTime.get();
+            long next = (tat - now > 0 ? tat : now) + nanosPerToken;
+            if (next - now > capacityNanos) {
+                return false;
+            }
+            if (theoreticalArrivalTime.compareAndSet(tat, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back a token taken by {@link #tryAcquire()} that ended up unused.
+     */
+    public void refund() {
+        theoreticalArrivalTime.addAndGet(-nanosPerToken);
+    }
+}
@@ -0,0 +1,60 @@
+package io.redsignx.jenkins.metrics;
+
+import javax.annotation.CheckForNull;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Access to virtual threads on Java 21 and later. The plugin is built for Java 11,
+ * so the API is looked up reflectively and is simply unavailable on older JVMs.
+ */
+final class VirtualThreads {
+
+    private static final Logger LOGGER = Logger.getLogger(VirtualThreads.class.getName());
+
+    private static final ThreadFactory PROBE = factory("PipelineMetrics.VirtualThreadProbe-");
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return PROBE != null;
+    }
+
+    /**
+     * @return An executor starting a new virtual thread per task, named with the given prefix
+     *         and a counter, or null if the JVM has no virtual threads
+     */
+    @CheckForNull
+    static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        ThreadFactory factory = factory(namePrefix);
+        if (factory == null) {
+            return null;
+        }
+        try {
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Virtual thread executor not available", e);
+            return null;
+        }
+    }
+
+    @CheckForNull
+    private static ThreadFactory factory(String namePrefix) {
+        try {
+            // Thread.ofVirtual().name(namePrefix, 0).factory()
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // NoSuchMethodException before Java 21; Java 19 and 20 throw while preview features are off
+            return null;
+        }
+    }
+}
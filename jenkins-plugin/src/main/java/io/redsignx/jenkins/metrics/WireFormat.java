@@ -0,0 +1,51 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodings supported for event payloads.
+ * Both encodings are produced from the same Gson field mapping, so they carry
+ * identical field names as defined in event-schema.json.
+ */
+public enum WireFormat {
+    
+    JSON("application/json") {
+        @Override
+        public byte[] encode(Gson gson, Object payload) {
+            return gson.toJson(payload).getBytes(StandardCharsets.UTF_8);
+        }
+    },
+    
+    CBOR("application/cbor") {
+        @Override
+        public byte[] encode(Gson gson, Object payload) throws IOException {
+            CborJsonWriter writer = new CborJsonWriter();
+            gson.toJson(payload, payload.getClass(), writer);
+            return writer.toByteArray();
+        }
+    };
+    
+    private final String contentType;
+    
+    WireFormat(String contentType) {
+        this.contentType = contentType;
+    }
+    
+    /**
+     * @return The Content-Type header value for payloads in this format
+     */
+    public String getContentType() {
+        return contentType;
+    }
+    
+    /**
+     * Encode an event (or a list of events) into a request body.
+     * @param gson Gson instance defining the field mapping
+     * @param payload The event to encode
+     * @return The encoded bytes
+     */
+    public abstract byte[] encode(Gson gson, Object payload) throws IOException;
+}
@@ -0,0 +1,80 @@
+package io.redsignx.jenkins.metrics;
+
+import hudson.model.Label;
+import hudson.slaves.DumbSlave;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for AgentResourceMonitor against a real agent: the sampling callables and the
+ * aggregate cross the remoting channel, and stage events are not held back for them.
+ */
+public class AgentResourceMonitorTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void testSamplesAgentOverRemoting() throws Exception {
+        Assume.assumeTrue(ProcStats.isSupported());
+        DumbSlave agent = j.createOnlineSlave();
+
+        AgentResourceMonitor monitor = AgentResourceMonitor.getInstance();
+        AgentResourceMonitor.Session session = monitor.start(agent.getNodeName(), 1);
+        Thread.sleep(1500);
+        ResourceUsage usage = monitor.stop(session).get(AgentResourceMonitor.STOP_TIMEOUT_SECONDS + 5, TimeUnit.SECONDS);
+
+        assertNotNull(usage);
+        assertEquals(agent.getNodeName(), usage.getAgentName());
+        assertTrue(usage.getSampleCount() >= 2);
+        assertTrue(usage.getCpuCount() > 0);
+        assertTrue(usage.getMemoryTotalBytes() > 0);
+    }
+
+    @Test
+    public void testStageEndIsNotHeldBackForUsage() throws Exception {
+        Assume.assumeTrue(ProcStats.isSupported());
+        DumbSlave agent = j.createOnlineSlave(Label.get("sampled"));
+        PipelineMetricsConfiguration config = PipelineMetricsConfiguration.get();
+        config.setResourceSamplingEnabled(true);
+        // Setters on the registered configuration publish the snapshot the listener reads
+        config.setResourceSampleIntervalSeconds(1);
+
+        WorkflowJob job = j.createProject(WorkflowJob.class, "sampled-job");
+        job.setDefinition(new CpsFlowDefinition("node('sampled') { stage('Build') { sleep 2 } }", true));
+        j.buildAndAssertSuccess(job);
+
+        RecentEventLog.Entry usageEntry = awaitEvent("sampled-job", "stage_resource_usage");
+        assertNotNull(usageEntry);
+        RecentEventLog.Entry endEntry = awaitEvent("sampled-job", "stage_end");
+        assertNotNull(endEntry);
+        assertTrue(endEntry.getSequence() < usageEntry.getSequence());
+
+        StageResourceUsageEvent event = (StageResourceUsageEvent) usageEntry.getEvent();
+        assertEquals("Build", event.getStageName());
+        assertEquals(endEntry.getEvent().getStageId(), event.getStageId());
+        assertEquals(agent.getNodeName(), event.getResourceUsage().getAgentName());
+        assertTrue(event.getResourceUsage().getSampleCount() >= 2);
+    }
+
+    private static RecentEventLog.Entry awaitEvent(String job, String eventType) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(AgentResourceMonitor.STOP_TIMEOUT_SECONDS + 10);
+        while (true) {
+            List<RecentEventLog.Entry> entries = RecentEventLog.get()
+                .query(new RecentEventLog.Query().job(job).eventType(eventType), 0, 1).getEntries();
+            if (!entries.isEmpty() || System.currentTimeMillis() > deadline) {
+                return entries.isEmpty() ? null : entries.get(0);
+            }
+            Thread.sleep(100);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package io.redsignx.jenkins.metrics;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for AgentResourceSampler sessions in the local JVM and the controller-side fallbacks of AgentResourceMonitor.
+ */
+public class AgentResourceSamplerTest {
+
+    @Test
+    public void testLocalSession() throws Exception {
+        Assume.assumeTrue(ProcStats.isSupported());
+
+        assertTrue(AgentResourceSampler.start("session-1", 1));
+        Thread.sleep(1500);
+        ResourceUsage usage = AgentResourceSampler.stop("session-1");
+
+        assertNotNull(usage);
+        assertTrue(usage.getSampleCount() >= 2);
+        assertTrue(usage.getCpuCount() > 0);
+        assertTrue(usage.getMemoryTotalBytes() > 0);
+        assertTrue(usage.getMemoryPeakUsedBytes() > 0);
+        assertTrue(usage.getCpuBusyPercent() >= 0 && usage.getCpuBusyPercent() <= 100);
+        assertTrue(usage.getCpuPeakBusyPercent() >= 0 && usage.getCpuPeakBusyPercent() <= 100);
+        assertEquals(0, AgentResourceSampler.getSessionCount());
+    }
+
+    @Test
+    public void testOldestSessionsAreDroppedAtCapacity() throws Exception {
+        Assume.assumeTrue(ProcStats.isSupported());
+
+        try {
+            AgentResourceSampler.start("oldest", 3600, () -> false);
+            Thread.sleep(5);
+            for (int i = 1; i < AgentResourceSampler.MAX_SESSIONS; i++) {
+                AgentResourceSampler.start("session-" + i, 3600, () -> false);
+            }
+            assertEquals(AgentResourceSampler.MAX_SESSIONS, AgentResourceSampler.getSessionCount());
+
+            assertTrue(AgentResourceSampler.start("newest", 3600, () -> false));
+            assertEquals(AgentResourceSampler.MAX_SESSIONS, AgentResourceSampler.getSessionCount());
+            assertNull(AgentResourceSampler.stop("oldest"));
+            assertNotNull(AgentResourceSampler.stop("newest"));
+        } finally {
+            for (int i = 1; i < AgentResourceSampler.MAX_SESSIONS; i++) {
+                AgentResourceSampler.stop("session-" + i);
+            }
+        }
+        assertEquals(0, AgentResourceSampler.getSessionCount());
+    }
+
+    @Test
+    public void testOrphanedSessionEnds() throws Exception {
+        Assume.assumeTrue(ProcStats.isSupported());
+
+        assertTrue(AgentResourceSampler.start("orphaned", 1, () -> true));
+        Thread.sleep(1500);
+        assertNull(AgentResourceSampler.stop("orphaned"));
+        assertEquals(0, AgentResourceSampler.getSessionCount());
+    }
+
+    @Test
+    public void testUnknownSession() throws Exception {
+        assertNull(AgentResourceSampler.stop("unknown"));
+    }
+
+    @Test
+    public void testOfflineAgentYieldsNoUsage() throws Exception {
+        AgentResourceMonitor monitor = new AgentResourceMonitor(name -> null, Runnable::run);
+
+        AgentResourceMonitor.Session session = monitor.start("offline", 30);
+        assertEquals("offline", session.getAgentName());
+        assertNull(monitor.stop(session).get());
+    }
+}
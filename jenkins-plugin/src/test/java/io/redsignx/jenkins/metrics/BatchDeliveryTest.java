@@ -0,0 +1,325 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests batched delivery and per-event acknowledgements against an in-process stub collector.
+ */
+public class BatchDeliveryTest {
+
+    private HttpServer collector;
+    private final List<List<String>> requests = new CopyOnWriteArrayList<>();
+    private volatile Function<List<String>, Response> handler = names -> new Response(200, null);
+    private File deadLetterFile;
+    private MetricDeliveryService service;
+
+    /**
+     * Status and body the stub collector answers with.
+     */
+    private static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        collector = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        collector.createContext("/events", exchange -> {
+            String body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            // Stage names identify the events of a request; a lone event arrives as an object
+            JsonElement parsed = JsonParser.parseString(body);
+            JsonArray events = parsed.isJsonArray() ? parsed.getAsJsonArray() : new JsonArray();
+            if (parsed.isJsonObject()) {
+                events.add(parsed);
+            }
+            List<String> names = new ArrayList<>();
+            for (JsonElement event : events) {
+                names.add(event.getAsJsonObject().get("stage_name").getAsString());
+            }
+            requests.add(names);
+
+            Response response = handler.apply(names);
+            if (response.body == null) {
+                exchange.sendResponseHeaders(response.status, -1);
+            } else {
+                byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(response.status, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            }
+            exchange.close();
+        });
+        collector.start();
+        deadLetterFile = File.createTempFile("dead-letters", ".jsonl");
+        assertTrue(deadLetterFile.delete());
+    }
+
+    @After
+    public void tearDown() {
+        if (service != null) {
+            service.shutdown();
+        }
+        collector.stop(0);
+        deadLetterFile.delete();
+    }
+
+    private MetricDeliveryService service(int batchSize) {
+        DeliveryConfig config = new DeliveryConfig(1,
+            Collections.singletonList("http://127.0.0.1:" + collector.getAddress().getPort() + "/events"),
+            null, WireFormat.JSON, 5, 5, 100, 3, 0, 1, batchSize, false, 256, 100);
+        service = new MetricDeliveryService(config, new HttpEventSender(config),
+            new DeadLetterFile(deadLetterFile, DeadLetterFile.MAX_FILE_BYTES));
+        return service;
+    }
+
+    /**
+     * Queue events named after the given stage names, then start the service so the
+     * worker finds them all waiting and sends them as one batch.
+     */
+    private List<StageStartEvent> deliver(MetricDeliveryService service, String job, String... names) {
+        List<StageStartEvent> events = new ArrayList<>();
+        for (String name : names) {
+            StageStartEvent event = new StageStartEvent(job + ":" + name, name, job, 1, "url",
+                null, null, null, name, 0L);
+            assertTrue(service.queueEvent(event));
+            events.add(event);
+        }
+        service.start();
+        return events;
+    }
+
+    private static List<RecentEventLog.Status> awaitStatuses(String job, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            RecentEventLog.Page page = RecentEventLog.get().query(new RecentEventLog.Query().job(job), 0, 100);
+            List<RecentEventLog.Status> statuses = new ArrayList<>();
+            boolean settled = page.getTotal() == count;
+            // Newest first in the log, reversed to queueing order
+            for (RecentEventLog.Entry entry : page.getEntries()) {
+                statuses.add(0, entry.getStatus());
+                settled &= entry.getStatus() != RecentEventLog.Status.QUEUED
+                    && entry.getStatus() != RecentEventLog.Status.RETRYING;
+            }
+            if (settled || System.currentTimeMillis() > deadline) {
+                return statuses;
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private List<String> deadLetteredNames() throws IOException {
+        List<String> names = new ArrayList<>();
+        if (deadLetterFile.isFile()) {
+            for (String line : Files.readAllLines(deadLetterFile.toPath(), StandardCharsets.UTF_8)) {
+                JsonObject entry = JsonParser.parseString(line).getAsJsonObject();
+                assertTrue(entry.has("dead_lettered_at"));
+                names.add(entry.getAsJsonObject("event").get("stage_name").getAsString());
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void testBatchAcceptedWithoutResults() throws Exception {
+        deliver(service(10), "batch/accepted", "a", "b", "c");
+
+        assertEquals(Collections.nCopies(3, RecentEventLog.Status.SENT), awaitStatuses("batch/accepted", 3));
+        assertEquals(Collections.singletonList(List.of("a", "b", "c")), requests);
+    }
+
+    @Test
+    public void testSingleEventsWhenBatchingIsOff() throws Exception {
+        deliver(service(1), "batch/single", "a", "b");
+
+        assertEquals(Collections.nCopies(2, RecentEventLog.Status.SENT), awaitStatuses("batch/single", 2));
+        assertEquals(List.of(List.of("a"), List.of("b")), requests);
+    }
+
+    @Test
+    public void testOnlyFailedEventsAreRetried() throws Exception {
+        handler = names -> names.size() == 3
+            ? new Response(207, "{\"results\": ["
+                + "{\"index\": 0, \"status\": \"accepted\"},"
+                + "{\"index\": 1, \"status\": \"retry\", \"error\": \"storage busy\"},"
+                + "{\"index\": 2, \"status\": \"rejected\", \"error\": \"stage_name too long\"}]}")
+            : new Response(200, null);
+        deliver(service(10), "batch/partial", "a", "b", "c");
+
+        assertEquals(List.of(RecentEventLog.Status.SENT, RecentEventLog.Status.SENT, RecentEventLog.Status.REJECTED),
+            awaitStatuses("batch/partial", 3));
+        assertEquals(List.of(List.of("a", "b", "c"), List.of("b")), requests);
+        assertEquals(List.of("c"), deadLetteredNames());
+
+        RecentEventLog.Entry rejected = RecentEventLog.get()
+            .query(new RecentEventLog.Query().job("batch/partial").stageId("batch/partial:c"), 0, 1).getEntries().get(0);
+        assertEquals("stage_name too long", rejected.getError());
+    }
+
+    @Test
+    public void testOversizedBatchIsSplit() throws Exception {
+        // Takes at most two events per request, and never the oversized one
+        handler = names -> names.size() > 2 || names.contains("huge")
+            ? new Response(413, null)
+            : new Response(200, null);
+        deliver(service(10), "batch/split", "a", "b", "huge", "d", "e");
+
+        assertEquals(List.of(RecentEventLog.Status.SENT, RecentEventLog.Status.SENT, RecentEventLog.Status.REJECTED,
+            RecentEventLog.Status.SENT, RecentEventLog.Status.SENT), awaitStatuses("batch/split", 5));
+        assertEquals(List.of(
+            List.of("a", "b", "huge", "d", "e"),
+            List.of("a", "b"),
+            List.of("huge", "d", "e"),
+            List.of("huge"),
+            List.of("d", "e")), requests);
+        assertEquals(List.of("huge"), deadLetteredNames());
+    }
+
+    @Test
+    public void testBadRequestRejectsWithoutRetry() throws Exception {
+        handler = names -> new Response(400, "schema violation");
+        deliver(service(10), "batch/bad", "a");
+
+        assertEquals(List.of(RecentEventLog.Status.REJECTED), awaitStatuses("batch/bad", 1));
+        assertEquals(1, requests.size());
+        assertEquals(List.of("a"), deadLetteredNames());
+    }
+
+    @Test
+    public void testBadRequestWithoutResultsIsSplit() throws Exception {
+        // Refuses every request holding the invalid event, without saying which one it is
+        handler = names -> names.contains("bad") ? new Response(422, "schema violation") : new Response(200, null);
+        deliver(service(10), "batch/unnamed", "a", "b", "bad", "d");
+
+        assertEquals(List.of(RecentEventLog.Status.SENT, RecentEventLog.Status.SENT, RecentEventLog.Status.REJECTED,
+            RecentEventLog.Status.SENT), awaitStatuses("batch/unnamed", 4));
+        assertEquals(List.of(
+            List.of("a", "b", "bad", "d"),
+            List.of("a", "b"),
+            List.of("bad", "d"),
+            List.of("bad"),
+            List.of("d")), requests);
+        assertEquals(List.of("bad"), deadLetteredNames());
+    }
+
+    @Test
+    public void testUnauthorizedIsRetried() throws Exception {
+        // A token being rotated is refused until the collector picks it up
+        handler = names -> requests.size() == 1 ? new Response(401, null) : new Response(200, null);
+        deliver(service(10), "batch/unauthorized", "a", "b");
+
+        assertEquals(Collections.nCopies(2, RecentEventLog.Status.SENT), awaitStatuses("batch/unauthorized", 2));
+        assertEquals(List.of(List.of("a", "b"), List.of("a", "b")), requests);
+        assertEquals(Collections.emptyList(), deadLetteredNames());
+        assertEquals(0, service.getEndpointStats().get(0).getFailed());
+    }
+
+    @Test
+    public void testNotFoundFailsOverToNextReplica() throws Exception {
+        // Nothing is served at /missing, so that replica answers 404 to every request
+        String base = "http://127.0.0.1:" + collector.getAddress().getPort();
+        String missing = base + "/missing";
+        List<String> endpoints = List.of(missing, base + "/events");
+        String job = "batch/not-found";
+        for (int i = 0; !new EndpointRouter(endpoints).owner(job).equals(missing); i++) {
+            job = "batch/not-found-" + i;
+        }
+        DeliveryConfig config = new DeliveryConfig(1, endpoints, null, WireFormat.JSON,
+            5, 5, 100, 3, 0, 1, 1, false, 256, 100);
+        service = new MetricDeliveryService(config, new HttpEventSender(config),
+            new DeadLetterFile(deadLetterFile, DeadLetterFile.MAX_FILE_BYTES));
+        deliver(service, job, "a", "b", "c", "d", "e");
+
+        assertEquals(Collections.nCopies(5, RecentEventLog.Status.SENT), awaitStatuses(job, 5));
+        assertEquals(List.of(List.of("a"), List.of("b"), List.of("c"), List.of("d"), List.of("e")), requests);
+        assertEquals(Collections.emptyList(), deadLetteredNames());
+        // Cooled down after three failures, the job's later events go to the next replica first
+        EndpointRouter.EndpointStats notFound = service.getEndpointStats().get(0);
+        assertEquals(missing, notFound.getEndpoint());
+        assertEquals(3, notFound.getFailed());
+        assertFalse(notFound.isHealthy());
+    }
+
+    @Test
+    public void testServerErrorRetriesWholeBatch() throws Exception {
+        handler = names -> requests.size() == 1 ? new Response(503, null) : new Response(200, null);
+        deliver(service(10), "batch/unavailable", "a", "b");
+
+        assertEquals(Collections.nCopies(2, RecentEventLog.Status.SENT), awaitStatuses("batch/unavailable", 2));
+        assertEquals(List.of(List.of("a", "b"), List.of("a", "b")), requests);
+        assertEquals(Collections.emptyList(), deadLetteredNames());
+    }
+
+    @Test
+    public void testParseResults() {
+        DeliveryResult plain = DeliveryResult.parse("OK", 2, DeliveryResult.Outcome.ACCEPTED, null);
+        assertEquals(DeliveryResult.Outcome.ACCEPTED, plain.getOutcome(1));
+
+        // Unknown statuses are retried, out-of-range indexes ignored
+        DeliveryResult unknown = DeliveryResult.parse(
+            "{\"results\": [{\"index\": 0, \"status\": \"later\"}, {\"index\": 5, \"status\": \"rejected\"}]}",
+            2, DeliveryResult.Outcome.ACCEPTED, null);
+        assertEquals(DeliveryResult.Outcome.RETRY, unknown.getOutcome(0));
+        assertEquals(DeliveryResult.Outcome.ACCEPTED, unknown.getOutcome(1));
+
+        // A refused request listing some events accepted the others
+        DeliveryResult listed = DeliveryResult.parse(
+            "{\"results\": [{\"index\": 1, \"status\": \"rejected\", \"error\": \"bad\"}]}",
+            2, DeliveryResult.Outcome.REJECTED, "Rejected with status code: 422");
+        assertEquals(DeliveryResult.Outcome.ACCEPTED, listed.getOutcome(0));
+        assertNull(listed.getError(0));
+        assertEquals(DeliveryResult.Outcome.REJECTED, listed.getOutcome(1));
+        assertEquals("bad", listed.getError(1));
+
+        DeliveryResult unlisted = DeliveryResult.parse(null, 1, DeliveryResult.Outcome.REJECTED, "Rejected");
+        assertEquals(DeliveryResult.Outcome.REJECTED, unlisted.getOutcome(0));
+        assertEquals("Rejected", unlisted.getError(0));
+    }
+
+    @Test
+    public void testDeadLetterFileRotates() throws Exception {
+        DeadLetterFile file = new DeadLetterFile(deadLetterFile, 100);
+        StageStartEvent event = new StageStartEvent("s", "a", "job", 1, "url", null, null, null, "a", 0L);
+        file.write(event, "first", 1);
+        file.write(event, "second", 2);
+
+        File backup = new File(deadLetterFile.getPath() + ".1");
+        try {
+            assertTrue(backup.isFile());
+            assertEquals(1, Files.readAllLines(deadLetterFile.toPath()).size());
+            assertTrue(Files.readAllLines(deadLetterFile.toPath()).get(0).contains("second"));
+        } finally {
+            backup.delete();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package io.redsignx.jenkins.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for BoundedRecencyMap eviction order.
+ */
+public class BoundedRecencyMapTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void testLeastRecentlyUsedAreEvictedPastTheLimit() {
+        BoundedRecencyMap<String, AtomicLong> map = new BoundedRecencyMap<>(10, AtomicLong::get, used -> false);
+        for (int i = 0; i < 10; i++) {
+            map.computeIfAbsent("key-" + i, k -> new AtomicLong(clock.incrementAndGet()));
+        }
+        assertEquals(10, map.size());
+        map.get("key-0").set(clock.incrementAndGet());
+
+        map.computeIfAbsent("new", k -> new AtomicLong(clock.incrementAndGet()));
+        assertEquals(BoundedRecencyMap.evictTo(10), map.size());
+        assertNotNull(map.get("key-0"));
+        assertNotNull(map.get("new"));
+        assertNull(map.get("key-1"));
+        assertNull(map.get("key-2"));
+    }
+
+    @Test
+    public void testExpiredAreEvictedFirst() {
+        BoundedRecencyMap<String, AtomicLong> map = new BoundedRecencyMap<>(10, AtomicLong::get, used -> used.get() % 2 == 0);
+        for (int i = 1; i <= 11; i++) {
+            map.computeIfAbsent("key-" + i, k -> new AtomicLong(clock.incrementAndGet()));
+        }
+        // Dropping the even ones is enough, nothing in use is evicted
+        assertEquals(6, map.size());
+        assertNotNull(map.get("key-1"));
+        assertNull(map.get("key-2"));
+    }
+
+    @Test
+    public void testExistingEntryIsReturned() {
+        BoundedRecencyMap<String, AtomicLong> map = new BoundedRecencyMap<>(10, AtomicLong::get, used -> false);
+        AtomicLong first = map.computeIfAbsent("key", k -> new AtomicLong(1));
+        assertSame(first, map.computeIfAbsent("key", k -> new AtomicLong(2)));
+        assertEquals(1, map.size());
+    }
+}
@@ -0,0 +1,104 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal CBOR decoder used to verify {@link CborJsonWriter} output.
+ * Supports the subset the writer produces plus definite-length containers.
+ */
+final class CborDecoder {
+    
+    private static final Object BREAK = new Object();
+    
+    private final ByteBuffer in;
+    
+    private CborDecoder(byte[] bytes) {
+        this.in = ByteBuffer.wrap(bytes);
+    }
+    
+    static JsonElement decode(byte[] bytes) {
+        CborDecoder decoder = new CborDecoder(bytes);
+        Object value = decoder.read();
+        if (decoder.in.hasRemaining()) {
+            throw new IllegalArgumentException("Trailing bytes after CBOR item");
+        }
+        return (JsonElement) value;
+    }
+    
+    private Object read() {
+        int initial = in.get() & 0xFF;
+        int major = initial >>> 5;
+        int info = initial & 0x1F;
+        if (initial == 0xFF) {
+            return BREAK;
+        }
+        switch (major) {
+            case 0:
+                return new JsonPrimitive(readArgument(info));
+            case 1:
+                return new JsonPrimitive(-1 - readArgument(info));
+            case 3: {
+                byte[] text = new byte[(int) readArgument(info)];
+                in.get(text);
+                return new JsonPrimitive(new String(text, StandardCharsets.UTF_8));
+            }
+            case 4: {
+                JsonArray array = new JsonArray();
+                if (info == 31) {
+                    for (Object item = read(); item != BREAK; item = read()) {
+                        array.add((JsonElement) item);
+                    }
+                } else {
+                    for (long i = readArgument(info); i > 0; i--) {
+                        array.add((JsonElement) read());
+                    }
+                }
+                return array;
+            }
+            case 5: {
+                JsonObject object = new JsonObject();
+                if (info == 31) {
+                    for (Object key = read(); key != BREAK; key = read()) {
+                        object.add(((JsonElement) key).getAsString(), (JsonElement) read());
+                    }
+                } else {
+                    for (long i = readArgument(info); i > 0; i--) {
+                        String key = ((JsonElement) read()).getAsString();
+                        object.add(key, (JsonElement) read());
+                    }
+                }
+                return object;
+            }
+            case 7:
+                switch (info) {
+                    case 20: return new JsonPrimitive(false);
+                    case 21: return new JsonPrimitive(true);
+                    case 22: return JsonNull.INSTANCE;
+                    case 27: return new JsonPrimitive(in.getDouble());
+                    default: throw new IllegalArgumentException("Unsupported simple value: " + info);
+                }
+            default:
+                throw new IllegalArgumentException("Unsupported major type: " + major);
+        }
+    }
+    
+    private long readArgument(int info) {
+        if (info < 24) {
+            return info;
+        }
+        switch (info) {
+            case 24: return in.get() & 0xFFL;
+            case 25: return in.getShort() & 0xFFFFL;
+            case 26: return in.getInt() & 0xFFFFFFFFL;
+            case 27: return in.getLong();
+            default: throw new IllegalArgumentException("Unsupported argument encoding: " + info);
+        }
+    }
+}
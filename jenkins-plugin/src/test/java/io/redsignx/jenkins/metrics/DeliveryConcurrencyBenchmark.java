@@ -0,0 +1,151 @@
+package io.redsignx.jenkins.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares delivery throughput on the platform delivery threads with virtual threads, against
+ * a single local collector answering after a fixed latency, like a remote collector would.
+ * Events come from many jobs, so requests in flight are bounded by the configured threads or
+ * limit rather than by job ordering, and each row reports the peak it reached.
+ * Not run as part of the test suite; run manually on Java 21 or later with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=io.redsignx.jenkins.metrics.DeliveryConcurrencyBenchmark
+ * </pre>
+ */
+public final class DeliveryConcurrencyBenchmark {
+
+    private static final int EVENTS = 4_000;
+    private static final int JOBS = 1_000;
+    private static final long COLLECTOR_LATENCY_MS = 50;
+
+    private DeliveryConcurrencyBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        // The JDK server closes idle connections beyond 200, which the client then finds dead
+        System.setProperty("sun.net.httpserver.maxIdleConnections", "1024");
+        ExecutorService collectorThreads = VirtualThreads.isSupported()
+            ? VirtualThreads.newThreadPerTaskExecutor("collector-")
+            : Executors.newCachedThreadPool();
+        HttpServer collector = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        collector.createContext("/events", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            try {
+                Thread.sleep(COLLECTOR_LATENCY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        collector.setExecutor(collectorThreads);
+        collector.start();
+        String endpoint = "http://127.0.0.1:" + collector.getAddress().getPort() + "/events";
+
+        try {
+            report("Delivery threads (2, default)", endpoint, 2, false, 2);
+            report("Delivery threads (32)", endpoint, 32, false, 32);
+            if (VirtualThreads.isSupported()) {
+                report("Virtual threads (32 in flight)", endpoint, 2, true, 32);
+                report("Virtual threads (256 in flight)", endpoint, 2, true, 256);
+            } else {
+                System.out.println("Virtual threads need Java 21 or later, skipped");
+            }
+        } finally {
+            collector.stop(0);
+            collectorThreads.shutdownNow();
+        }
+    }
+
+    /**
+     * @param limit Requests allowed in flight: the delivery threads, or Max Concurrent Deliveries
+     */
+    private static void report(String name, String endpoint, int deliveryThreads, boolean virtualThreads,
+                               int limit) throws Exception {
+        DeliveryConfig config = new DeliveryConfig(1, Collections.singletonList(endpoint), null, WireFormat.JSON,
+            10, 30, EVENTS, 3, 0, deliveryThreads, 1, virtualThreads, virtualThreads ? limit : 256, 0);
+        CountingSender sender = new CountingSender(new HttpEventSender(config), EVENTS);
+        MetricDeliveryService service = new MetricDeliveryService(config, sender, new DeadLetterFile(null, 0));
+
+        for (int i = 0; i < EVENTS; i++) {
+            service.queueEvent(new StageStartEvent("bench#1:" + i, "Stage " + i, "bench/job-" + (i % JOBS), 1,
+                "job/bench/1/", null, null, null, Integer.toString(i), System.currentTimeMillis()));
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+        service.start();
+        boolean finished = sender.done.await(5, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+        service.shutdown();
+
+        int peak = sender.maxInFlight.get();
+        System.out.printf("%-40s %9.0f events/s %5d/%-4d peak in flight %6d peak platform threads"
+                + " %5d failed attempts%s%s%n",
+            name, EVENTS / (elapsed / 1e9), peak, limit, threads.getPeakThreadCount(), sender.failures.get(),
+            finished ? "" : " (timed out)", peak > limit ? " (limit exceeded)" : "");
+    }
+
+    /**
+     * Counts down once per delivered event, counts failed requests, which are retried, and
+     * tracks the most requests in flight at once.
+     */
+    private static final class CountingSender implements EventSender {
+        private final EventSender delegate;
+        private final CountDownLatch done;
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        CountingSender(EventSender delegate, int events) {
+            this.delegate = delegate;
+            this.done = new CountDownLatch(events);
+        }
+
+        @Override
+        public DeliveryResult send(List<MetricEvent> events, String endpointUrl, DeliveryConfig config)
+                throws IOException {
+            DeliveryResult result;
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                result = delegate.send(events, endpointUrl, config);
+            } catch (IOException e) {
+                failures.incrementAndGet();
+                throw e;
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            for (int i = 0; i < events.size(); i++) {
+                done.countDown();
+            }
+            return result;
+        }
+
+        @Override
+        public void reconfigure(DeliveryConfig config) {
+            delegate.reconfigure(config);
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+}
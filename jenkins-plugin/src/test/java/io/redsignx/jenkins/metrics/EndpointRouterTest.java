@@ -0,0 +1,127 @@
+package io.redsignx.jenkins.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for EndpointRouter ring affinity, rebalancing and cool-down.
+ */
+public class EndpointRouterTest {
+
+    private static final List<String> ENDPOINTS = Arrays.asList("http://a/events", "http://b/events", "http://c/events");
+
+    @Test
+    public void testJobStaysOnItsOwner() {
+        EndpointRouter router = new EndpointRouter(ENDPOINTS);
+        for (int i = 0; i < 100; i++) {
+            String job = "folder/job-" + i;
+            List<String> route = router.route(job, 0);
+            assertEquals(3, route.size());
+            assertEquals(router.owner(job), route.get(0));
+            assertEquals(route, router.route(job, 0));
+            assertEquals(route, new EndpointRouter(ENDPOINTS).route(job, 0));
+        }
+    }
+
+    @Test
+    public void testJobsSpreadOverEndpoints() {
+        EndpointRouter router = new EndpointRouter(ENDPOINTS);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            counts.merge(router.owner("job-" + i), 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            assertTrue("Uneven spread: " + counts, count > 700 && count < 1300);
+        }
+    }
+
+    @Test
+    public void testRemovingEndpointOnlyMovesItsJobs() {
+        EndpointRouter router = new EndpointRouter(ENDPOINTS);
+        Map<String, String> before = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            before.put("job-" + i, router.owner("job-" + i));
+        }
+
+        router.setEndpoints(Arrays.asList("http://a/events", "http://c/events"));
+        for (Map.Entry<String, String> entry : before.entrySet()) {
+            String owner = router.owner(entry.getKey());
+            if (!entry.getValue().equals("http://b/events")) {
+                assertEquals(entry.getValue(), owner);
+            } else {
+                assertNotEquals("http://b/events", owner);
+            }
+        }
+    }
+
+    @Test
+    public void testCoolDownAfterRepeatedFailures() {
+        EndpointRouter router = new EndpointRouter(ENDPOINTS);
+        String job = "folder/job";
+        String owner = router.owner(job);
+
+        router.recordFailure(owner, 1000);
+        router.recordFailure(owner, 1000);
+        assertEquals(owner, router.route(job, 1000).get(0));
+
+        router.recordFailure(owner, 1000);
+        List<String> route = router.route(job, 1000);
+        assertNotEquals(owner, route.get(0));
+        assertEquals(owner, route.get(2));
+
+        // Tried first again once the cool-down is over, and a further failure doubles it
+        long retryAt = 1000 + EndpointRouter.INITIAL_COOL_DOWN_MILLIS;
+        assertEquals(owner, router.route(job, retryAt).get(0));
+        router.recordFailure(owner, retryAt);
+        assertNotEquals(owner, router.route(job, retryAt + EndpointRouter.INITIAL_COOL_DOWN_MILLIS).get(0));
+        assertEquals(owner, router.route(job, retryAt + 2 * EndpointRouter.INITIAL_COOL_DOWN_MILLIS).get(0));
+    }
+
+    @Test
+    public void testSuccessResetsHealth() {
+        EndpointRouter router = new EndpointRouter(ENDPOINTS);
+        String job = "folder/job";
+        String owner = router.owner(job);
+        for (int i = 0; i < 3; i++) {
+            router.recordFailure(owner, 1000);
+        }
+        router.recordSuccess(owner, 2_000_000, false);
+
+        assertEquals(owner, router.route(job, 1000).get(0));
+        EndpointRouter.EndpointStats stats = router.getStats().get(ENDPOINTS.indexOf(owner));
+        assertEquals(0, stats.getConsecutiveFailures());
+        assertEquals(3, stats.getFailed());
+        assertEquals(1, stats.getSent());
+        assertEquals(2.0, stats.getAverageLatencyMillis(), 0.001);
+    }
+
+    @Test
+    public void testStatsKeptForRemainingEndpoints() {
+        EndpointRouter router = new EndpointRouter(ENDPOINTS);
+        router.recordSuccess("http://a/events", 0, false);
+        router.recordSuccess("http://b/events", 0, false);
+
+        router.setEndpoints(Arrays.asList("http://a/events", "http://d/events"));
+        List<EndpointRouter.EndpointStats> stats = router.getStats();
+        assertEquals(2, stats.size());
+        assertEquals(1, stats.get(0).getSent());
+        assertEquals("http://d/events", stats.get(1).getEndpoint());
+        assertEquals(0, stats.get(1).getSent());
+    }
+
+    @Test
+    public void testSingleAndNoEndpoint() {
+        assertEquals(Collections.singletonList("http://a/events"),
+            new EndpointRouter(Collections.singletonList("http://a/events")).route("job", 0));
+        assertNull(new EndpointRouter(Collections.emptyList()).owner("job"));
+        assertTrue(new EndpointRouter(Collections.emptyList()).route("job", 0).isEmpty());
+    }
+}
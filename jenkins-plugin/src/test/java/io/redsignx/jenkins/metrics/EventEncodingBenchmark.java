@@ -0,0 +1,66 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Compares encode time and payload size of the wire formats.
+ * Not run as part of the test suite; run manually with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=io.redsignx.jenkins.metrics.EventEncodingBenchmark
+ * </pre>
+ */
+public final class EventEncodingBenchmark {
+    
+    private static final int WARMUP_ITERATIONS = 200_000;
+    private static final int MEASURED_ITERATIONS = 1_000_000;
+    
+    // Keeps the JIT from discarding the encoded payloads
+    private static volatile long blackhole;
+    
+    private EventEncodingBenchmark() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        StageEndEvent event = new StageEndEvent(
+            "folder/my-pipeline#42:124",
+            "Integration Tests",
+            "folder/my-pipeline",
+            42,
+            "job/folder/job/my-pipeline/42/",
+            "feature/new-feature",
+            "PR-456",
+            "main",
+            "124",
+            1234567893000L,
+            "FAILURE",
+            "FAILURE",
+            183000L,
+            "script returned exit code 1"
+        );
+        
+        Gson gson = new GsonBuilder().create();
+        Gson prettyGson = new GsonBuilder().setPrettyPrinting().create();
+        
+        report("JSON (pretty, previous default)", prettyGson, WireFormat.JSON, event);
+        report("JSON", gson, WireFormat.JSON, event);
+        report("CBOR", gson, WireFormat.CBOR, event);
+    }
+    
+    private static void report(String name, Gson gson, WireFormat format, MetricEvent event) throws Exception {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += format.encode(gson, event).length;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            sink += format.encode(gson, event).length;
+        }
+        long elapsed = System.nanoTime() - start;
+        int size = format.encode(gson, event).length;
+        blackhole = sink;
+        System.out.printf("%-32s %8.1f ns/event %6d bytes%n",
+            name, (double) elapsed / MEASURED_ITERATIONS, size);
+    }
+}
@@ -0,0 +1,199 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.annotations.SerializedName;
+import org.junit.Test;
+
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Keeps the event classes, and therefore every wire format derived from them,
+ * in sync with event-schema.json. Each class is compared with its own oneOf variant,
+ * nested objects included, and the build fails when a field or event type is added
+ * on one side only.
+ */
+public class EventSchemaTest {
+    
+    // Event classes by the event_type const of their oneOf variant
+    private static final Map<String, Class<? extends MetricEvent>> EVENT_CLASSES = new LinkedHashMap<>();
+    
+    static {
+        EVENT_CLASSES.put("stage_start", StageStartEvent.class);
+        EVENT_CLASSES.put("stage_end", StageEndEvent.class);
+        EVENT_CLASSES.put("stage_complete", StageCompleteEvent.class);
+        EVENT_CLASSES.put("stage_suppression_summary", StageSuppressionSummaryEvent.class);
+        EVENT_CLASSES.put("build_summary", BuildSummaryEvent.class);
+        EVENT_CLASSES.put("step_end", StepEndEvent.class);
+        EVENT_CLASSES.put("queue_wait", QueueWaitEvent.class);
+        EVENT_CLASSES.put("executor_wait", ExecutorWaitEvent.class);
+        EVENT_CLASSES.put("stage_regression", StageRegressionEvent.class);
+        EVENT_CLASSES.put("stage_resource_usage", StageResourceUsageEvent.class);
+    }
+    
+    // Run-level events leave these MetricEvent fields null, so they never reach the payload
+    private static final Set<String> STAGE_FIELDS = new HashSet<>(Arrays.asList("stage_id", "stage_name", "node_id"));
+    
+    private static JsonObject loadSchema() throws Exception {
+        try (Reader reader = Files.newBufferedReader(Paths.get("event-schema.json"), StandardCharsets.UTF_8)) {
+            return new Gson().fromJson(reader, JsonObject.class);
+        }
+    }
+    
+    /**
+     * Follow a local {@code $ref}, e.g. {@code #/definitions/resourceUsage}.
+     */
+    private static JsonObject resolve(JsonObject schema, JsonObject root) {
+        while (schema.has("$ref")) {
+            JsonObject target = root;
+            for (String segment : schema.get("$ref").getAsString().substring(2).split("/")) {
+                target = target.getAsJsonObject(segment);
+            }
+            schema = target;
+        }
+        return schema;
+    }
+    
+    /**
+     * Collect the properties an object schema allows, through {@code $ref} and {@code allOf}.
+     * Later parts override earlier ones, so a variant's {@code const} replaces the base {@code enum}.
+     */
+    private static void collectProperties(JsonObject schema, JsonObject root, Map<String, JsonObject> properties) {
+        schema = resolve(schema, root);
+        if (schema.has("allOf")) {
+            for (JsonElement part : schema.getAsJsonArray("allOf")) {
+                collectProperties(part.getAsJsonObject(), root, properties);
+            }
+        }
+        if (schema.has("properties")) {
+            for (Map.Entry<String, JsonElement> property : schema.getAsJsonObject("properties").entrySet()) {
+                properties.put(property.getKey(), property.getValue().getAsJsonObject());
+            }
+        }
+    }
+    
+    private static Map<String, JsonObject> properties(JsonObject schema, JsonObject root) {
+        Map<String, JsonObject> properties = new LinkedHashMap<>();
+        collectProperties(schema, root, properties);
+        return properties;
+    }
+    
+    private static Map<String, Field> serializedFields(Class<?> type) {
+        Map<String, Field> fields = new LinkedHashMap<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+                    continue;
+                }
+                SerializedName name = field.getAnnotation(SerializedName.class);
+                assertNotNull("Field " + c.getSimpleName() + "." + field.getName() + " has no @SerializedName", name);
+                fields.put(name.value(), field);
+            }
+        }
+        return fields;
+    }
+    
+    /**
+     * @return The plugin class a field holds as a nested object, directly or as list elements, or null for values
+     */
+    private static Class<?> nestedType(Field field) {
+        Type type = field.getGenericType();
+        if (type instanceof ParameterizedType && List.class.equals(((ParameterizedType) type).getRawType())) {
+            type = ((ParameterizedType) type).getActualTypeArguments()[0];
+        }
+        if (type instanceof Class && ((Class<?>) type).getPackage() == MetricEvent.class.getPackage()
+                && !((Class<?>) type).isEnum()) {
+            return (Class<?>) type;
+        }
+        return null;
+    }
+    
+    /**
+     * Check a class against an object schema in both directions, then its nested objects against their schemas.
+     * @param optional Fields of the class the schema may leave out
+     */
+    private static void assertMatches(String path, Class<?> type, Map<String, JsonObject> properties,
+                                      Set<String> optional, JsonObject root) {
+        Map<String, Field> fields = serializedFields(type);
+        for (String name : fields.keySet()) {
+            assertTrue(path + "." + name + " is missing from event-schema.json",
+                properties.containsKey(name) || optional.contains(name));
+        }
+        for (String name : properties.keySet()) {
+            assertTrue(path + "." + name + " is in event-schema.json but not in " + type.getSimpleName(),
+                fields.containsKey(name));
+        }
+        
+        for (Map.Entry<String, Field> field : fields.entrySet()) {
+            Class<?> nested = nestedType(field.getValue());
+            JsonObject property = properties.get(field.getKey());
+            if (nested == null || property == null) {
+                continue;
+            }
+            JsonObject schema = resolve(property, root);
+            if (schema.has("items")) {
+                schema = resolve(schema.getAsJsonObject("items"), root);
+            }
+            assertMatches(path + "." + field.getKey(), nested, properties(schema, root), Collections.emptySet(), root);
+        }
+    }
+    
+    @Test
+    public void testEveryEventMatchesItsVariant() throws Exception {
+        JsonObject root = loadSchema();
+        Set<String> variantTypes = new HashSet<>();
+        for (JsonElement variant : root.getAsJsonArray("oneOf")) {
+            Map<String, JsonObject> properties = properties(variant.getAsJsonObject(), root);
+            String type = properties.get("event_type").get("const").getAsString();
+            assertTrue("Duplicate variant for " + type, variantTypes.add(type));
+            
+            Class<? extends MetricEvent> eventClass = EVENT_CLASSES.get(type);
+            assertNotNull("No event class for variant " + type, eventClass);
+            assertMatches(type, eventClass, properties,
+                properties.containsKey("stage_id") ? Collections.emptySet() : STAGE_FIELDS, root);
+        }
+        assertEquals(EVENT_CLASSES.keySet(), variantTypes);
+    }
+    
+    @Test
+    public void testEveryEventTypeIsInSchema() throws Exception {
+        JsonArray enumValues = loadSchema().getAsJsonObject("definitions")
+            .getAsJsonObject("runEvent").getAsJsonObject("properties")
+            .getAsJsonObject("event_type").getAsJsonArray("enum");
+        Set<String> schemaTypes = new HashSet<>();
+        for (JsonElement value : enumValues) {
+            schemaTypes.add(value.getAsString());
+        }
+        
+        Set<String> variantTypes = new HashSet<>();
+        for (JsonElement variant : loadSchema().getAsJsonArray("oneOf")) {
+            for (JsonElement part : variant.getAsJsonObject().getAsJsonArray("allOf")) {
+                JsonObject properties = part.getAsJsonObject().getAsJsonObject("properties");
+                if (properties != null && properties.has("event_type")) {
+                    variantTypes.add(properties.getAsJsonObject("event_type").get("const").getAsString());
+                }
+            }
+        }
+        
+        assertEquals(schemaTypes, variantTypes);
+        assertEquals(EVENT_CLASSES.keySet(), schemaTypes);
+    }
+}
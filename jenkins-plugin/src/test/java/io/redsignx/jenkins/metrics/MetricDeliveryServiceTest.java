@@ -1,6 +1,18 @@
 package io.redsignx.jenkins.metrics;
 
+import org.junit.Assume;
 import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.Assert.*;
 
 /**
@@ -8,6 +20,8 @@ import static org.junit.Assert.*;
  */
 public class MetricDeliveryServiceTest {
     
+    private static final DeadLetterFile NO_DEAD_LETTERS = new DeadLetterFile(null, 0);
+    
     @Test
     public void testQueueEventWithNoConfiguration() {
         // When no configuration is set, events should be dropped gracefully
@@ -29,4 +43,466 @@ public class MetricDeliveryServiceTest {
         boolean result = service.queueEvent(null);
         assertFalse(result);
     }
+    
+    private static DeliveryConfig config(long version, int maxQueueSize, int deliveryThreads) {
+        return config(version, maxQueueSize, deliveryThreads, Collections.singletonList("http://localhost/events"));
+    }
+    
+    private static DeliveryConfig config(long version, int maxQueueSize, int deliveryThreads, List<String> endpoints) {
+        return new DeliveryConfig(version, endpoints, null, WireFormat.JSON,
+            1, 1, maxQueueSize, 0, 0, deliveryThreads, 1, false, 256, 100);
+    }
+    
+    private static DeliveryConfig virtualConfig(long version, int deliveryThreads, int maxConcurrentDeliveries) {
+        return new DeliveryConfig(version, Collections.singletonList("http://localhost/events"), null, WireFormat.JSON,
+            1, 1, 1000, 0, 0, deliveryThreads, 1, true, maxConcurrentDeliveries, 100);
+    }
+    
+    private static StageStartEvent event(int i) {
+        return new StageStartEvent("stage-" + i, "Test", "test/job", 1, "url", null, null, null, "node-" + i, 0L);
+    }
+    
+    /**
+     * Records sent events and lets tests wait for them.
+     */
+    private static class RecordingSender implements EventSender {
+        final List<MetricEvent> sent = new CopyOnWriteArrayList<>();
+        final List<String> endpoints = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch;
+        final AtomicInteger attempts = new AtomicInteger();
+        String failingEndpoint;
+        boolean clientError;
+        // How many requests to the failing endpoint fail
+        final AtomicInteger failures = new AtomicInteger(Integer.MAX_VALUE);
+        
+        RecordingSender(int expected) {
+            latch = new CountDownLatch(expected);
+        }
+        
+        @Override
+        public DeliveryResult send(List<MetricEvent> events, String endpointUrl, DeliveryConfig config)
+                throws IOException {
+            attempts.incrementAndGet();
+            if (endpointUrl.equals(failingEndpoint) && failures.getAndDecrement() > 0) {
+                throw clientError
+                    ? new EventSender.ClientErrorException("HTTP request failed with status code: 401")
+                    : new IOException("HTTP request failed with status code: 503");
+            }
+            for (MetricEvent event : events) {
+                sent.add(event);
+                endpoints.add(endpointUrl);
+                latch.countDown();
+            }
+            return DeliveryResult.of(events.size(), DeliveryResult.Outcome.ACCEPTED, null);
+        }
+        
+        @Override
+        public void reconfigure(DeliveryConfig config) {
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+    
+    /**
+     * Endpoint stats are recorded after the sender returns, so wait for them to settle.
+     */
+    private static EndpointRouter.EndpointStats awaitStats(MetricDeliveryService service, String endpoint,
+                                                           long sent) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            EndpointRouter.EndpointStats found = null;
+            for (EndpointRouter.EndpointStats stats : service.getEndpointStats()) {
+                if (stats.getEndpoint().equals(endpoint)) {
+                    found = stats;
+                }
+            }
+            if ((found != null && found.getSent() >= sent) || System.currentTimeMillis() > deadline) {
+                return found;
+            }
+            Thread.sleep(20);
+        }
+    }
+    
+    @Test
+    public void testQueueCapacityChangesWithoutLosingEvents() throws Exception {
+        RecordingSender sender = new RecordingSender(5);
+        MetricDeliveryService service = new MetricDeliveryService(config(1, 3, 1), sender, NO_DEAD_LETTERS);
+        
+        for (int i = 0; i < 3; i++) {
+            assertTrue(service.queueEvent(event(i)));
+        }
+        assertFalse(service.queueEvent(event(3)));
+        
+        service.reconfigure(config(2, 5, 1));
+        assertTrue(service.queueEvent(event(4)));
+        assertTrue(service.queueEvent(event(5)));
+        
+        // Shrinking keeps what is queued and only rejects new events
+        service.reconfigure(config(3, 2, 1));
+        assertEquals(5, service.getQueuedCount());
+        assertFalse(service.queueEvent(event(6)));
+        
+        service.start();
+        try {
+            assertTrue(sender.latch.await(10, TimeUnit.SECONDS));
+            assertEquals(5, sender.sent.size());
+            assertEquals(0, service.getQueuedCount());
+            assertTrue(service.queueEvent(event(7)));
+        } finally {
+            service.shutdown();
+        }
+    }
+    
+    @Test
+    public void testWorkerCountFollowsConfiguration() {
+        MetricDeliveryService service =
+            new MetricDeliveryService(config(1, 10, 2), new RecordingSender(0), NO_DEAD_LETTERS);
+        service.start();
+        try {
+            assertEquals(2, service.getWorkerCount());
+            service.reconfigure(config(2, 10, 4));
+            assertEquals(4, service.getWorkerCount());
+            service.reconfigure(config(3, 10, 1));
+            assertEquals(1, service.getWorkerCount());
+            
+            // A snapshot older than the applied one is ignored
+            service.reconfigure(config(2, 10, 4));
+            assertEquals(1, service.getWorkerCount());
+        } finally {
+            service.shutdown();
+        }
+    }
+    
+    @Test
+    public void testFailsOverToNextEndpoint() throws Exception {
+        List<String> endpoints = Arrays.asList("http://collector-1/events", "http://collector-2/events");
+        RecordingSender sender = new RecordingSender(1);
+        MetricDeliveryService service = new MetricDeliveryService(config(1, 10, 1, endpoints), sender, NO_DEAD_LETTERS);
+        
+        EndpointRouter router = new EndpointRouter(endpoints);
+        StageStartEvent event = event(0);
+        String owner = router.owner(event.getJobFullName());
+        sender.failingEndpoint = owner;
+        
+        service.start();
+        try {
+            assertTrue(service.queueEvent(event));
+            assertTrue(sender.latch.await(10, TimeUnit.SECONDS));
+            String fallback = sender.endpoints.get(0);
+            assertNotEquals(owner, fallback);
+            
+            EndpointRouter.EndpointStats fallbackStats = awaitStats(service, fallback, 1);
+            assertEquals(1, fallbackStats.getSent());
+            assertEquals(1, fallbackStats.getFailovers());
+            EndpointRouter.EndpointStats ownerStats = awaitStats(service, owner, 0);
+            assertEquals(1, ownerStats.getFailed());
+            assertEquals(0, ownerStats.getSent());
+        } finally {
+            service.shutdown();
+        }
+    }
+    
+    @Test
+    public void testClientErrorRetriesWithoutFailover() throws Exception {
+        List<String> endpoints = Arrays.asList("http://collector-1/events", "http://collector-2/events");
+        DeliveryConfig config = new DeliveryConfig(1, endpoints, null, WireFormat.JSON,
+            1, 1, 10, 3, 0, 1, 1, false, 256, 100);
+        RecordingSender sender = new RecordingSender(1);
+        MetricDeliveryService service = new MetricDeliveryService(config, sender, NO_DEAD_LETTERS);
+        
+        StageStartEvent event = new StageStartEvent("delivery/unauthorized#1:3", "Test", "delivery/unauthorized", 1,
+            "url", null, null, null, "3", 0L);
+        String owner = new EndpointRouter(endpoints).owner(event.getJobFullName());
+        sender.failingEndpoint = owner;
+        sender.clientError = true;
+        sender.failures.set(1);
+        
+        service.start();
+        try {
+            assertTrue(service.queueEvent(event));
+            assertTrue(sender.latch.await(10, TimeUnit.SECONDS));
+            
+            // Refused once by the owner, then accepted by it; the other endpoint is never tried
+            assertEquals(2, sender.attempts.get());
+            assertEquals(Collections.singletonList(owner), sender.endpoints);
+            EndpointRouter.EndpointStats stats = awaitStats(service, owner, 1);
+            assertEquals(0, stats.getFailed());
+            assertEquals(0, stats.getFailovers());
+            assertTrue(stats.isHealthy());
+        } finally {
+            service.shutdown();
+        }
+    }
+    
+    @Test
+    public void testRetryHoldsBackLaterEventsOfTheJob() throws Exception {
+        // Two delivery threads, one retry after a second
+        DeliveryConfig config = new DeliveryConfig(1, Collections.singletonList("http://localhost/events"), null,
+            WireFormat.JSON, 1, 1, 10, 1, 1, 2, 1, false, 256, 100);
+        CountDownLatch firstAttempt = new CountDownLatch(1);
+        RecordingSender sender = new RecordingSender(2) {
+            @Override
+            public DeliveryResult send(List<MetricEvent> events, String endpointUrl, DeliveryConfig config)
+                    throws IOException {
+                if (attempts.get() == 0) {
+                    attempts.incrementAndGet();
+                    firstAttempt.countDown();
+                    throw new IOException("HTTP request failed with status code: 503");
+                }
+                return super.send(events, endpointUrl, config);
+            }
+        };
+        MetricDeliveryService service = new MetricDeliveryService(config, sender, NO_DEAD_LETTERS);
+        service.start();
+        try {
+            assertTrue(service.queueEvent(event(0)));
+            assertTrue(firstAttempt.await(10, TimeUnit.SECONDS));
+            // Queued while the first event waits for its retry, with a delivery thread to spare
+            assertTrue(service.queueEvent(event(1)));
+            
+            assertTrue(sender.latch.await(10, TimeUnit.SECONDS));
+            assertEquals("stage-0", sender.sent.get(0).getStageId());
+            assertEquals("stage-1", sender.sent.get(1).getStageId());
+        } finally {
+            service.shutdown();
+        }
+    }
+    
+    @Test
+    public void testRetryDoesNotHoldBackOtherJobsOnTheEndpoint() throws Exception {
+        // Two delivery threads, one retry after a second, a single endpoint
+        DeliveryConfig config = new DeliveryConfig(1, Collections.singletonList("http://localhost/events"), null,
+            WireFormat.JSON, 1, 1, 10, 1, 1, 2, 1, false, 256, 100);
+        CountDownLatch firstAttempt = new CountDownLatch(1);
+        RecordingSender sender = new RecordingSender(2) {
+            @Override
+            public DeliveryResult send(List<MetricEvent> events, String endpointUrl, DeliveryConfig config)
+                    throws IOException {
+                if (attempts.get() == 0) {
+                    attempts.incrementAndGet();
+                    firstAttempt.countDown();
+                    throw new IOException("HTTP request failed with status code: 503");
+                }
+                return super.send(events, endpointUrl, config);
+            }
+        };
+        MetricDeliveryService service = new MetricDeliveryService(config, sender, NO_DEAD_LETTERS);
+        service.start();
+        try {
+            assertTrue(service.queueEvent(new StageStartEvent("retry/job-a#1:3", "Test", "retry/job-a", 1, "url",
+                null, null, null, "3", 0L)));
+            assertTrue(firstAttempt.await(10, TimeUnit.SECONDS));
+            // Another job on the same endpoint goes out while the first waits for its retry
+            assertTrue(service.queueEvent(new StageStartEvent("retry/job-b#1:3", "Test", "retry/job-b", 1, "url",
+                null, null, null, "3", 0L)));
+            
+            assertTrue(sender.latch.await(10, TimeUnit.SECONDS));
+            assertEquals("retry/job-b", sender.sent.get(0).getJobFullName());
+            assertEquals("retry/job-a", sender.sent.get(1).getJobFullName());
+        } finally {
+            service.shutdown();
+        }
+    }
+    
+    @Test
+    public void testRetryBackoffFreesTheDeliveryThread() throws Exception {
+        // A single delivery thread, one retry after a second
+        DeliveryConfig config = new DeliveryConfig(1, Collections.singletonList("http://localhost/events"), null,
+            WireFormat.JSON, 1, 1, 10, 1, 1, 1, 1, false, 256, 100);
+        CountDownLatch firstAttempt = new CountDownLatch(1);
+        RecordingSender sender = new RecordingSender(2) {
+            @Override
+            public DeliveryResult send(List<MetricEvent> events, String endpointUrl, DeliveryConfig config)
+                    throws IOException {
+                if (attempts.get() == 0) {
+                    attempts.incrementAndGet();
+                    firstAttempt.countDown();
+                    throw new IOException("HTTP request failed with status code: 503");
+                }
+                return super.send(events, endpointUrl, config);
+            }
+        };
+        MetricDeliveryService service = new MetricDeliveryService(config, sender, NO_DEAD_LETTERS);
+        service.start();
+        try {
+            assertTrue(service.queueEvent(new StageStartEvent("retry/job-a#1:3", "Test", "retry/job-a", 1, "url",
+                null, null, null, "3", 0L)));
+            assertTrue(firstAttempt.await(10, TimeUnit.SECONDS));
+            assertTrue(service.queueEvent(new StageStartEvent("retry/job-b#1:3", "Test", "retry/job-b", 1, "url",
+                null, null, null, "3", 0L)));
+            
+            // Delivered by the only thread well before the first job's retry is due
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.SECONDS.toNanos(10);
+            while (sender.sent.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("retry/job-b", sender.sent.get(0).getJobFullName());
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(800));
+            
+            assertTrue(sender.latch.await(10, TimeUnit.SECONDS));
+            assertEquals("retry/job-a", sender.sent.get(1).getJobFullName());
+            assertEquals(1, service.getWorkerCount());
+        } finally {
+            service.shutdown();
+        }
+    }
+    
+    @Test
+    public void testEachJobFailsOverAlongItsOwnRoute() throws Exception {
+        List<String> endpoints = Arrays.asList(
+            "http://collector-1/events", "http://collector-2/events", "http://collector-3/events");
+        EndpointRouter router = new EndpointRouter(endpoints);
+        // Two jobs sharing an owner but not the endpoint after it
+        String owner = null;
+        String[] jobs = new String[2];
+        for (int i = 0; jobs[1] == null; i++) {
+            String job = "route/job-" + i;
+            List<String> walk = router.walk(job);
+            if (jobs[0] == null) {
+                jobs[0] = job;
+                owner = walk.get(0);
+            } else if (walk.get(0).equals(owner) && !walk.get(1).equals(router.walk(jobs[0]).get(1))) {
+                jobs[1] = job;
+            }
+        }
+        RecordingSender sender = new RecordingSender(2);
+        sender.failingEndpoint = owner;
+        MetricDeliveryService service = new MetricDeliveryService(config(1, 10, 1, endpoints), sender, NO_DEAD_LETTERS);
+        for (String job : jobs) {
+            assertTrue(service.queueEvent(new StageStartEvent(job + "#1:3", "Test", job, 1, "url",
+                null, null, null, "3", 0L)));
+        }
+        service.start();
+        try {
+            assertTrue(sender.latch.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 2; i++) {
+                String job = sender.sent.get(i).getJobFullName();
+                assertEquals(router.walk(job).get(1), sender.endpoints.get(i));
+            }
+        } finally {
+            service.shutdown();
+        }
+    }
+    
+    @Test
+    public void testDeliveryThreadsShareOneEndpoint() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSender sender = new RecordingSender(20) {
+            @Override
+            public DeliveryResult send(List<MetricEvent> events, String endpointUrl, DeliveryConfig config)
+                    throws IOException {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                return super.send(events, endpointUrl, config);
+            }
+        };
+        MetricDeliveryService service = new MetricDeliveryService(config(1, 100, 4), sender, NO_DEAD_LETTERS);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(service.queueEvent(new StageStartEvent("stage-" + i, "Test", "threads/job-" + i, 1, "url",
+                null, null, null, "node-" + i, 0L)));
+        }
+        service.start();
+        try {
+            // Every delivery thread has a request in flight to the single endpoint
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (inFlight.get() < 4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            assertEquals(4, maxInFlight.get());
+            
+            release.countDown();
+            assertTrue(sender.latch.await(10, TimeUnit.SECONDS));
+            assertEquals(4, maxInFlight.get());
+        } finally {
+            service.shutdown();
+        }
+    }
+    
+    @Test
+    public void testVirtualThreadsBoundInFlightDeliveries() throws Exception {
+        Assume.assumeTrue("Virtual threads need Java 21", VirtualThreads.isSupported());
+        
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSender sender = new RecordingSender(40) {
+            @Override
+            public DeliveryResult send(List<MetricEvent> events, String endpointUrl, DeliveryConfig config)
+                    throws IOException {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                return super.send(events, endpointUrl, config);
+            }
+        };
+        // A single endpoint and one job per event, so only the limit keeps requests from going out together
+        List<MetricEvent> events = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            events.add(new StageStartEvent("stage-" + i, "Test", "virtual/job-" + i, 1, "url", null, null, null,
+                "node-" + i, 0L));
+        }
+        MetricDeliveryService service =
+            new MetricDeliveryService(virtualConfig(1, 1, 8), sender, NO_DEAD_LETTERS);
+        service.start();
+        try {
+            assertTrue(service.isUsingVirtualThreads());
+            assertEquals(1, service.getWorkerCount());
+            for (MetricEvent event : events) {
+                assertTrue(service.queueEvent(event));
+            }
+            
+            // Far more than the single delivery thread, and never more than the limit
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (inFlight.get() < 8 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            assertEquals(8, maxInFlight.get());
+            
+            release.countDown();
+            assertTrue(sender.latch.await(10, TimeUnit.SECONDS));
+            assertEquals(8, maxInFlight.get());
+            
+            // Switching back applies without a restart
+            service.reconfigure(virtualConfig(2, 1, 8));
+            service.reconfigure(config(3, 1000, 3));
+            assertFalse(service.isUsingVirtualThreads());
+            assertEquals(3, service.getWorkerCount());
+        } finally {
+            service.shutdown();
+        }
+    }
+    
+    @Test
+    public void testVirtualThreadsFallBackOnOlderJvms() throws Exception {
+        RecordingSender sender = new RecordingSender(3);
+        MetricDeliveryService service = new MetricDeliveryService(virtualConfig(1, 2, 8), sender, NO_DEAD_LETTERS);
+        service.start();
+        try {
+            boolean supported = VirtualThreads.isSupported();
+            assertEquals(supported, service.isUsingVirtualThreads());
+            assertEquals(supported ? 1 : 2, service.getWorkerCount());
+            for (int i = 0; i < 3; i++) {
+                assertTrue(service.queueEvent(event(i)));
+            }
+            assertTrue(sender.latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            service.shutdown();
+        }
+    }
 }
@@ -73,6 +73,40 @@ public class MetricEventTest {
         assertEquals(5000L, obj.get("duration_ms").getAsLong());
         assertEquals("PR-123", obj.get("change_id").getAsString());
         assertEquals("develop", obj.get("change_target").getAsString());
+        assertFalse(obj.has("resource_usage"));
+    }
+    
+    @Test
+    public void testStageResourceUsageEvent() {
+        ResourceUsage usage = new ResourceUsage(null, 8, 62.5, 4.1, 97.3,
+            33554432000L, 21474836480L, 104857600L, 524288000L, 7).withAgentName("linux-1");
+        StageResourceUsageEvent event = new StageResourceUsageEvent(
+            "stage-123",
+            "Build",
+            "test/job",
+            42,
+            "http://jenkins/job/test/42",
+            "main",
+            null,
+            null,
+            "node-456",
+            1234567890000L,
+            usage
+        );
+        
+        String json = gson.toJson(event);
+        JsonObject obj = gson.fromJson(json, JsonObject.class);
+        
+        assertEquals("stage_resource_usage", obj.get("event_type").getAsString());
+        assertEquals("stage-123", obj.get("stage_id").getAsString());
+        JsonObject resources = obj.getAsJsonObject("resource_usage");
+        assertNotNull(resources);
+        assertEquals("linux-1", resources.get("agent_name").getAsString());
+        assertEquals(8, resources.get("cpu_count").getAsInt());
+        assertEquals(62.5, resources.get("cpu_busy_percent").getAsDouble(), 0.001);
+        assertEquals(21474836480L, resources.get("memory_peak_used_bytes").getAsLong());
+        assertEquals(524288000L, resources.get("disk_write_bytes").getAsLong());
+        assertEquals(7, resources.get("sample_count").getAsInt());
     }
     
     @Test
@@ -101,6 +135,69 @@ public class MetricEventTest {
         assertEquals("Build failed: compilation error", obj.get("error_message").getAsString());
     }
     
+    @Test
+    public void testStageCompleteEventPayload() {
+        StageCompleteEvent event = new StageCompleteEvent(
+            "stage-123",
+            "Lint",
+            "test/job",
+            42,
+            "http://jenkins/job/test/42",
+            "main",
+            null,
+            null,
+            "node-456",
+            1234567888000L,
+            1234567890000L,
+            "SUCCESS",
+            "SUCCESS",
+            2000L,
+            null
+        );
+        
+        String json = gson.toJson(event);
+        JsonObject obj = gson.fromJson(json, JsonObject.class);
+        
+        assertEquals("stage_complete", obj.get("event_type").getAsString());
+        assertEquals(1234567888000L, obj.get("start_timestamp").getAsLong());
+        assertEquals(1234567890000L, obj.get("timestamp").getAsLong());
+        assertEquals("SUCCESS", obj.get("status").getAsString());
+        assertEquals(2000L, obj.get("duration_ms").getAsLong());
+    }
+    
+    @Test
+    public void testStepEndEventPayload() {
+        StepEndEvent event = new StepEndEvent(
+            "stage-123",
+            "Build",
+            "test/job",
+            42,
+            "http://jenkins/job/test/42",
+            "main",
+            null,
+            null,
+            "node-460",
+            1234567890000L,
+            "sh",
+            1234567889800L,
+            "SUCCESS",
+            200L,
+            null,
+            StepSampler.Reason.SAMPLED,
+            10
+        );
+        
+        String json = gson.toJson(event);
+        JsonObject obj = gson.fromJson(json, JsonObject.class);
+        
+        assertEquals("step_end", obj.get("event_type").getAsString());
+        assertEquals("stage-123", obj.get("stage_id").getAsString());
+        assertEquals("node-460", obj.get("node_id").getAsString());
+        assertEquals("sh", obj.get("step_type").getAsString());
+        assertEquals("SAMPLED", obj.get("sample_reason").getAsString());
+        assertEquals(10, obj.get("sample_weight").getAsInt());
+    }
+    
     @Test
     public void testEventVersionIsIncluded() {
         StageStartEvent event = new StageStartEvent(
@@ -0,0 +1,281 @@
+package io.redsignx.jenkins.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests OTLP/HTTP span export against an in-process stub receiver.
+ */
+public class OtlpTraceExporterTest {
+    
+    private HttpServer receiver;
+    private final List<byte[]> requests = new CopyOnWriteArrayList<>();
+    private final List<String> contentTypes = new CopyOnWriteArrayList<>();
+    private final List<Integer> clientPorts = new CopyOnWriteArrayList<>();
+    private volatile int responseCode = 200;
+    
+    @Before
+    public void setUp() throws IOException {
+        receiver = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        receiver.createContext("/v1/traces", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                in.transferTo(body);
+                requests.add(body.toByteArray());
+            }
+            contentTypes.add(exchange.getRequestHeaders().getFirst("Content-Type"));
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            exchange.sendResponseHeaders(responseCode, -1);
+            exchange.close();
+        });
+        receiver.start();
+    }
+    
+    @After
+    public void tearDown() {
+        receiver.stop(0);
+    }
+    
+    private DeliveryConfig config(long version, int maxQueueSize, int batchSize) {
+        return new DeliveryConfig(version, Collections.emptyList(), null, WireFormat.JSON, 5, 5, 100, 3, 0, 1, 1,
+            false, 256, 100, "http://127.0.0.1:" + receiver.getAddress().getPort() + "/v1/traces",
+            maxQueueSize, batchSize);
+    }
+    
+    private static OtlpSpan stageSpan(String nodeId, String parentNodeId, boolean error) {
+        return new OtlpSpan(
+            OtlpSpan.traceId("folder/job", 42),
+            OtlpSpan.stageSpanId("folder/job", 42, nodeId),
+            parentNodeId == null ? OtlpSpan.buildSpanId("folder/job", 42)
+                : OtlpSpan.stageSpanId("folder/job", 42, parentNodeId),
+            "Stage " + nodeId,
+            1000L,
+            2500L,
+            error,
+            error ? "script returned exit code 1" : null,
+            Collections.singletonMap("jenkins.stage_name", "Stage " + nodeId)
+        );
+    }
+    
+    @Test
+    public void testIdsAreStableAndDistinct() {
+        assertArrayEquals(OtlpSpan.traceId("folder/job", 42), OtlpSpan.traceId("folder/job", 42));
+        assertEquals(16, OtlpSpan.traceId("folder/job", 42).length);
+        assertEquals(8, OtlpSpan.stageSpanId("folder/job", 42, "7").length);
+        assertFalse(java.util.Arrays.equals(OtlpSpan.traceId("folder/job", 42), OtlpSpan.traceId("folder/job", 43)));
+        assertFalse(java.util.Arrays.equals(OtlpSpan.stageSpanId("folder/job", 42, "7"),
+            OtlpSpan.stageSpanId("folder/job", 42, "8")));
+        assertFalse(java.util.Arrays.equals(OtlpSpan.buildSpanId("folder/job", 42),
+            OtlpSpan.stageSpanId("folder/job", 42, "7")));
+    }
+    
+    @Test
+    public void testExportsBatchedProtobufRequests() {
+        OtlpTraceExporter exporter = new OtlpTraceExporter(config(1, 100, 2));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(exporter.export(stageSpan(String.valueOf(10 + i), i == 0 ? null : "10", false)));
+        }
+        
+        assertEquals(5, exporter.flush());
+        assertEquals(0, exporter.getQueuedCount());
+        assertEquals(3, requests.size());
+        assertEquals("application/x-protobuf", contentTypes.get(0));
+        
+        List<Map<Integer, List<Object>>> spans = new ArrayList<>();
+        for (byte[] request : requests) {
+            spans.addAll(spans(request));
+        }
+        assertEquals(5, spans.size());
+        
+        Map<Integer, List<Object>> root = spans.get(0);
+        assertEquals("Stage 10", string(root, 5));
+        assertArrayEquals(OtlpSpan.traceId("folder/job", 42), (byte[]) root.get(1).get(0));
+        assertArrayEquals(OtlpSpan.buildSpanId("folder/job", 42), (byte[]) root.get(4).get(0));
+        assertEquals(1_000_000_000L, root.get(7).get(0));
+        assertEquals(2_500_000_000L, root.get(8).get(0));
+        
+        Map<Integer, List<Object>> child = spans.get(1);
+        assertArrayEquals(OtlpSpan.stageSpanId("folder/job", 42, "10"), (byte[]) child.get(4).get(0));
+    }
+    
+    @Test
+    public void testErrorStatusIsEncoded() {
+        OtlpTraceExporter exporter = new OtlpTraceExporter(config(1, 10, 10));
+        exporter.export(stageSpan("7", null, true));
+        exporter.flush();
+        
+        Map<Integer, List<Object>> status = parse((byte[]) spans(requests.get(0)).get(0).get(15).get(0));
+        assertEquals("script returned exit code 1", string(status, 2));
+        assertEquals(2L, status.get(3).get(0));
+    }
+    
+    @Test
+    public void testSuccessfulSpanLeavesStatusUnset() {
+        OtlpTraceExporter exporter = new OtlpTraceExporter(config(1, 10, 10));
+        exporter.export(stageSpan("7", null, false));
+        exporter.flush();
+        
+        assertFalse(spans(requests.get(0)).get(0).containsKey(15));
+    }
+    
+    @Test
+    public void testBufferIsBounded() {
+        OtlpTraceExporter exporter = new OtlpTraceExporter(config(1, 2, 10));
+        assertTrue(exporter.export(stageSpan("1", null, false)));
+        assertTrue(exporter.export(stageSpan("2", null, false)));
+        assertFalse(exporter.export(stageSpan("3", null, false)));
+        assertEquals(2, exporter.getQueuedCount());
+    }
+    
+    @Test
+    public void testBufferIsResizedFromNewerSnapshot() {
+        OtlpTraceExporter exporter = new OtlpTraceExporter(config(1, 1, 10));
+        assertTrue(exporter.export(stageSpan("1", null, false)));
+        assertFalse(exporter.export(stageSpan("2", null, false)));
+        
+        exporter.reconfigure(config(2, 3, 10));
+        assertTrue(exporter.export(stageSpan("2", null, false)));
+        assertTrue(exporter.export(stageSpan("3", null, false)));
+        assertFalse(exporter.export(stageSpan("4", null, false)));
+        
+        // An older snapshot arriving late does not shrink it back
+        exporter.reconfigure(config(1, 1, 10));
+        assertEquals(3, exporter.flush());
+        assertTrue(exporter.export(stageSpan("5", null, false)));
+        assertTrue(exporter.export(stageSpan("6", null, false)));
+    }
+    
+    @Test
+    public void testFailedBatchIsDroppedAfterLastRetry() {
+        responseCode = 503;
+        OtlpTraceExporter exporter = new OtlpTraceExporter(config(1, 10, 10));
+        exporter.export(stageSpan("1", null, false));
+        
+        // One attempt and three retries, the backoff is 0 seconds in this configuration
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, exporter.flush());
+        }
+        assertEquals(4, requests.size());
+        assertEquals(0, exporter.getQueuedCount());
+        assertEquals(1, exporter.getDroppedCount());
+        assertEquals(0, exporter.getExportedCount());
+        
+        assertEquals(0, exporter.flush());
+        assertEquals(4, requests.size());
+    }
+    
+    @Test
+    public void testFailedBatchIsRetriedBeforeLaterSpans() throws Exception {
+        responseCode = 503;
+        OtlpTraceExporter exporter = new OtlpTraceExporter(config(1, 10, 1));
+        exporter.export(stageSpan("1", null, false));
+        exporter.export(stageSpan("2", null, false));
+        
+        // The first batch fails, the second waits behind it
+        assertEquals(0, exporter.flush());
+        assertEquals(1, requests.size());
+        assertEquals(1, exporter.getQueuedCount());
+        
+        responseCode = 200;
+        assertEquals(2, exporter.flush());
+        assertEquals(3, requests.size());
+        assertArrayEquals(OtlpSpan.stageSpanId("folder/job", 42, "1"), (byte[]) spans(requests.get(1)).get(0).get(2).get(0));
+        assertArrayEquals(OtlpSpan.stageSpanId("folder/job", 42, "2"), (byte[]) spans(requests.get(2)).get(0).get(2).get(0));
+        assertEquals(2, exporter.getExportedCount());
+        assertEquals(0, exporter.getDroppedCount());
+    }
+    
+    @Test
+    public void testConnectionIsReusedAcrossBatches() {
+        OtlpTraceExporter exporter = new OtlpTraceExporter(config(1, 10, 10));
+        for (int i = 0; i < 3; i++) {
+            exporter.export(stageSpan(String.valueOf(i), null, false));
+            assertEquals(1, exporter.flush());
+        }
+        
+        assertEquals(3, clientPorts.size());
+        assertEquals(1, clientPorts.stream().distinct().count());
+        exporter.shutdown();
+    }
+    
+    @Test
+    public void testFullBufferCountsDroppedSpans() {
+        OtlpTraceExporter exporter = new OtlpTraceExporter(config(1, 1, 10));
+        assertTrue(exporter.export(stageSpan("1", null, false)));
+        assertFalse(exporter.export(stageSpan("2", null, false)));
+        assertEquals(1, exporter.getDroppedCount());
+    }
+    
+    /**
+     * Extract the Span messages from an ExportTraceServiceRequest.
+     */
+    private static List<Map<Integer, List<Object>>> spans(byte[] request) {
+        List<Map<Integer, List<Object>>> spans = new ArrayList<>();
+        for (Object resourceSpans : parse(request).get(1)) {
+            for (Object scopeSpans : parse((byte[]) resourceSpans).get(2)) {
+                for (Object span : parse((byte[]) scopeSpans).getOrDefault(2, Collections.emptyList())) {
+                    spans.add(parse((byte[]) span));
+                }
+            }
+        }
+        return spans;
+    }
+    
+    private static String string(Map<Integer, List<Object>> message, int field) {
+        return new String((byte[]) message.get(field).get(0), StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Decode one protobuf message into field number to values; nested messages stay as bytes.
+     */
+    private static Map<Integer, List<Object>> parse(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        Map<Integer, List<Object>> fields = new TreeMap<>();
+        while (in.hasRemaining()) {
+            long tag = readVarint(in);
+            Object value;
+            switch ((int) (tag & 7)) {
+                case 0: value = readVarint(in); break;
+                case 1: value = in.getLong(); break;
+                case 2: {
+                    byte[] data = new byte[(int) readVarint(in)];
+                    in.get(data);
+                    value = data;
+                    break;
+                }
+                default: throw new IllegalArgumentException("Unexpected wire type in tag " + tag);
+            }
+            fields.computeIfAbsent((int) (tag >>> 3), k -> new ArrayList<>()).add(value);
+        }
+        return fields;
+    }
+    
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
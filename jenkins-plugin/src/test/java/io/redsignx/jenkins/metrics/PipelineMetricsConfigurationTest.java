@@ -18,6 +18,108 @@ public class PipelineMetricsConfigurationTest {
         assertEquals(1000, config.getMaxQueueSize());
         assertEquals(3, config.getMaxRetries());
         assertEquals(2, config.getInitialRetryDelaySeconds());
+        assertFalse(config.isAdmissionControlEnabled());
+        assertEquals(1000, config.getJobStageBurst());
+        assertEquals(50, config.getJobStageRatePerSecond());
+        assertEquals(500, config.getRunStageBurst());
+        assertEquals(20, config.getRunStageRatePerSecond());
+        assertEquals(10, config.getThrottledStageSampleInterval());
+        assertFalse(config.isCoalesceShortStages());
+        assertEquals(5, config.getStageCoalesceGraceSeconds());
+        assertNull(config.getAdditionalEndpointUrls());
+        assertEquals(WireFormat.JSON, config.getWireFormat());
+        assertNull(config.getOtlpEndpointUrl());
+        assertEquals(2048, config.getOtlpMaxQueueSize());
+        assertEquals(512, config.getOtlpMaxExportBatchSize());
+        assertFalse(config.isStepEventsEnabled());
+        assertEquals(PipelineMetricsConfiguration.DEFAULT_STEP_TYPE_ALLOWLIST, config.getStepTypeAllowlist());
+        assertEquals(10, config.getFastStepSampleInterval());
+        assertEquals(30, config.getSlowStepThresholdSeconds());
+        assertFalse(config.isQueueLatencyEventsEnabled());
+        assertFalse(config.isResourceSamplingEnabled());
+        assertEquals(30, config.getResourceSampleIntervalSeconds());
+        assertFalse(config.isStageBaselinesEnabled());
+        assertEquals(2.0, config.getStageRegressionFactor(), 0.0);
+        assertEquals(10000, config.getMaxStageBaselines());
+        assertFalse(config.isBuildSummaryEnabled());
+        assertEquals(1000, config.getRecentEventsCapacity());
+        assertEquals(2, config.getDeliveryThreads());
+        assertEquals(1, config.getDeliveryBatchSize());
+        assertFalse(config.isVirtualThreadsEnabled());
+        assertEquals(256, config.getMaxConcurrentDeliveries());
+    }
+    
+    @Test
+    public void testOnlyRegisteredInstancePublishesSnapshot() {
+        DeliveryConfig published = PipelineMetricsConfiguration.snapshot();
+        PipelineMetricsConfiguration config = new PipelineMetricsConfiguration();
+        config.setMaxQueueSize(5);
+        config.setRecentEventsCapacity(7);
+        
+        assertSame(published, PipelineMetricsConfiguration.snapshot());
+    }
+    
+    @Test
+    public void testDeliverySnapshotDefaultsMatchConfiguration() {
+        DeliveryConfig fromConfig = DeliveryConfig.of(new PipelineMetricsConfiguration(), 1);
+        DeliveryConfig defaults = DeliveryConfig.DEFAULTS;
+        
+        assertEquals(defaults.getWireFormat(), fromConfig.getWireFormat());
+        assertEquals(defaults.getConnectionTimeoutSeconds(), fromConfig.getConnectionTimeoutSeconds());
+        assertEquals(defaults.getReadTimeoutSeconds(), fromConfig.getReadTimeoutSeconds());
+        assertEquals(defaults.getMaxQueueSize(), fromConfig.getMaxQueueSize());
+        assertEquals(defaults.getMaxRetries(), fromConfig.getMaxRetries());
+        assertEquals(defaults.getInitialRetryDelaySeconds(), fromConfig.getInitialRetryDelaySeconds());
+        assertEquals(defaults.getDeliveryThreads(), fromConfig.getDeliveryThreads());
+        assertEquals(defaults.getDeliveryBatchSize(), fromConfig.getDeliveryBatchSize());
+        assertEquals(defaults.isVirtualThreadsEnabled(), fromConfig.isVirtualThreadsEnabled());
+        assertEquals(defaults.getMaxConcurrentDeliveries(), fromConfig.getMaxConcurrentDeliveries());
+        assertEquals(defaults.getRecentEventsCapacity(), fromConfig.getRecentEventsCapacity());
+        assertEquals(defaults.getOtlpMaxQueueSize(), fromConfig.getOtlpMaxQueueSize());
+        assertEquals(defaults.getOtlpMaxExportBatchSize(), fromConfig.getOtlpMaxExportBatchSize());
+    }
+    
+    @Test
+    public void testListenerSnapshotClampsSettings() {
+        ListenerConfig config = new ListenerConfig.Builder()
+            .jobStageBudget(0, 0)
+            .coalesceShortStages(true, 0)
+            .slowStepThresholdSeconds(-1)
+            .resourceSampling(true, 0)
+            .stageBaselines(true, 0.5, 0)
+            .build();
+        
+        assertEquals(1, config.getJobStageBurst());
+        assertEquals(1, config.getJobStageRatePerSecond());
+        assertEquals(1, config.getStageCoalesceGraceSeconds());
+        assertEquals(1, config.getSlowStepThresholdSeconds());
+        assertEquals(1, config.getResourceSampleIntervalSeconds());
+        assertEquals(1.0, config.getStageRegressionFactor(), 0.0);
+        assertEquals(1, config.getMaxStageBaselines());
+    }
+    
+    @Test
+    public void testListenerSnapshotDefaultsMatchConfiguration() {
+        ListenerConfig fromConfig = ListenerConfig.of(new PipelineMetricsConfiguration(), 1);
+        ListenerConfig defaults = ListenerConfig.DEFAULTS;
+        
+        assertEquals(defaults.isAdmissionControlEnabled(), fromConfig.isAdmissionControlEnabled());
+        assertEquals(defaults.getJobStageBurst(), fromConfig.getJobStageBurst());
+        assertEquals(defaults.getRunStageRatePerSecond(), fromConfig.getRunStageRatePerSecond());
+        assertEquals(defaults.getThrottledStageSampleInterval(), fromConfig.getThrottledStageSampleInterval());
+        assertEquals(defaults.isCoalesceShortStages(), fromConfig.isCoalesceShortStages());
+        assertEquals(defaults.isStepEventsEnabled(), fromConfig.isStepEventsEnabled());
+        assertEquals(defaults.getStepTypeIntervals(), fromConfig.getStepTypeIntervals());
+        assertEquals(defaults.getSlowStepThresholdSeconds(), fromConfig.getSlowStepThresholdSeconds());
+        assertEquals(defaults.isQueueLatencyEventsEnabled(), fromConfig.isQueueLatencyEventsEnabled());
+        assertEquals(defaults.isResourceSamplingEnabled(), fromConfig.isResourceSamplingEnabled());
+        assertEquals(defaults.getResourceSampleIntervalSeconds(), fromConfig.getResourceSampleIntervalSeconds());
+        assertEquals(defaults.getStageCoalesceGraceSeconds(), fromConfig.getStageCoalesceGraceSeconds());
+        assertEquals(defaults.getStageRegressionFactor(), fromConfig.getStageRegressionFactor(), 0.0);
+        assertEquals(defaults.getMaxStageBaselines(), fromConfig.getMaxStageBaselines());
+        assertEquals(defaults.isBuildSummaryEnabled(), fromConfig.isBuildSummaryEnabled());
+        assertFalse(fromConfig.isSpanExportEnabled());
+        assertEquals(1, fromConfig.getVersion());
     }
     
     @Test
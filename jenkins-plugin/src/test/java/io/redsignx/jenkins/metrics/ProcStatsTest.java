@@ -0,0 +1,76 @@
+package io.redsignx.jenkins.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ProcStats parsing of /proc/stat, /proc/meminfo and /proc/diskstats.
+ */
+public class ProcStatsTest {
+
+    private static final String STAT =
+        "cpu  4705 150 1120 16250 520 0 25 10 30 0\n"
+        + "cpu0 2352 75 560 8125 260 0 12 5 15 0\n"
+        + "cpu1 2353 75 560 8125 260 0 13 5 15 0\n"
+        + "intr 114930548 113199788 3 0 5 263 0 4 [... lots more numbers ...]\n"
+        + "ctxt 1990473\n"
+        + "btime 1062191376\n";
+
+    private static final String DISKSTATS =
+        "   7       0 loop0 100 0 2000 10 0 0 0 0 0 10 10\n"
+        + "   8       0 sda 5000 100 80000 300 2000 50 40000 900 0 1000 1200\n"
+        + "   8       1 sda1 4900 100 79000 290 1990 50 39000 890 0 990 1180\n"
+        + " 259       0 nvme0n1 1000 0 20000 50 500 0 10000 40 0 80 90\n"
+        + " 259       1 nvme0n1p1 990 0 19000 49 490 0 9000 39 0 79 88\n"
+        + " 253       0 dm-0 4800 0 78000 280 1900 0 38000 870 0 980 1150\n";
+
+    @Test
+    public void testCpuTicks() {
+        long[] cpu = ProcStats.parseCpu(STAT);
+
+        // user nice system idle iowait irq softirq steal, guest columns are not added again
+        long total = 4705 + 150 + 1120 + 16250 + 520 + 0 + 25 + 10;
+        assertEquals(total - 16250 - 520, cpu[0]);
+        assertEquals(520, cpu[1]);
+        assertEquals(total, cpu[2]);
+        assertEquals(2, ProcStats.parseCpuCount(STAT));
+    }
+
+    @Test
+    public void testMemInfo() {
+        long[] memory = ProcStats.parseMemInfo(
+            "MemTotal:       16384000 kB\nMemFree:         2048000 kB\nMemAvailable:    8192000 kB\n");
+        assertEquals(16384000L * 1024, memory[0]);
+        assertEquals(8192000L * 1024, memory[1]);
+
+        // Older kernels have no MemAvailable
+        memory = ProcStats.parseMemInfo("MemTotal:       16384000 kB\nMemFree:         2048000 kB\n");
+        assertEquals(2048000L * 1024, memory[1]);
+    }
+
+    @Test
+    public void testDiskStatsCountWholeDisksOnly() {
+        long[] disk = ProcStats.parseDiskStats(DISKSTATS, new HashSet<>(Arrays.asList("sda", "nvme0n1", "loop0", "dm-0")));
+        assertEquals((80000 + 20000) * 512L, disk[0]);
+        assertEquals((40000 + 10000) * 512L, disk[1]);
+    }
+
+    @Test
+    public void testDiskStatsWithoutSysBlock() {
+        // nvme0n1 ends in a digit, so only sda is recognised without /sys/block
+        long[] disk = ProcStats.parseDiskStats(DISKSTATS, null);
+        assertEquals(80000 * 512L, disk[0]);
+        assertEquals(40000 * 512L, disk[1]);
+    }
+
+    @Test
+    public void testMemoryUsed() {
+        ProcStats stats = new ProcStats(new long[] {0, 0, 0}, 1,
+            new long[] {1000, 400}, new long[] {0, 0});
+        assertEquals(600, stats.memoryUsedBytes());
+    }
+}
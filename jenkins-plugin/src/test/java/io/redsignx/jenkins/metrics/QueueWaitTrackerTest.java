@@ -0,0 +1,69 @@
+package io.redsignx.jenkins.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for QueueWaitTracker correlation and eviction.
+ */
+public class QueueWaitTrackerTest {
+
+    private final QueueWaitTracker tracker = new QueueWaitTracker();
+
+    @Test
+    public void testQueueWaitIsTakenOnce() {
+        tracker.recordLeft(17, 1000, 46000, "linux && docker");
+
+        QueueWaitTracker.QueueWait wait = tracker.take(17);
+        assertNotNull(wait);
+        assertEquals(17, wait.getQueueId());
+        assertEquals(1000, wait.getEnqueuedAt());
+        assertEquals(46000, wait.getLeftAt());
+        assertEquals(45000, wait.getWaitMs());
+        assertEquals("linux && docker", wait.getLabel());
+
+        assertNull(tracker.take(17));
+        assertNull(tracker.take(18));
+    }
+
+    @Test
+    public void testUnclaimedWaitsAreEvicted() {
+        for (int i = 0; i < QueueWaitTracker.MAX_TRACKED_ITEMS; i++) {
+            tracker.recordLeft(i, 0, 1000, null);
+        }
+        assertEquals(QueueWaitTracker.MAX_TRACKED_ITEMS, tracker.size());
+
+        long later = 1000 + QueueWaitTracker.MAX_AGE_MILLIS + 1;
+        tracker.recordLeft(-1, later - 10, later, null);
+
+        assertEquals(1, tracker.size());
+        assertNotNull(tracker.take(-1));
+    }
+
+    @Test
+    public void testEldestWaitsAreEvictedAtCapacity() {
+        for (int i = 0; i < QueueWaitTracker.MAX_TRACKED_ITEMS + 5; i++) {
+            tracker.recordLeft(i, 0, 1000 + i, null);
+        }
+
+        // None has expired yet, the cap still holds
+        assertEquals(QueueWaitTracker.MAX_TRACKED_ITEMS, tracker.size());
+        for (int i = 0; i < 5; i++) {
+            assertNull(tracker.take(i));
+        }
+        assertNotNull(tracker.take(5));
+        assertNotNull(tracker.take(QueueWaitTracker.MAX_TRACKED_ITEMS + 4));
+    }
+
+    @Test
+    public void testQueueWaitEventPayload() {
+        QueueWaitEvent event = new QueueWaitEvent("job", 42, "job/job/42/", "main", null, null,
+            46000, 17, 1000, 45000, null);
+
+        assertEquals("queue_wait", event.getEventType());
+        assertNull(event.getStageId());
+        assertEquals(45000, event.getWaitMs());
+        assertNull(event.getLabel());
+    }
+}
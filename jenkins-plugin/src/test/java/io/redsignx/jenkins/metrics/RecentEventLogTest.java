@@ -0,0 +1,201 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.JsonObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for RecentEventLog indexing, eviction and pagination, and the JSON of RecentEventsAction.
+ */
+public class RecentEventLogTest {
+
+    private static StageEndEvent stageEnd(String job, int build, String nodeId) {
+        return new StageEndEvent(job + "#" + build + ":" + nodeId, "Build", job, build, "job/" + job + "/" + build + "/",
+            "main", null, null, nodeId, 1000, "SUCCESS", "SUCCESS", 500, null);
+    }
+
+    private static List<Long> sequences(RecentEventLog.Page page) {
+        List<Long> sequences = new ArrayList<>();
+        for (RecentEventLog.Entry entry : page.getEntries()) {
+            sequences.add(entry.getSequence());
+        }
+        return sequences;
+    }
+
+    @Test
+    public void testQueryByIndexes() {
+        RecentEventLog log = new RecentEventLog(100);
+        log.record(stageEnd("a", 1, "node-1"), RecentEventLog.Status.QUEUED, null, 0);
+        log.record(stageEnd("a", 2, "node-1"), RecentEventLog.Status.QUEUED, null, 0);
+        log.record(stageEnd("b", 1, "node-1"), RecentEventLog.Status.QUEUED, null, 0);
+        log.record(new QueueWaitEvent("a", 2, "job/a/2/", null, null, null, 0, 7, 0, 10, null),
+            RecentEventLog.Status.QUEUED, null, 0);
+
+        assertEquals(4, log.query(new RecentEventLog.Query(), 0, 10).getTotal());
+        assertEquals(3, log.query(new RecentEventLog.Query().job("a"), 0, 10).getTotal());
+        assertEquals(2, log.query(new RecentEventLog.Query().job("a").build(2), 0, 10).getTotal());
+        assertEquals(1, log.query(new RecentEventLog.Query().stageId("a#2:node-1"), 0, 10).getTotal());
+        assertEquals(1, log.query(new RecentEventLog.Query().job("a").eventType("queue_wait"), 0, 10).getTotal());
+        assertEquals(0, log.query(new RecentEventLog.Query().job("c"), 0, 10).getTotal());
+        // Build without job falls back to a scan
+        assertEquals(2, log.query(new RecentEventLog.Query().build(1), 0, 10).getTotal());
+    }
+
+    @Test
+    public void testStatusUpdates() {
+        RecentEventLog log = new RecentEventLog(100);
+        long sent = log.record(stageEnd("a", 1, "node-1"), RecentEventLog.Status.QUEUED, null, 0);
+        long dropped = log.record(stageEnd("a", 1, "node-2"), RecentEventLog.Status.QUEUED, null, 0);
+
+        log.update(sent, RecentEventLog.Status.SENT, 1, null, 10);
+        log.update(dropped, RecentEventLog.Status.RETRYING, 1, "HTTP 503", 10);
+        log.update(dropped, RecentEventLog.Status.DROPPED, 4, "HTTP 503", 20);
+
+        RecentEventLog.Page page = log.query(new RecentEventLog.Query().status(RecentEventLog.Status.DROPPED), 0, 10);
+        assertEquals(1, page.getTotal());
+        RecentEventLog.Entry entry = page.getEntries().get(0);
+        assertEquals(dropped, entry.getSequence());
+        assertEquals(4, entry.getAttempts());
+        assertEquals("HTTP 503", entry.getError());
+        assertEquals(0, entry.getRecordedAt());
+        assertEquals(20, entry.getUpdatedAt());
+    }
+
+    @Test
+    public void testOldestEventsAreEvictedWithTheirIndexes() {
+        RecentEventLog log = new RecentEventLog(3);
+        long first = log.record(stageEnd("a", 1, "node-1"), RecentEventLog.Status.QUEUED, null, 0);
+        for (int i = 2; i <= 5; i++) {
+            log.record(stageEnd("b", i, "node-1"), RecentEventLog.Status.QUEUED, null, 0);
+        }
+
+        assertEquals(3, log.query(new RecentEventLog.Query(), 0, 10).getTotal());
+        assertEquals(0, log.query(new RecentEventLog.Query().job("a"), 0, 10).getTotal());
+        assertEquals(3, log.query(new RecentEventLog.Query().job("b"), 0, 10).getTotal());
+        assertEquals(0, log.query(new RecentEventLog.Query().job("b").build(2), 0, 10).getTotal());
+        assertEquals(1, log.query(new RecentEventLog.Query().stageId("b#3:node-1"), 0, 10).getTotal());
+        // One job, three builds and three stages are left
+        assertEquals(7, log.indexedKeyCount());
+
+        // Updates for evicted events are ignored
+        log.update(first, RecentEventLog.Status.SENT, 1, null, 10);
+        assertEquals(0, log.query(new RecentEventLog.Query().status(RecentEventLog.Status.SENT), 0, 10).getTotal());
+    }
+
+    @Test
+    public void testConcurrentWritersAndReaders() throws Exception {
+        RecentEventLog log = new RecentEventLog(64);
+        int threads = 8;
+        int perThread = 2000;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String job = "job-" + t;
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    long sequence = log.record(stageEnd(job, 1, "node-" + i), RecentEventLog.Status.QUEUED, null, i);
+                    log.update(sequence, RecentEventLog.Status.SENT, 1, null, i);
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        List<Throwable> readerFailures = new CopyOnWriteArrayList<>();
+        Thread reader = new Thread(() -> {
+            while (writing.get()) {
+                try {
+                    RecentEventLog.Page page = log.query(new RecentEventLog.Query(), 0, 64);
+                    assertTrue(page.getTotal() <= 64);
+                    List<Long> seen = sequences(page);
+                    for (int i = 1; i < seen.size(); i++) {
+                        assertTrue(seen.get(i) < seen.get(i - 1));
+                    }
+                } catch (Throwable e) {
+                    readerFailures.add(e);
+                    return;
+                }
+            }
+        });
+        reader.start();
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join(10_000);
+        }
+        writing.set(false);
+        reader.join(10_000);
+
+        assertEquals(Collections.emptyList(), readerFailures);
+        RecentEventLog.Page page = log.query(new RecentEventLog.Query(), 0, 100);
+        assertEquals(64, page.getTotal());
+        assertEquals(Long.valueOf(threads * perThread - 1), sequences(page).get(0));
+        // Indexes shrink with the ring: at most eight jobs and builds, and the 64 stages left
+        assertTrue(log.indexedKeyCount() <= 8 + 8 + 64);
+        int indexed = 0;
+        for (int t = 0; t < threads; t++) {
+            indexed += log.query(new RecentEventLog.Query().job("job-" + t), 0, 100).getTotal();
+        }
+        assertEquals(64, indexed);
+        for (RecentEventLog.Entry entry : page.getEntries()) {
+            assertEquals(RecentEventLog.Status.SENT, entry.getStatus());
+        }
+    }
+
+    @Test
+    public void testPaginationIsNewestFirst() {
+        RecentEventLog log = new RecentEventLog(100);
+        for (int i = 0; i < 25; i++) {
+            log.record(stageEnd("a", 1, "node-" + i), RecentEventLog.Status.QUEUED, null, 0);
+        }
+
+        RecentEventLog.Page first = log.query(new RecentEventLog.Query().job("a"), 0, 10);
+        assertEquals(25, first.getTotal());
+        assertEquals(10, first.getEntries().size());
+        assertEquals(Long.valueOf(24), sequences(first).get(0));
+
+        RecentEventLog.Page last = log.query(new RecentEventLog.Query().job("a").build(1), 20, 10);
+        assertEquals(5, last.getEntries().size());
+        assertEquals(Long.valueOf(0), sequences(last).get(4));
+    }
+
+    @Test
+    public void testDisabledLog() {
+        RecentEventLog log = new RecentEventLog(0);
+        assertEquals(-1, log.record(stageEnd("a", 1, "node-1"), RecentEventLog.Status.QUEUED, null, 0));
+        assertEquals(0, log.query(new RecentEventLog.Query(), 0, 10).getTotal());
+
+        log.setCapacity(2);
+        assertEquals(0, log.record(stageEnd("a", 1, "node-1"), RecentEventLog.Status.QUEUED, null, 0));
+        assertEquals(2, log.getCapacity());
+    }
+
+    @Test
+    public void testActionJson() {
+        RecentEventLog log = new RecentEventLog(10);
+        long sequence = log.record(stageEnd("a", 1, "node-1"), RecentEventLog.Status.QUEUED, null, 5);
+        log.update(sequence, RecentEventLog.Status.RETRYING, 1, "HTTP 503", 6);
+
+        JsonObject json = new RecentEventsAction().toJson(log.query(new RecentEventLog.Query(), 0, 50));
+
+        assertEquals(1, json.get("total").getAsInt());
+        assertEquals(10, json.get("capacity").getAsInt());
+        JsonObject item = json.getAsJsonArray("events").get(0).getAsJsonObject();
+        assertEquals("RETRYING", item.get("status").getAsString());
+        assertEquals("HTTP 503", item.get("error").getAsString());
+        assertEquals("stage_end", item.getAsJsonObject("event").get("event_type").getAsString());
+        assertFalse(item.getAsJsonObject("event").has("logSequence"));
+    }
+}
@@ -0,0 +1,147 @@
+package io.redsignx.jenkins.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for StageAdmissionController budgets and sampling.
+ */
+public class StageAdmissionControllerTest {
+    
+    private final AtomicLong clock = new AtomicLong();
+    private final StageAdmissionController controller = new StageAdmissionController(clock::get);
+    
+    private ListenerConfig.Builder config(int runBurst, int sampleInterval) {
+        return new ListenerConfig.Builder()
+            .admissionControlEnabled(true)
+            .runStageBudget(runBurst, 1)
+            .throttledStageSampleInterval(sampleInterval);
+    }
+    
+    @Test
+    public void testAdmitsWithinBudget() {
+        ListenerConfig config = config(3, 10).build();
+        
+        for (int i = 0; i < 3; i++) {
+            assertEquals(StageAdmissionController.Decision.ADMITTED,
+                controller.admit(config, "job", "job#1"));
+        }
+        assertNull(controller.completeRun("job#1"));
+    }
+    
+    @Test
+    public void testSamplesAndCountsOnceExhausted() {
+        ListenerConfig config = config(2, 5).build();
+        
+        int admitted = 0;
+        int sampled = 0;
+        int suppressed = 0;
+        for (int i = 0; i < 22; i++) {
+            switch (controller.admit(config, "job", "job#1")) {
+                case ADMITTED: admitted++; break;
+                case SAMPLED: sampled++; break;
+                default: suppressed++;
+            }
+        }
+        
+        assertEquals(2, admitted);
+        assertEquals(4, sampled);
+        assertEquals(16, suppressed);
+        
+        StageAdmissionController.RunAdmission summary = controller.completeRun("job#1");
+        assertNotNull(summary);
+        assertEquals(4, summary.getSampledCount());
+        assertEquals(16, summary.getSuppressedCount());
+        assertNull(controller.completeRun("job#1"));
+    }
+    
+    @Test
+    public void testRunsHaveIndependentBudgets() {
+        ListenerConfig config = config(1, 100).build();
+        
+        assertEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "job", "job#1"));
+        assertEquals(StageAdmissionController.Decision.SAMPLED, controller.admit(config, "job", "job#1"));
+        assertEquals(StageAdmissionController.Decision.SUPPRESSED, controller.admit(config, "job", "job#1"));
+        assertEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "job", "job#2"));
+    }
+    
+    @Test
+    public void testBudgetRefillsOverTime() {
+        ListenerConfig config = config(1, 100).build();
+        
+        assertEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "job", "job#1"));
+        controller.admit(config, "job", "job#1");
+        
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "job", "job#1"));
+    }
+    
+    @Test
+    public void testDisabledAdmitsEverything() {
+        ListenerConfig config = config(1, 100).admissionControlEnabled(false).build();
+        
+        for (int i = 0; i < 10; i++) {
+            assertEquals(StageAdmissionController.Decision.ADMITTED,
+                controller.admit(config, "job", "job#1"));
+        }
+    }
+    
+    @Test
+    public void testThrottledRunDoesNotSpendJobBudget() {
+        ListenerConfig config = config(1, 100).jobStageBudget(3, 1).build();
+        
+        assertEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "job", "job#1"));
+        for (int i = 0; i < 5; i++) {
+            assertNotEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "job", "job#1"));
+        }
+        
+        // The refused stages of job#1 left the job's other two tokens for other runs
+        assertEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "job", "job#2"));
+        assertEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "job", "job#3"));
+        assertNotEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "job", "job#4"));
+    }
+    
+    @Test
+    public void testLeastRecentlyAdmittedJobsAreEvicted() {
+        ListenerConfig config = config(10, 100).jobStageBudget(1, 1).build();
+        
+        // One nanosecond apart, so every job has its own admission time but no bucket refills
+        assertEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "job-0", "job-0#1"));
+        for (int i = 1; i < StageAdmissionController.MAX_TRACKED_JOBS; i++) {
+            clock.incrementAndGet();
+            controller.admit(config, "job-" + i, "job-" + i + "#1");
+        }
+        assertEquals(StageAdmissionController.MAX_TRACKED_JOBS, controller.getTrackedJobCount());
+        
+        // job-0 is used again, so job-1 is the eldest when a new job arrives
+        clock.incrementAndGet();
+        assertNotEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "job-0", "job-0#2"));
+        clock.incrementAndGet();
+        assertEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "new-job", "new-job#1"));
+        assertEquals(BoundedRecencyMap.evictTo(StageAdmissionController.MAX_TRACKED_JOBS), controller.getTrackedJobCount());
+        
+        assertNotEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "job-0", "job-0#3"));
+        assertNotEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "new-job", "new-job#2"));
+        assertEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "job-1", "job-1#2"));
+    }
+    
+    @Test
+    public void testNewBudgetAppliesToTrackedJobsAndRuns() {
+        ListenerConfig config = config(1, 100).jobStageBudget(1, 1).version(1).build();
+        
+        assertEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "job", "job#1"));
+        assertNotEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(config, "job", "job#1"));
+        
+        // Unrelated settings changing keeps the spent budgets
+        ListenerConfig unrelated = config(1, 100).jobStageBudget(1, 1).stepEventsEnabled(true).version(2).build();
+        assertNotEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(unrelated, "job", "job#1"));
+        
+        ListenerConfig raised = config(3, 100).jobStageBudget(3, 1).version(3).build();
+        assertEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(raised, "job", "job#1"));
+        assertEquals(StageAdmissionController.Decision.ADMITTED, controller.admit(raised, "job", "job#1"));
+    }
+}
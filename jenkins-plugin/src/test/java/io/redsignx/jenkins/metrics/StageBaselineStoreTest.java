@@ -0,0 +1,213 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for StageBaselineStore regression detection, LRU limits and persistence,
+ * and the P² quantile estimate behind the baselines.
+ */
+public class StageBaselineStoreTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("baselines", ".json");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static void warmUp(StageBaselineStore store, String stage, long... durations) {
+        for (int i = 0; i < StageBaselineStore.MIN_SAMPLES; i++) {
+            long duration = durations[i % durations.length];
+            assertNull(store.record("job", "main", stage, duration, 2.0, i));
+        }
+    }
+
+    @Test
+    public void testRegressionAfterWarmUp() {
+        StageBaselineStore store = new StageBaselineStore(file, 100);
+        warmUp(store, "Build", 9000, 10000, 11000);
+
+        // Within the usual spread
+        assertNull(store.record("job", "main", "Build", 12000, 2.0, 100));
+
+        StageBaselineStore.Regression regression = store.record("job", "main", "Build", 30000, 2.0, 101);
+        assertNotNull(regression);
+        assertEquals(30000, regression.getDurationMs());
+        assertEquals(StageBaselineStore.MIN_SAMPLES + 1, regression.getSampleCount());
+        assertEquals(10000, regression.getMean(), 1000);
+        assertTrue(regression.getZScore() >= StageBaselineStore.MIN_Z_SCORE);
+        assertTrue(regression.getRatio() >= 2.0);
+
+        // The regressing duration becomes part of the baseline
+        assertEquals(StageBaselineStore.MIN_SAMPLES + 2, store.get("job", "main", "Build").getCount());
+    }
+
+    @Test
+    public void testNoRegressionWhileWarmingUp() {
+        StageBaselineStore store = new StageBaselineStore(file, 100);
+        for (int i = 0; i < StageBaselineStore.MIN_SAMPLES - 1; i++) {
+            store.record("job", "main", "Build", 10000, 2.0, i);
+        }
+        assertNull(store.record("job", "main", "Build", 100000, 2.0, 100));
+    }
+
+    @Test
+    public void testShortStagesNeedAbsoluteSlowdown() {
+        StageBaselineStore store = new StageBaselineStore(file, 100);
+        warmUp(store, "Lint", 100, 110, 90);
+
+        // Five times slower, but under a second of difference
+        assertNull(store.record("job", "main", "Lint", 500, 2.0, 100));
+    }
+
+    @Test
+    public void testBaselinesAreSeparatedByBranchAndStage() {
+        StageBaselineStore store = new StageBaselineStore(file, 100);
+        warmUp(store, "Build", 10000);
+
+        assertNull(store.record("job", "feature", "Build", 60000, 2.0, 100));
+        assertNull(store.record("job", "main", "Test", 60000, 2.0, 100));
+        assertNull(store.record("job", null, "Build", 60000, 2.0, 100));
+        assertEquals(4, store.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUpdatedBaselineIsEvicted() {
+        StageBaselineStore store = new StageBaselineStore(file, 2);
+        store.record("job", "main", "A", 1000, 2.0, 0);
+        store.record("job", "main", "B", 1000, 2.0, 1);
+        store.record("job", "main", "A", 1000, 2.0, 2);
+        store.record("job", "main", "C", 1000, 2.0, 3);
+
+        assertEquals(2, store.size());
+        assertNotNull(store.get("job", "main", "A"));
+        assertNull(store.get("job", "main", "B"));
+        assertNotNull(store.get("job", "main", "C"));
+
+        store.setMaxEntries(1);
+        assertEquals(1, store.size());
+        assertNotNull(store.get("job", "main", "C"));
+    }
+
+    @Test
+    public void testBaselinesSurviveRestart() throws Exception {
+        StageBaselineStore store = new StageBaselineStore(file, 100);
+        store.load();
+        warmUp(store, "Build", 9000, 10000, 11000);
+        store.record("job", "main", "Test", 5000, 2.0, 50);
+        store.saveIfDirty();
+        assertTrue(file.isFile());
+
+        StageBaselineStore restored = new StageBaselineStore(file, 100);
+        restored.load();
+        assertEquals(2, restored.size());
+        StageBaseline original = store.get("job", "main", "Build");
+        StageBaseline loaded = restored.get("job", "main", "Build");
+        assertEquals(original.getCount(), loaded.getCount());
+        assertEquals(original.getMean(), loaded.getMean(), 0.0);
+        assertEquals(original.getStdDev(), loaded.getStdDev(), 0.0);
+        assertEquals(original.getP90(), loaded.getP90(), 0.0);
+        assertNotNull(restored.record("job", "main", "Build", 30000, 2.0, 100));
+
+        // A limit below the saved count keeps the most recently updated baselines
+        StageBaselineStore smaller = new StageBaselineStore(file, 1);
+        smaller.load();
+        assertEquals(1, smaller.size());
+        assertNotNull(smaller.get("job", "main", "Test"));
+    }
+
+    @Test
+    public void testStagesRecordedBeforeLoadAreKept() throws Exception {
+        StageBaselineStore store = new StageBaselineStore(file, 100);
+        store.load();
+        store.record("job", "main", "Build", 10000, 2.0, 0);
+        store.record("job", "main", "Test", 5000, 2.0, 1);
+        store.saveIfDirty();
+        long saved = file.lastModified();
+        String savedJson = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+
+        StageBaselineStore restored = new StageBaselineStore(file, 100);
+        assertFalse(restored.isLoaded());
+        restored.record("job", "main", "Build", 20000, 2.0, 2);
+        restored.record("job", "main", "Deploy", 1000, 2.0, 3);
+        // Nothing is written until the saved baselines have been read
+        restored.saveIfDirty();
+        assertEquals(saved, file.lastModified());
+        assertEquals(savedJson, new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+
+        restored.load();
+        assertTrue(restored.isLoaded());
+        assertEquals(3, restored.size());
+        assertEquals(1, restored.get("job", "main", "Build").getCount());
+        assertNotNull(restored.get("job", "main", "Test"));
+        assertNotNull(restored.get("job", "main", "Deploy"));
+    }
+
+    @Test
+    public void testCorruptFileStartsEmpty() throws Exception {
+        Files.write(file.toPath(), "{not json".getBytes("UTF-8"));
+        StageBaselineStore store = new StageBaselineStore(file, 100);
+        store.load();
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testQuantileEstimates() {
+        P2Quantile p50 = new P2Quantile(0.5);
+        P2Quantile p90 = new P2Quantile(0.9);
+        assertEquals(0, p50.get(), 0.0);
+
+        p90.add(3);
+        p90.add(1);
+        p90.add(2);
+        assertEquals(3, p90.get(), 0.0);
+
+        p90 = new P2Quantile(0.9);
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            double value = random.nextDouble() * 1000;
+            p50.add(value);
+            p90.add(value);
+        }
+        assertEquals(10000, p50.getCount());
+        assertEquals(500, p50.get(), 25);
+        assertEquals(900, p90.get(), 25);
+    }
+
+    @Test
+    public void testStageRegressionEventPayload() {
+        StageBaselineStore store = new StageBaselineStore(file, 100);
+        warmUp(store, "Build", 10000);
+        StageBaselineStore.Regression regression = store.record("job", "main", "Build", 30000, 2.0, 100);
+
+        StageRegressionEvent event = new StageRegressionEvent("stage-1", "Build", "job", 42, "job/job/42/",
+            "main", null, null, "node-7", 100, regression, 2.0);
+        JsonObject obj = new Gson().fromJson(new Gson().toJson(event), JsonObject.class);
+
+        assertEquals("stage_regression", obj.get("event_type").getAsString());
+        assertEquals(30000, obj.get("duration_ms").getAsLong());
+        assertEquals(10000, obj.get("baseline_mean_ms").getAsLong());
+        assertEquals(0, obj.get("baseline_stddev_ms").getAsLong());
+        assertEquals(10000, obj.get("baseline_p90_ms").getAsLong());
+        assertEquals(3.0, obj.get("duration_ratio").getAsDouble(), 0.001);
+        // A baseline without spread has no finite z-score
+        assertFalse(obj.has("z_score"));
+        assertEquals(2.0, obj.get("regression_factor").getAsDouble(), 0.0);
+    }
+}
@@ -0,0 +1,225 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for StageDag critical path and parallelism analysis.
+ */
+public class StageDagTest {
+
+    private static List<String> names(List<StageDag.StageNode> nodes) {
+        List<String> names = new ArrayList<>();
+        for (StageDag.StageNode node : nodes) {
+            names.add(node.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testSequentialStagesAreAllCritical() {
+        StageDag dag = new StageDag();
+        dag.onStageStart("3", null, "Checkout", 0);
+        dag.onStageEnd("3", 10);
+        dag.onStageStart("7", null, "Build", 10);
+        dag.onStageEnd("7", 40);
+        dag.onStageStart("11", null, "Deploy", 40);
+        dag.onStageEnd("11", 50);
+
+        StageDag.Analysis analysis = dag.analyze(0, 50);
+
+        assertEquals(Arrays.asList("Checkout", "Build", "Deploy"), names(analysis.getCriticalPath()));
+        assertEquals(50, analysis.getCriticalPathDurationMs());
+        assertTrue(analysis.getBranchSlack().isEmpty());
+        assertEquals(1, analysis.getMaxParallelism());
+        assertEquals(1.0, analysis.getParallelismEfficiency(), 0.0001);
+    }
+
+    @Test
+    public void testParallelFanOutFollowsLongestBranch() {
+        StageDag dag = new StageDag();
+        dag.onStageStart("3", null, "Build", 0);
+        dag.onStageEnd("3", 20);
+        dag.onStageStart("6", null, "Test", 20);
+        dag.onStageStart("10", "6", "Unit", 20);
+        dag.onStageStart("11", "6", "Integration", 20);
+        dag.onStageStart("12", "6", "Lint", 20);
+        dag.onStageEnd("12", 25);
+        dag.onStageEnd("10", 45);
+        dag.onStageEnd("11", 80);
+        dag.onStageEnd("6", 80);
+        dag.onStageStart("20", null, "Publish", 80);
+        dag.onStageEnd("20", 100);
+
+        StageDag.Analysis analysis = dag.analyze(0, 100);
+
+        assertEquals(Arrays.asList("Build", "Integration", "Publish"), names(analysis.getCriticalPath()));
+        assertEquals(100, analysis.getCriticalPathDurationMs());
+        assertEquals(Arrays.asList("Lint", "Unit"), names(analysis.getBranchSlack()));
+        assertEquals(55, analysis.getBranchSlack().get(0).getSlackMs());
+        assertEquals(35, analysis.getBranchSlack().get(1).getSlackMs());
+
+        // Leaf stages only: 20 + 25 + 60 + 5 + 20
+        assertEquals(130, analysis.getStageTimeMs());
+        assertEquals(3, analysis.getMaxParallelism());
+        assertEquals(1.3, analysis.getAverageParallelism(), 0.0001);
+        assertEquals(1.3 / 3, analysis.getParallelismEfficiency(), 0.0001);
+    }
+
+    @Test
+    public void testStageStartedAfterSiblingEndedFollowsIt() {
+        StageDag dag = new StageDag();
+        dag.onStageStart("3", null, "A", 0);
+        dag.onStageStart("4", null, "B", 0);
+        dag.onStageEnd("3", 10);
+        dag.onStageStart("5", null, "C", 10);
+        dag.onStageEnd("4", 30);
+        dag.onStageEnd("5", 35);
+
+        StageDag.Analysis analysis = dag.analyze(0, 35);
+
+        // C waited for A, B ran alongside both
+        assertEquals(Arrays.asList("A", "C"), names(analysis.getCriticalPath()));
+        assertEquals(Arrays.asList("B"), names(analysis.getBranchSlack()));
+        assertEquals(5, analysis.getBranchSlack().get(0).getSlackMs());
+    }
+
+    @Test
+    public void testScriptedParallelBranchesDoNotFollowEachOther() {
+        // Build, then parallel(a: { A1; A2 }, b: { B1; sh; B2 }), then Publish, all top-level stages
+        List<StageDag.Branch> a = Arrays.asList(new StageDag.Branch("5", "8"));
+        List<StageDag.Branch> b = Arrays.asList(new StageDag.Branch("5", "9"));
+        StageDag dag = new StageDag();
+        dag.onStageStart("3", null, "Build", 0);
+        dag.onStageEnd("3", 10);
+        dag.onStageStart("12", null, a, "A1", 10);
+        dag.onStageStart("13", null, b, "B1", 10);
+        dag.onStageEnd("13", 15);
+        dag.onStageEnd("12", 20);
+        dag.onStageStart("20", null, a, "A2", 20);
+        // B2 starts after A1 ended, but only waited for B1
+        dag.onStageStart("21", null, b, "B2", 22);
+        dag.onStageEnd("20", 60);
+        dag.onStageEnd("21", 70);
+        dag.onStageStart("30", null, "Publish", 70);
+        dag.onStageEnd("30", 80);
+
+        StageDag.Analysis analysis = dag.analyze(0, 80);
+
+        assertEquals(Arrays.asList("Build", "B1", "B2", "Publish"), names(analysis.getCriticalPath()));
+        assertEquals(Arrays.asList("A2", "A1"), names(analysis.getBranchSlack()));
+        assertEquals(20, analysis.getBranchSlack().get(0).getSlackMs());
+        assertEquals(20, analysis.getBranchSlack().get(1).getSlackMs());
+    }
+
+    @Test
+    public void testStageAfterNestedParallelFollowsIt() {
+        // Inside branch a: parallel(x: { X }, y: { Y }), then A; branch b: { B } alongside
+        List<StageDag.Branch> x = Arrays.asList(new StageDag.Branch("15", "16"), new StageDag.Branch("5", "8"));
+        List<StageDag.Branch> y = Arrays.asList(new StageDag.Branch("15", "17"), new StageDag.Branch("5", "8"));
+        List<StageDag.Branch> a = Arrays.asList(new StageDag.Branch("5", "8"));
+        List<StageDag.Branch> b = Arrays.asList(new StageDag.Branch("5", "9"));
+        StageDag dag = new StageDag();
+        dag.onStageStart("20", null, x, "X", 0);
+        dag.onStageStart("21", null, y, "Y", 0);
+        dag.onStageStart("22", null, b, "B", 0);
+        dag.onStageEnd("20", 10);
+        dag.onStageEnd("22", 20);
+        dag.onStageEnd("21", 30);
+        dag.onStageStart("30", null, a, "A", 30);
+        dag.onStageEnd("30", 40);
+
+        StageDag.Analysis analysis = dag.analyze(0, 40);
+
+        assertEquals(Arrays.asList("Y", "A"), names(analysis.getCriticalPath()));
+        assertEquals(Arrays.asList("X", "B"), names(analysis.getBranchSlack()));
+        assertEquals(30, analysis.getBranchSlack().get(0).getSlackMs());
+        assertEquals(20, analysis.getBranchSlack().get(1).getSlackMs());
+    }
+
+    @Test
+    public void testSlackAccountsForDependentStages() {
+        StageDag dag = new StageDag();
+        dag.onStageStart("3", null, "Long", 0);
+        dag.onStageStart("4", null, "First", 0);
+        dag.onStageEnd("4", 10);
+        dag.onStageStart("5", null, "Second", 10);
+        dag.onStageEnd("5", 20);
+        dag.onStageEnd("3", 50);
+
+        StageDag.Analysis analysis = dag.analyze(0, 50);
+
+        assertEquals(Arrays.asList("Long"), names(analysis.getCriticalPath()));
+        // First can only slip as far as Second can
+        assertEquals(Arrays.asList("Second", "First"), names(analysis.getBranchSlack()));
+        assertEquals(30, analysis.getBranchSlack().get(0).getSlackMs());
+        assertEquals(30, analysis.getBranchSlack().get(1).getSlackMs());
+    }
+
+    @Test
+    public void testUnfinishedStagesAreIgnored() {
+        StageDag dag = new StageDag();
+        dag.onStageStart("3", null, "Build", 0);
+        dag.onStageEnd("3", 20);
+        dag.onStageStart("6", null, "Aborted", 20);
+
+        StageDag.Analysis analysis = dag.analyze(0, 30);
+
+        assertEquals(2, dag.getStageCount());
+        assertEquals(Arrays.asList("Build"), names(analysis.getCriticalPath()));
+        assertEquals(20, analysis.getStageTimeMs());
+    }
+
+    @Test
+    public void testStagesPastTheLimitAreCountedButNotTracked() {
+        StageDag dag = new StageDag(2);
+        dag.onStageStart("3", null, "Build", 0);
+        dag.onStageEnd("3", 10);
+        dag.onStageStart("7", null, "Test", 10);
+        dag.onStageStart("9", null, "Deploy", 10);
+        dag.onStageStart("12", "9", "Canary", 10);
+        dag.onStageEnd("12", 60);
+        dag.onStageEnd("9", 60);
+        dag.onStageEnd("7", 30);
+
+        StageDag.Analysis analysis = dag.analyze(0, 60);
+
+        assertEquals(4, dag.getStageCount());
+        assertEquals(Arrays.asList("Build", "Test"), names(analysis.getCriticalPath()));
+        assertEquals(30, analysis.getStageTimeMs());
+    }
+
+    @Test
+    public void testBuildSummaryEventCapsListedStages() {
+        StageDag dag = new StageDag();
+        int stages = BuildSummaryEvent.MAX_LISTED_STAGES + 50;
+        for (int i = 0; i < stages; i++) {
+            dag.onStageStart(String.valueOf(i), null, "Stage " + i, i * 10L);
+            dag.onStageEnd(String.valueOf(i), i * 10L + (i % 10));
+        }
+
+        BuildSummaryEvent event = new BuildSummaryEvent("job", 1, "url", null, null, null,
+            5000L, "SUCCESS", 0L, dag.getStageCount(), dag.analyze(0, stages * 10L));
+
+        assertEquals(stages, event.getCriticalPathStageCount());
+        assertEquals(BuildSummaryEvent.MAX_LISTED_STAGES, event.getCriticalPath().size());
+        long previousStart = -1;
+        for (BuildSummaryEvent.PathStage stage : event.getCriticalPath()) {
+            assertTrue(stage.getStartTimestamp() > previousStart);
+            assertTrue(stage.getDurationMs() >= 3);
+            previousStart = stage.getStartTimestamp();
+        }
+
+        JsonObject json = new Gson().toJsonTree(event).getAsJsonObject();
+        assertEquals("build_summary", json.get("event_type").getAsString());
+        assertEquals(BuildSummaryEvent.MAX_LISTED_STAGES, json.getAsJsonArray("critical_path").size());
+        assertFalse(json.has("stage_id"));
+    }
+}
@@ -0,0 +1,128 @@
+package io.redsignx.jenkins.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for StageEventCoalescer grace period handling.
+ */
+public class StageEventCoalescerTest {
+    
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<MetricEvent> delivered = new CopyOnWriteArrayList<>();
+    private final StageEventCoalescer coalescer = new StageEventCoalescer(scheduler, delivered::add);
+    
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+    
+    private StageStartEvent startEvent(String stageId) {
+        return new StageStartEvent(stageId, "Build", "job", 1, "url", null, null, null, "5", 0L);
+    }
+    
+    @Test
+    public void testStageEndingWithinGracePeriodIsCoalesced() throws Exception {
+        coalescer.hold(startEvent("job#1:5"), 60_000);
+        
+        assertTrue(coalescer.complete("job#1:5"));
+        assertEquals(0, coalescer.getPendingCount());
+        
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(delivered.isEmpty());
+    }
+    
+    @Test
+    public void testStartIsReleasedAfterGracePeriod() throws Exception {
+        StageStartEvent event = startEvent("job#1:5");
+        coalescer.hold(event, 10);
+        
+        long deadline = System.currentTimeMillis() + 5000;
+        while (delivered.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        
+        assertEquals(1, delivered.size());
+        assertSame(event, delivered.get(0));
+        assertFalse(coalescer.complete("job#1:5"));
+    }
+    
+    @Test
+    public void testStageEndWaitsForReleaseInProgress() throws Exception {
+        CountDownLatch releasing = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        StageEventCoalescer blocking = new StageEventCoalescer(scheduler, event -> {
+            releasing.countDown();
+            try {
+                proceed.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            order.add("stage_start");
+        });
+        blocking.hold(startEvent("job#1:5"), 0);
+        assertTrue(releasing.await(5, TimeUnit.SECONDS));
+        
+        // The stage ends while its start is being handed to delivery
+        Thread ending = new Thread(() -> {
+            if (!blocking.complete("job#1:5")) {
+                order.add("stage_end");
+            }
+        });
+        ending.start();
+        ending.join(200);
+        assertTrue("stage end must wait for the release", ending.isAlive());
+        
+        proceed.countDown();
+        ending.join(5000);
+        assertFalse(ending.isAlive());
+        assertEquals(Arrays.asList("stage_start", "stage_end"), order);
+        assertEquals(0, blocking.getPendingCount());
+    }
+    
+    @Test
+    public void testFlushEmitsStartBeforeChildEvents() throws Exception {
+        StageStartEvent event = startEvent("job#1:5");
+        coalescer.hold(event, 60_000);
+        
+        // A step_end of the stage is about to be queued
+        coalescer.flush("job#1:5");
+        assertEquals(1, delivered.size());
+        assertSame(event, delivered.get(0));
+        assertEquals(0, coalescer.getPendingCount());
+        
+        // Later events of the stage and its end take the normal flow
+        coalescer.flush("job#1:5");
+        assertFalse(coalescer.complete("job#1:5"));
+        
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(1, delivered.size());
+    }
+    
+    @Test
+    public void testFlushOfUnheldStageDoesNothing() {
+        coalescer.hold(startEvent("job#1:5"), 60_000);
+        
+        coalescer.flush("job#1:6");
+        assertTrue(delivered.isEmpty());
+        assertTrue(coalescer.complete("job#1:5"));
+    }
+    
+    @Test
+    public void testUnknownStageIsNotCoalesced() {
+        assertFalse(coalescer.complete("job#1:7"));
+    }
+}
@@ -0,0 +1,118 @@
+package io.redsignx.jenkins.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for StepSampler allowlist and adaptive sampling.
+ */
+public class StepSamplerTest {
+
+    private static final long SLOW_MS = 30_000;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final StepSampler sampler = new StepSampler(clock::get);
+
+    @Test
+    public void testAllowlistParsing() {
+        Map<String, Integer> intervals = StepSampler.parseAllowlist("sh=50, checkout\narchiveArtifacts\n\njunit=x");
+
+        assertEquals(4, intervals.size());
+        assertEquals(Integer.valueOf(50), intervals.get("sh"));
+        assertEquals(Integer.valueOf(0), intervals.get("checkout"));
+        assertEquals(Integer.valueOf(0), intervals.get("archiveArtifacts"));
+        assertEquals(Integer.valueOf(0), intervals.get("junit"));
+        assertTrue(StepSampler.parseAllowlist(null).isEmpty());
+    }
+
+    @Test
+    public void testSampleIntervalFromAllowlist() {
+        ListenerConfig.Builder config = new ListenerConfig.Builder()
+            .stepTypeAllowlist("sh=50\ncheckout")
+            .fastStepSampleInterval(5);
+
+        assertEquals(50, sampler.sampleInterval(config.build(), "sh"));
+        assertEquals(5, sampler.sampleInterval(config.build(), "checkout"));
+        assertEquals(0, sampler.sampleInterval(config.build(), "echo"));
+
+        assertEquals(5, sampler.sampleInterval(config.stepTypeAllowlist("").build(), "echo"));
+    }
+
+    @Test
+    public void testFastStepsAreSampled() {
+        int kept = 0;
+        for (int i = 0; i < 100; i++) {
+            StepSampler.Reason reason = sampler.sample("job", "sh", 200, false, 10, SLOW_MS);
+            if (reason != null) {
+                assertEquals(StepSampler.Reason.SAMPLED, reason);
+                kept++;
+            }
+        }
+        assertEquals(10, kept);
+    }
+
+    @Test
+    public void testFailedAndSlowStepsAreAlwaysKept() {
+        for (int i = 0; i < 20; i++) {
+            assertEquals(StepSampler.Reason.FAILED, sampler.sample("job", "sh", 200, true, 10, SLOW_MS));
+        }
+        assertEquals(StepSampler.Reason.SLOW, sampler.sample("job", "sh", SLOW_MS, false, 10, SLOW_MS));
+    }
+
+    @Test
+    public void testStepSlowerThanItsAverageIsKept() {
+        for (int i = 0; i < 20; i++) {
+            sampler.sample("job", "checkout", 2000, false, 1000, SLOW_MS);
+        }
+        assertNull(sampler.sample("job", "checkout", 3000, false, 1000, SLOW_MS));
+        assertEquals(StepSampler.Reason.SLOW, sampler.sample("job", "checkout", 5000, false, 1000, SLOW_MS));
+
+        // Averages are tracked per job
+        sampler.sample("other-job", "checkout", 2000, false, 1000, SLOW_MS);
+        assertNull(sampler.sample("other-job", "checkout", 3000, false, 1000, SLOW_MS));
+    }
+
+    @Test
+    public void testVeryShortStepsAreNeverRelativelySlow() {
+        for (int i = 0; i < 20; i++) {
+            sampler.sample("job", "sh", 5, false, 1000, SLOW_MS);
+        }
+        assertNull(sampler.sample("job", "sh", 500, false, 1000, SLOW_MS));
+    }
+
+    @Test
+    public void testIdleStatisticsAreEvicted() {
+        for (int i = 0; i < 10_000; i++) {
+            sampler.sample("job-" + i, "sh", 100, false, 10, SLOW_MS);
+        }
+        assertEquals(10_000, sampler.getTrackedCount());
+
+        clock.addAndGet(TimeUnit.HOURS.toNanos(2));
+        sampler.sample("new-job", "sh", 100, false, 10, SLOW_MS);
+        assertEquals(1, sampler.getTrackedCount());
+    }
+
+    @Test
+    public void testLeastRecentlySeenStatisticsAreEvicted() {
+        // One nanosecond apart, so every job has its own last seen time and none is idle
+        for (int i = 0; i < StepSampler.MAX_TRACKED_STEP_TYPES; i++) {
+            clock.incrementAndGet();
+            sampler.sample("job-" + i, "sh", 100, false, 10, SLOW_MS);
+        }
+        clock.incrementAndGet();
+        sampler.sample("job-0", "sh", 100, false, 10, SLOW_MS);
+
+        clock.incrementAndGet();
+        sampler.sample("new-job", "sh", 100, false, 10, SLOW_MS);
+        assertEquals(BoundedRecencyMap.evictTo(StepSampler.MAX_TRACKED_STEP_TYPES), sampler.getTrackedCount());
+
+        // job-0 kept its average, job-1 starts over: a first step is never relatively slow
+        assertEquals(StepSampler.Reason.SLOW, sampler.sample("job-0", "sh", 5000, false, 10, SLOW_MS));
+        assertNotEquals(StepSampler.Reason.SLOW, sampler.sample("job-1", "sh", 5000, false, 10, SLOW_MS));
+    }
+}
@@ -0,0 +1,74 @@
+package io.redsignx.jenkins.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for TokenBucket burst and refill behavior.
+ */
+public class TokenBucketTest {
+    
+    private final AtomicLong clock = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    
+    @Test
+    public void testBurstIsAvailableImmediately() {
+        TokenBucket bucket = new TokenBucket(5, 1, clock::get);
+        
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+    }
+    
+    @Test
+    public void testRefillAtConfiguredRate() {
+        TokenBucket bucket = new TokenBucket(2, 10, clock::get);
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        
+        // 10 tokens per second means one token every 100ms
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+    
+    @Test
+    public void testRefundReturnsToken() {
+        TokenBucket bucket = new TokenBucket(1, 1, clock::get);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        
+        bucket.refund();
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+    
+    @Test
+    public void testRefillNeverExceedsBurst() {
+        TokenBucket bucket = new TokenBucket(3, 100, clock::get);
+        assertTrue(bucket.tryAcquire());
+        
+        // A minute at 100 tokens per second still leaves only the burst of 3
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+    }
+    
+    @Test
+    public void testWorksAcrossNegativeClockValues() {
+        clock.set(-TimeUnit.SECONDS.toNanos(1));
+        TokenBucket bucket = new TokenBucket(1, 1, clock::get);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertTrue(bucket.tryAcquire());
+    }
+}
@@ -0,0 +1,115 @@
+package io.redsignx.jenkins.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trip tests for the JSON and CBOR wire formats.
+ */
+public class WireFormatTest {
+    
+    private final Gson gson = new Gson();
+    
+    private static List<MetricEvent> sampleEvents() {
+        return Arrays.asList(
+            new StageStartEvent("job#42:5", "Build", "folder/job", 42, "job/folder/job/42/",
+                "main", null, null, "5", 1234567890000L),
+            new StageEndEvent("job#42:5", "Build", "folder/job", 42, "job/folder/job/42/",
+                "feature/ü-branch", "PR-7", "main", "5", 1234567895000L,
+                "FAILURE", "FAILURE", 5000L, "Tests failed: \"quoted\" and emoji 🚀"),
+            new StageCompleteEvent("job#42:9", "Lint", "folder/job", 42, "job/folder/job/42/",
+                null, null, null, "9", 1234567890000L, 1234567891500L,
+                "SUCCESS", "SUCCESS", 1500L, null),
+            new StageSuppressionSummaryEvent("folder/job", 42, "job/folder/job/42/",
+                null, null, null, 1234567899000L, 100000L, 11111L, 10)
+        );
+    }
+    
+    @Test
+    public void testCborRoundTripMatchesJson() throws Exception {
+        for (MetricEvent event : sampleEvents()) {
+            JsonElement expected = gson.toJsonTree(event);
+            JsonElement decoded = CborDecoder.decode(WireFormat.CBOR.encode(gson, event));
+            assertEquals(event.getEventType(), expected, decoded);
+        }
+    }
+    
+    @Test
+    public void testJsonRoundTrip() throws Exception {
+        for (MetricEvent event : sampleEvents()) {
+            String json = new String(WireFormat.JSON.encode(gson, event), StandardCharsets.UTF_8);
+            assertEquals(gson.toJsonTree(event), gson.fromJson(json, JsonObject.class));
+        }
+    }
+    
+    @Test
+    public void testCborIsSmallerThanJson() throws Exception {
+        for (MetricEvent event : sampleEvents()) {
+            assertTrue(WireFormat.CBOR.encode(gson, event).length < WireFormat.JSON.encode(gson, event).length);
+        }
+    }
+    
+    @Test
+    public void testCborEncodesListsAsArrays() throws Exception {
+        List<MetricEvent> events = sampleEvents();
+        JsonElement decoded = CborDecoder.decode(WireFormat.CBOR.encode(gson, events));
+        
+        assertTrue(decoded.isJsonArray());
+        assertEquals(events.size(), decoded.getAsJsonArray().size());
+        assertEquals(gson.toJsonTree(events.get(1)), decoded.getAsJsonArray().get(1));
+    }
+    
+    @Test
+    public void testCborIntegerEncodings() throws Exception {
+        assertArrayEquals(new byte[] {0x17}, cbor(23L));
+        assertArrayEquals(new byte[] {0x18, 0x18}, cbor(24L));
+        assertArrayEquals(new byte[] {0x19, 0x01, 0x00}, cbor(256L));
+        assertArrayEquals(new byte[] {0x1A, 0x00, 0x01, 0x00, 0x00}, cbor(65536L));
+        assertArrayEquals(new byte[] {0x1B, 0x00, 0x00, 0x01, 0x1F, 0x71, (byte) 0xFB, 0x04, 0x50},
+            cbor(1234567890000L));
+        assertArrayEquals(new byte[] {0x20}, cbor(-1L));
+        assertArrayEquals(new byte[] {0x38, 0x63}, cbor(-100L));
+    }
+    
+    @Test
+    public void testCborOmitsNullFieldsLikeJson() throws Exception {
+        StageStartEvent event = new StageStartEvent("id", "Build", "job", 1, "url", null, null, null, "1", 0L);
+        JsonObject decoded = CborDecoder.decode(WireFormat.CBOR.encode(gson, event)).getAsJsonObject();
+        
+        assertFalse(decoded.has("branch_name"));
+        assertFalse(decoded.has("change_id"));
+        assertEquals("Build", decoded.get("stage_name").getAsString());
+    }
+    
+    @Test
+    public void testCborWritesRawJsonValues() throws Exception {
+        CborJsonWriter writer = new CborJsonWriter();
+        writer.beginObject();
+        writer.name("raw").jsonValue("{\"list\": [1, 2.5, \"x\", null, true], \"empty\": {}}");
+        writer.name("after").value(7L);
+        writer.endObject();
+        
+        assertEquals(gson.fromJson("{\"raw\": {\"list\": [1, 2.5, \"x\", null, true], \"empty\": {}}, \"after\": 7}",
+            JsonObject.class), CborDecoder.decode(writer.toByteArray()));
+    }
+    
+    @Test(expected = IOException.class)
+    public void testCborRejectsInvalidRawJson() throws Exception {
+        new CborJsonWriter().jsonValue("{\"unterminated\": ");
+    }
+    
+    private byte[] cbor(long value) throws Exception {
+        CborJsonWriter writer = new CborJsonWriter();
+        writer.value(value);
+        return writer.toByteArray();
+    }
+}